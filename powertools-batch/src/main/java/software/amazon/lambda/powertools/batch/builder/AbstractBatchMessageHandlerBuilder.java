@@ -15,9 +15,22 @@
 package software.amazon.lambda.powertools.batch.builder;
 
 import com.amazonaws.services.lambda.runtime.Context;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.BatchProcessingOptions;
+import software.amazon.lambda.powertools.batch.handler.BatchMiddleware;
+import software.amazon.lambda.powertools.batch.handler.BulkResult;
+import software.amazon.lambda.powertools.batch.handler.RetryPolicy;
+import software.amazon.lambda.powertools.batch.instrumentation.BatchInstrumentation;
 
 /**
  * An abstract class to capture common arguments used across all the message-binding-specific batch processing
@@ -35,6 +48,7 @@ import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
 abstract class AbstractBatchMessageHandlerBuilder<T, C, E, R> {
     protected BiConsumer<T, Throwable> failureHandler;
     protected Consumer<T> successHandler;
+    protected final BatchProcessingOptions.Builder options = BatchProcessingOptions.builder();
 
     /**
      * Provides an (Optional!) success handler. A success handler is invoked
@@ -70,6 +84,200 @@ abstract class AbstractBatchMessageHandlerBuilder<T, C, E, R> {
         return getThis();
     }
 
+    /**
+     * Bounds the parallelism of {@code processBatchInParallel(event, context)}. When set, instead of using
+     * the common ForkJoinPool - whose size is tied to the number of vCPUs - each record is processed on its
+     * own virtual thread (Java 21+), or on a dedicated pool of {@code maxConcurrency} threads on older
+     * runtimes. At most {@code maxConcurrency} records are in flight at any time.
+     * <p>
+     * This is a good fit for I/O-bound handlers, for instance making downstream HTTP calls, where
+     * concurrency should not be capped by the number of vCPUs.
+     * <p>
+     * With an async message handler, this is the maximum number of records awaited at the same time.
+     *
+     * @param maxConcurrency The maximum number of records processed at the same time
+     */
+    public C withMaxConcurrency(int maxConcurrency) {
+        this.options.withMaxConcurrency(maxConcurrency);
+        return getThis();
+    }
+
+    /**
+     * Stops starting new messages when the function is about to time out. Before each message, the
+     * remaining execution time reported by the Lambda context is compared to the given margin: once it is
+     * lower, messages that have not been started yet are not processed and are reported as batch item
+     * failures, while messages already in flight complete. Only the unprocessed messages are then retried,
+     * instead of the whole batch after a timeout.
+     * <p>
+     * The margin should leave enough time for the slowest message to complete, and for the response to be
+     * returned to Lambda.
+     *
+     * @param deadlineSafetyMargin The remaining execution time below which no new message is started
+     */
+    public C withDeadlineSafetyMargin(Duration deadlineSafetyMargin) {
+        this.options.withDeadlineSafetyMargin(deadlineSafetyMargin);
+        return getThis();
+    }
+
+    /**
+     * Lets {@code processBatchInParallel(event, context)} choose how to process each batch, instead of
+     * benchmarking sequential against parallel processing for every function and memory setting. The
+     * cost of the messages is measured as they are processed, and smoothed over the invocations of the
+     * execution environment - the first messages of the first batch are measured sequentially. From it
+     * and from the number of available processors, each batch is processed:
+     * <ul>
+     *     <li>sequentially, if the whole batch is too cheap to benefit from other threads, or if messages
+     *     are CPU-bound and a single vCPU is available;</li>
+     *     <li>on the common ForkJoinPool, if messages are CPU-bound;</li>
+     *     <li>on a bounded executor if messages mostly wait for I/O, with a concurrency sized to keep the
+     *     vCPUs busy, and capped by {@link #withMaxConcurrency(int)} if configured. As the CPU time of
+     *     virtual threads cannot be measured, this executor uses platform threads, even on Java 21+.</li>
+     * </ul>
+     * Batches processed with a custom executor, and async message handlers, are not affected.
+     */
+    public C withAdaptiveParallelism() {
+        this.options.withAdaptiveParallelism(true);
+        return getThis();
+    }
+
+    /**
+     * Starts the most expensive messages first when processing a batch in parallel, rather than in delivery
+     * order, so that a few large messages started last do not hold up the end of the batch. The cost of a
+     * message is estimated from the size of its payload: the body of SQS messages, the data of Kinesis
+     * records, and the size of DynamoDB Streams records.
+     * <p>
+     * Without a custom executor nor {@link #withMaxConcurrency(int)}, the messages are submitted to the common
+     * ForkJoinPool in that order instead of being split by a parallel stream.
+     */
+    public C withLargestFirstScheduling() {
+        this.options.withLargestFirstScheduling(true);
+        return getThis();
+    }
+
+    /**
+     * Starts the most expensive messages first when processing a batch in parallel, as described in
+     * {@link #withLargestFirstScheduling()}, estimating the cost of each message with the given function.
+     *
+     * @param costFunction Estimates the processing cost of a message, in any unit
+     */
+    public C withLargestFirstScheduling(ToLongFunction<T> costFunction) {
+        this.options.withCostFunction(costFunction);
+        return withLargestFirstScheduling();
+    }
+
+    /**
+     * Sets how many messages each task processes when processing a batch in parallel. By default, each message
+     * is a task of its own: it is handed over to another thread, and the MDC and X-Ray trace context are
+     * propagated to it, separately. For tiny messages, this overhead can outweigh the benefit of processing them
+     * in parallel; with a grain size, contiguous messages are grouped into tasks of {@code grainSize} messages,
+     * processed one after the other on the same thread.
+     * <p>
+     * Messages of a task are processed one after the other, so this does not change how many messages are in
+     * flight at the same time.
+     *
+     * @param grainSize The minimum number of messages processed by each task
+     */
+    public C withParallelGrainSize(int grainSize) {
+        this.options.withParallelGrainSize(grainSize);
+        return getThis();
+    }
+
+    /**
+     * Stops processing a batch once {@code consecutiveFailures} messages failed in a row, typically because a
+     * downstream dependency is down. The remaining messages are not handed to the message handler: they are
+     * reported as batch item failures straight away, and the failure handler is invoked for each of them with a
+     * {@link software.amazon.lambda.powertools.batch.exception.CircuitBreakerOpenException}. Messages already in
+     * flight complete. The circuit breaker is reset for every batch.
+     * <p>
+     * Consecutive failures are only counted when the messages are processed one after the other, with
+     * {@code processBatch} and a synchronous message handler. Processed in parallel, or with an async message
+     * handler, messages complete out of order: use {@link #withCircuitBreaker(double, int)} instead.
+     *
+     * @param consecutiveFailures The number of consecutive failures tripping the circuit breaker
+     */
+    public C withCircuitBreaker(int consecutiveFailures) {
+        this.options.withCircuitBreakerConsecutiveFailures(consecutiveFailures);
+        return getThis();
+    }
+
+    /**
+     * Stops processing a batch once the share of failed messages reaches {@code failureRate}, after at least
+     * {@code minimumRecords} messages have been processed. See {@link #withCircuitBreaker(int)} for how the
+     * remaining messages are failed. Both thresholds can be configured together.
+     *
+     * @param failureRate    The share of failed messages, between 0 exclusive and 1 inclusive, tripping the
+     *                       circuit breaker
+     * @param minimumRecords The number of messages to process before the failure rate is considered
+     */
+    public C withCircuitBreaker(double failureRate, int minimumRecords) {
+        this.options.withCircuitBreakerFailureRate(failureRate, minimumRecords);
+        return getThis();
+    }
+
+    /**
+     * Selects, before processing a batch, the messages to process. The messages the filter does not return are
+     * considered successfully processed, without being handed to the message handler nor to the success handler.
+     * <p>
+     * This is meant to skip the messages already processed with a single lookup for the whole batch, such as with
+     * the idempotency utility:
+     * <pre>
+     * .withBatchFilter(Idempotency.skipCompleted("processMessage", SQSMessage::getBody))
+     * </pre>
+     *
+     * @param filter Returns the messages of the batch to process, in order
+     */
+    public C withBatchFilter(UnaryOperator<List<T>> filter) {
+        this.options.withBatchFilter(filter);
+        return getThis();
+    }
+
+    /**
+     * Runs the given stages around the message handler, such as fetching large message payloads, validating
+     * messages, or skipping messages already processed. All the stages run in a single pass per message, in the
+     * order they were added, and share the parsed body of the message: it is parsed at most once, however many
+     * stages read it, and the message handler receives the message deserialized from the same tree.
+     * <p>
+     * Stages apply to raw and deserialized message handlers. They are not supported with bulk and async message
+     * handlers.
+     *
+     * @param middlewares The stages to run for each message, in order
+     */
+    @SafeVarargs
+    public final C withMiddleware(BatchMiddleware<T>... middlewares) {
+        this.options.withMiddleware(Arrays.asList(middlewares));
+        return getThis();
+    }
+
+    /**
+     * Retries messages whose handler failed within the invocation, rather than reporting them as batch item
+     * failures straight away. Transient errors such as throttling then recover in milliseconds, instead of
+     * waiting for the visibility timeout of the queue or blocking the shard until the batch is retried.
+     * <p>
+     * Only the message handler is retried: a message that cannot be deserialized fails straight away. A message
+     * is not retried if the remaining execution time after the backoff would be lower than the margin configured
+     * with {@link #withDeadlineSafetyMargin(Duration)}. Bulk message handlers are not retried.
+     *
+     * @param retryPolicy How messages are retried
+     */
+    public C withRetryPolicy(RetryPolicy retryPolicy) {
+        this.options.withRetryPolicy(retryPolicy);
+        return getThis();
+    }
+
+    /**
+     * Provides an (Optional!) instrumentation hook, notified of the time spent
+     * deserializing and handling each message, of the time messages waited in
+     * the queue or stream, and of the outcome of each batch. Use
+     * {@link software.amazon.lambda.powertools.batch.instrumentation.MetricsBatchInstrumentation}
+     * to publish these as one aggregated EMF document per batch.
+     *
+     * @param instrumentation The instrumentation to notify
+     */
+    public C withInstrumentation(BatchInstrumentation instrumentation) {
+        this.options.withInstrumentation(instrumentation);
+        return getThis();
+    }
+
     /**
      * Builds a BatchMessageHandler that can be used to process batches, given
      * a user-defined handler to process each item in the batch. This variant
@@ -132,6 +340,77 @@ abstract class AbstractBatchMessageHandlerBuilder<T, C, E, R> {
         return buildWithMessageHandler((f, c) -> handler.accept(f), messageClass);
     }
 
+    /**
+     * Builds a BatchMessageHandler that can be used to process batches, given
+     * a user-defined asynchronous handler to process each item in the batch. This
+     * variant takes a function that consumes a raw message and the Lambda context,
+     * and returns a future completing once the message has been processed - for
+     * instance, the future returned by a call to an AWS SDK async client.
+     * <p>
+     * Rather than blocking a thread per message, the thread calling
+     * {@code processBatch} starts the messages and waits for their futures, keeping
+     * up to {@code maxConcurrency} messages in flight (100 if not configured with
+     * {@link #withMaxConcurrency(int)}). A message fails if the handler throws or
+     * if its future completes exceptionally. {@code processBatchInParallel}
+     * behaves like {@code processBatch}, and ignores the given executor.
+     * Messages that must be processed in order, such as the messages of a FIFO
+     * message group, are started one after the other.
+     *
+     * @param handler Takes a raw message - the underlying AWS Events Library event - and returns
+     *                a future completing once it has been processed.
+     * @return A BatchMessageHandler for processing the batch
+     */
+    public abstract BatchMessageHandler<E, R> buildWithAsyncRawMessageHandler(
+            BiFunction<T, Context, CompletableFuture<Void>> handler);
+
+    /**
+     * Builds a BatchMessageHandler that can be used to process batches, given
+     * a user-defined asynchronous handler to process each item in the batch. This
+     * variant takes a function that consumes the deserialized body of the given
+     * message and the Lambda context, and returns a future completing once the
+     * message has been processed. If deserialization fails, it will be treated as
+     * failure of the processing of that item in the batch.
+     * <p>
+     * See {@link #buildWithAsyncRawMessageHandler(BiFunction)} for how messages
+     * are processed.
+     *
+     * @param handler      Processes the deserialized body of the message, returning a future
+     * @param messageClass The class of the message bodies
+     * @return A BatchMessageHandler for processing the batch
+     */
+    public abstract <M> BatchMessageHandler<E, R> buildWithAsyncMessageHandler(
+            BiFunction<M, Context, CompletableFuture<Void>> handler, Class<M> messageClass);
+
+    /**
+     * Builds a BatchMessageHandler that can be used to process batches, given
+     * a user-defined handler to process chunks of items in the batch. This is
+     * useful for handlers that write to a downstream system offering a bulk API,
+     * for instance DynamoDB BatchWriteItem or an SQL batch insert, where one call
+     * per chunk is much cheaper than one call per item.
+     * <p>
+     * The batch is split into chunks of at most {@code chunkSize} contiguous items,
+     * and the handler is invoked once per chunk with the deserialized bodies of its
+     * items. The handler returns a {@link BulkResult} holding the indexes, in the
+     * list it was given, of the items that failed. If deserialization of an item
+     * fails, that item fails and is not handed to the handler. If the handler
+     * throws, all the items of the chunk fail.
+     *
+     * @param handler      Processes a chunk of deserialized message bodies
+     * @param messageClass The class of the message bodies
+     * @param chunkSize    The maximum number of items handed to the handler at once
+     * @return A BatchMessageHandler for processing the batch
+     */
+    public abstract <M> BatchMessageHandler<E, R> buildWithBulkMessageHandler(
+            Function<List<M>, BulkResult> handler, Class<M> messageClass, int chunkSize);
+
+    /**
+     * Validates the chunk size given to {@link #buildWithBulkMessageHandler(Function, Class, int)}.
+     */
+    protected static void checkChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+    }
 
     /**
      * Used to chain the fluent builder interface through the child classes.
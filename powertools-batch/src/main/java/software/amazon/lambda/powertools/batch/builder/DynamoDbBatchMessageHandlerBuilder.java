@@ -17,10 +17,17 @@ package software.amazon.lambda.powertools.batch.builder;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
 import com.amazonaws.services.lambda.runtime.events.StreamsEventResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import software.amazon.lambda.powertools.batch.exception.DeserializationNotSupportedException;
 import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.BulkResult;
 import software.amazon.lambda.powertools.batch.handler.DynamoDbBatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.DynamoDbStreamChange;
 
 /**
  * Builds a batch processor for processing DynamoDB Streams batch events
@@ -31,14 +38,56 @@ public class DynamoDbBatchMessageHandlerBuilder
         DynamodbEvent,
         StreamsEventResponse> {
 
+    /**
+     * Preserves the order of the changes to the same item when processing the batch in parallel. Records are
+     * grouped by their {@code Keys}; groups are processed in parallel, and the records within a group
+     * sequentially. When a record fails, the remaining records of its group are not processed, and the lowest
+     * failed sequence number is reported so that Lambda checkpoints the stream correctly.
+     *
+     * @return This builder
+     */
+    public DynamoDbBatchMessageHandlerBuilder withPartitionKeyOrdering() {
+        this.options.withPartitionKeyOrdering(true);
+        return this;
+    }
 
     @Override
     public BatchMessageHandler<DynamodbEvent, StreamsEventResponse> buildWithRawMessageHandler(
             BiConsumer<DynamodbEvent.DynamodbStreamRecord, Context> rawMessageHandler) {
-        return new DynamoDbBatchMessageHandler(
-                this.successHandler,
-                this.failureHandler,
-                rawMessageHandler);
+        return new DynamoDbBatchMessageHandler(spec()
+                .withRawMessageHandler(rawMessageHandler));
+    }
+
+    /**
+     * Builds a BatchMessageHandler that can be used to process batches, given
+     * a user-defined handler to process each change in the batch. The {@code NewImage} and
+     * {@code OldImage} of each record are mapped to the given class, without going through JSON:
+     * attributes are bound to the fields of the same name, ignoring case, once per class.
+     *
+     * @param handler    Processes the change to the item
+     * @param imageClass The class of the items of the table
+     * @param <M>        The type of the items of the table
+     * @return A BatchMessageHandler for processing the batch
+     */
+    public <M> BatchMessageHandler<DynamodbEvent, StreamsEventResponse> buildWithChangeHandler(
+            BiConsumer<DynamoDbStreamChange<M>, Context> handler, Class<M> imageClass) {
+        return new DynamoDbBatchMessageHandler(spec()
+                .withChangeHandler(handler, imageClass));
+    }
+
+    /**
+     * Builds a BatchMessageHandler that can be used to process batches, given
+     * a user-defined handler to process each change in the batch.
+     * See {@link #buildWithChangeHandler(BiConsumer, Class)}.
+     *
+     * @param handler    Processes the change to the item
+     * @param imageClass The class of the items of the table
+     * @param <M>        The type of the items of the table
+     * @return A BatchMessageHandler for processing the batch
+     */
+    public <M> BatchMessageHandler<DynamodbEvent, StreamsEventResponse> buildWithChangeHandler(
+            Consumer<DynamoDbStreamChange<M>> handler, Class<M> imageClass) {
+        return buildWithChangeHandler((change, context) -> handler.accept(change), imageClass);
     }
 
     @Override
@@ -48,6 +97,34 @@ public class DynamoDbBatchMessageHandlerBuilder
         throw new DeserializationNotSupportedException();
     }
 
+    @Override
+    public <M> BatchMessageHandler<DynamodbEvent, StreamsEventResponse> buildWithBulkMessageHandler(
+            Function<List<M>, BulkResult> handler, Class<M> messageClass, int chunkSize) {
+        // The DDB provider streams DynamoDB changes, and therefore does not have a customizable payload
+        throw new DeserializationNotSupportedException();
+    }
+
+    @Override
+    public BatchMessageHandler<DynamodbEvent, StreamsEventResponse> buildWithAsyncRawMessageHandler(
+            BiFunction<DynamodbEvent.DynamodbStreamRecord, Context, CompletableFuture<Void>> asyncRawMessageHandler) {
+        return new DynamoDbBatchMessageHandler(spec()
+                .withAsyncRawMessageHandler(asyncRawMessageHandler));
+    }
+
+    @Override
+    public <M> BatchMessageHandler<DynamodbEvent, StreamsEventResponse> buildWithAsyncMessageHandler(
+            BiFunction<M, Context, CompletableFuture<Void>> handler, Class<M> messageClass) {
+        // The DDB provider streams DynamoDB changes, and therefore does not have a customizable payload
+        throw new DeserializationNotSupportedException();
+    }
+
+    private DynamoDbBatchMessageHandler.Spec spec() {
+        return new DynamoDbBatchMessageHandler.Spec()
+                .withSuccessHandler(successHandler)
+                .withFailureHandler(failureHandler)
+                .withOptions(options.build());
+    }
+
     @Override
     protected DynamoDbBatchMessageHandlerBuilder getThis() {
         return this;
@@ -17,8 +17,15 @@ package software.amazon.lambda.powertools.batch.builder;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
 import com.amazonaws.services.lambda.runtime.events.StreamsEventResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.BulkResult;
 import software.amazon.lambda.powertools.batch.handler.KinesisStreamsBatchMessageHandler;
 
 /**
@@ -29,26 +36,111 @@ public class KinesisBatchMessageHandlerBuilder
         KinesisBatchMessageHandlerBuilder,
         KinesisEvent,
         StreamsEventResponse> {
+
+    /**
+     * Preserves the order of the records sharing the same partition key when processing the batch in parallel.
+     * Records are grouped by {@code kinesis.partitionKey}; groups are processed in parallel, and the records
+     * within a group sequentially. When a record fails, the remaining records of its group are not processed,
+     * and the lowest failed sequence number is reported so that Lambda checkpoints the shard correctly.
+     *
+     * @return This builder
+     */
+    public KinesisBatchMessageHandlerBuilder withPartitionKeyOrdering() {
+        this.options.withPartitionKeyOrdering(true);
+        return this;
+    }
+
+    /**
+     * Splits the records aggregated by the Kinesis Producer Library (KPL) into their user records. Each user record
+     * is deserialized and handed to the message handler individually, in order; records that are not aggregated
+     * are handed over as usual. The digest of aggregated records is checked, and the user records are read from the
+     * data of the Kinesis record without copying it.
+     * <p>
+     * A Kinesis record succeeds if all its user records succeed. When a user record fails, the remaining user
+     * records are not processed, and the sequence number of the Kinesis record is reported as failed: all its user
+     * records are retried, so your handler should be idempotent.
+     * <p>
+     * This applies to {@code buildWithMessageHandler}, {@code buildWithBinaryMessageHandler} and
+     * {@code buildWithAsyncMessageHandler}. Raw and bulk message handlers are not supported: building them throws
+     * an {@link IllegalArgumentException}.
+     *
+     * @return This builder
+     */
+    public KinesisBatchMessageHandlerBuilder withKplDeaggregation() {
+        this.options.withKplDeaggregation(true);
+        return this;
+    }
+
     @Override
     public BatchMessageHandler<KinesisEvent, StreamsEventResponse> buildWithRawMessageHandler(
             BiConsumer<KinesisEvent.KinesisEventRecord, Context> rawMessageHandler) {
-        return new KinesisStreamsBatchMessageHandler<Void>(
-                rawMessageHandler,
-                null,
-                null,
-                successHandler,
-                failureHandler);
+        return new KinesisStreamsBatchMessageHandler<>(this.<Void>spec()
+                .withRawMessageHandler(rawMessageHandler));
     }
 
     @Override
     public <M> BatchMessageHandler<KinesisEvent, StreamsEventResponse> buildWithMessageHandler(
             BiConsumer<M, Context> messageHandler, Class<M> messageClass) {
-        return new KinesisStreamsBatchMessageHandler<>(
-                null,
-                messageHandler,
-                messageClass,
-                successHandler,
-                failureHandler);
+        return new KinesisStreamsBatchMessageHandler<>(this.<M>spec()
+                .withMessageHandler(messageHandler, messageClass));
+    }
+
+    /**
+     * Builds a BatchMessageHandler that can be used to process batches, given
+     * a user-defined handler to process the binary data of each item in the batch,
+     * such as Avro, protobuf or compressed payloads. The handler receives a
+     * read-only view of the data of the Kinesis record, without decoding it into
+     * a String or copying it.
+     *
+     * @param handler Processes the data of the record
+     * @return A BatchMessageHandler for processing the batch
+     */
+    public BatchMessageHandler<KinesisEvent, StreamsEventResponse> buildWithBinaryMessageHandler(
+            BiConsumer<ByteBuffer, Context> handler) {
+        return new KinesisStreamsBatchMessageHandler<>(this.<Void>spec()
+                .withBinaryMessageHandler(handler));
+    }
+
+    /**
+     * Builds a BatchMessageHandler that can be used to process batches, given
+     * a user-defined handler to process the binary data of each item in the batch.
+     * See {@link #buildWithBinaryMessageHandler(BiConsumer)}.
+     *
+     * @param handler Processes the data of the record
+     * @return A BatchMessageHandler for processing the batch
+     */
+    public BatchMessageHandler<KinesisEvent, StreamsEventResponse> buildWithBinaryMessageHandler(
+            Consumer<ByteBuffer> handler) {
+        return buildWithBinaryMessageHandler((data, context) -> handler.accept(data));
+    }
+
+    @Override
+    public <M> BatchMessageHandler<KinesisEvent, StreamsEventResponse> buildWithBulkMessageHandler(
+            Function<List<M>, BulkResult> bulkMessageHandler, Class<M> messageClass, int chunkSize) {
+        checkChunkSize(chunkSize);
+        return new KinesisStreamsBatchMessageHandler<>(this.<M>spec()
+                .withBulkMessageHandler(bulkMessageHandler, messageClass, chunkSize));
+    }
+
+    @Override
+    public BatchMessageHandler<KinesisEvent, StreamsEventResponse> buildWithAsyncRawMessageHandler(
+            BiFunction<KinesisEvent.KinesisEventRecord, Context, CompletableFuture<Void>> asyncRawMessageHandler) {
+        return new KinesisStreamsBatchMessageHandler<>(this.<Void>spec()
+                .withAsyncRawMessageHandler(asyncRawMessageHandler));
+    }
+
+    @Override
+    public <M> BatchMessageHandler<KinesisEvent, StreamsEventResponse> buildWithAsyncMessageHandler(
+            BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler, Class<M> messageClass) {
+        return new KinesisStreamsBatchMessageHandler<>(this.<M>spec()
+                .withAsyncMessageHandler(asyncMessageHandler, messageClass));
+    }
+
+    private <M> KinesisStreamsBatchMessageHandler.Spec<M> spec() {
+        return new KinesisStreamsBatchMessageHandler.Spec<M>()
+                .withSuccessHandler(successHandler)
+                .withFailureHandler(failureHandler)
+                .withOptions(options.build());
     }
 
     @Override
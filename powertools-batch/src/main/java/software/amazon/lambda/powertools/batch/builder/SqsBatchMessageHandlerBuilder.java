@@ -17,8 +17,13 @@ package software.amazon.lambda.powertools.batch.builder;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.BulkResult;
 import software.amazon.lambda.powertools.batch.handler.SqsBatchMessageHandler;
 
 /**
@@ -29,31 +34,76 @@ public class SqsBatchMessageHandlerBuilder extends AbstractBatchMessageHandlerBu
         SQSEvent,
         SQSBatchResponse> {
 
+    /**
+     * Processes the messages of a batch sharing the same body only once. SQS standard queues deliver messages
+     * at least once, and producers may send the same payload several times, so a batch can hold duplicates.
+     * With this option, the handler is invoked for the first message of each distinct body, and its outcome
+     * is applied to all the messages sharing that body: they all succeed, or all fail and are retried together.
+     * The success and failure handlers are only invoked for the message that was processed.
+     * <p>
+     * Messages of FIFO queues, which SQS deduplicates already, are always all processed.
+     *
+     * @return This builder
+     */
+    public SqsBatchMessageHandlerBuilder withDuplicateCollapsing() {
+        return withDuplicateCollapsing(SQSEvent.SQSMessage::getBody);
+    }
+
+    /**
+     * Processes the messages of a batch sharing the same key only once, as described in
+     * {@link #withDuplicateCollapsing()}. The key should identify the payload of a message - for instance an
+     * idempotency key carried in a message attribute - and implement {@code equals} and {@code hashCode}.
+     *
+     * @param keyExtractor Extracts the key identifying duplicate messages
+     * @return This builder
+     */
+    public SqsBatchMessageHandlerBuilder withDuplicateCollapsing(Function<SQSEvent.SQSMessage, ?> keyExtractor) {
+        this.options.withDuplicateKeyExtractor(keyExtractor);
+        return this;
+    }
 
     @Override
     public BatchMessageHandler<SQSEvent, SQSBatchResponse> buildWithRawMessageHandler(
             BiConsumer<SQSEvent.SQSMessage, Context> rawMessageHandler) {
-        return new SqsBatchMessageHandler<Void>(
-                null,
-                null,
-                rawMessageHandler,
-                successHandler,
-                failureHandler
-        );
+        return new SqsBatchMessageHandler<>(this.<Void>spec()
+                .withRawMessageHandler(rawMessageHandler));
     }
 
     @Override
     public <M> BatchMessageHandler<SQSEvent, SQSBatchResponse> buildWithMessageHandler(
             BiConsumer<M, Context> messageHandler, Class<M> messageClass) {
-        return new SqsBatchMessageHandler<>(
-                messageHandler,
-                messageClass,
-                null,
-                successHandler,
-                failureHandler
-        );
+        return new SqsBatchMessageHandler<>(this.<M>spec()
+                .withMessageHandler(messageHandler, messageClass));
+    }
+
+    @Override
+    public <M> BatchMessageHandler<SQSEvent, SQSBatchResponse> buildWithBulkMessageHandler(
+            Function<List<M>, BulkResult> bulkMessageHandler, Class<M> messageClass, int chunkSize) {
+        checkChunkSize(chunkSize);
+        return new SqsBatchMessageHandler<>(this.<M>spec()
+                .withBulkMessageHandler(bulkMessageHandler, messageClass, chunkSize));
     }
 
+    @Override
+    public BatchMessageHandler<SQSEvent, SQSBatchResponse> buildWithAsyncRawMessageHandler(
+            BiFunction<SQSEvent.SQSMessage, Context, CompletableFuture<Void>> asyncRawMessageHandler) {
+        return new SqsBatchMessageHandler<>(this.<Void>spec()
+                .withAsyncRawMessageHandler(asyncRawMessageHandler));
+    }
+
+    @Override
+    public <M> BatchMessageHandler<SQSEvent, SQSBatchResponse> buildWithAsyncMessageHandler(
+            BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler, Class<M> messageClass) {
+        return new SqsBatchMessageHandler<>(this.<M>spec()
+                .withAsyncMessageHandler(asyncMessageHandler, messageClass));
+    }
+
+    private <M> SqsBatchMessageHandler.Spec<M> spec() {
+        return new SqsBatchMessageHandler.Spec<M>()
+                .withSuccessHandler(successHandler)
+                .withFailureHandler(failureHandler)
+                .withOptions(options.build());
+    }
 
     @Override
     protected SqsBatchMessageHandlerBuilder getThis() {
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.exception;
+
+/**
+ * Passed to the failure handler for the items that were not processed because the circuit breaker of the batch
+ * tripped on earlier failures.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    public CircuitBreakerOpenException() {
+        super("The circuit breaker tripped on earlier failures of the batch, the item was not processed");
+    }
+
+}
@@ -0,0 +1,1122 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+import software.amazon.lambda.powertools.batch.exception.BulkItemFailureException;
+import software.amazon.lambda.powertools.batch.exception.CircuitBreakerOpenException;
+import software.amazon.lambda.powertools.batch.instrumentation.BatchObservation;
+import software.amazon.lambda.powertools.batch.internal.AdaptiveParallelism;
+import software.amazon.lambda.powertools.batch.internal.BatchItemResults;
+import software.amazon.lambda.powertools.batch.internal.BoundedExecutor;
+import software.amazon.lambda.powertools.batch.internal.CircuitBreaker;
+import software.amazon.lambda.powertools.batch.internal.MultiThreadMDC;
+import software.amazon.lambda.powertools.batch.internal.XRayTraceEntityPropagator;
+
+/**
+ * An abstract class capturing the processing logic shared by all the event-source-specific batch message
+ * handlers: sequential processing, and parallel processing on the common ForkJoinPool, on a bounded executor,
+ * or on a user-provided executor. Children only need to know how to get the records out of the event, how to
+ * deserialize and handle a single record, and how to build the response.
+ * <p>
+ * Records are processed in chunks of contiguous records - of a single record, unless a bulk message handler is
+ * used. The results of a chunk are aligned with its records, so that ordered processing can tell which record
+ * failed first.
+ * <p>
+ * The processing of every batch and of each of its records is reported to the configured
+ * {@link software.amazon.lambda.powertools.batch.instrumentation.BatchInstrumentation}.
+ *
+ * @param <E> The type of the Lambda batch event
+ * @param <T> The type of a single record in the batch
+ * @param <F> The type of a batch item failure
+ * @param <R> The type of the batch response we return to Lambda
+ */
+abstract class AbstractBatchMessageHandler<E, T, F, R> implements BatchMessageHandler<E, R> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractBatchMessageHandler.class);
+
+    // The maximum number of records awaited at the same time by an async message handler, unless configured
+    private static final int DEFAULT_ASYNC_MAX_CONCURRENCY = 100;
+
+    protected final Consumer<T> successHandler;
+    protected final BiConsumer<T, Throwable> failureHandler;
+    protected final BatchProcessingOptions options;
+
+    // Created on first use and kept for the lifetime of the handler, i.e. the Lambda execution environment
+    private volatile Executor boundedExecutor;
+    // Learns the cost of the records over the lifetime of the handler, or null if not enabled
+    private final AdaptiveParallelism adaptiveParallelism;
+    // The stages run around the message handler for each record, in order
+    private final List<BatchMiddleware<T>> middlewares;
+    // The cause of the failure of the records processed in place of their duplicates, by record identity
+    private final Map<T, AtomicReference<Exception>> duplicatedRecordFailures =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    @SuppressWarnings("unchecked")
+    AbstractBatchMessageHandler(Consumer<T> successHandler, BiConsumer<T, Throwable> failureHandler,
+            BatchProcessingOptions options) {
+        this.successHandler = successHandler;
+        this.failureHandler = failureHandler;
+        this.options = options;
+        this.adaptiveParallelism = options.isAdaptiveParallelism()
+                ? new AdaptiveParallelism(options.getMaxConcurrency()) : null;
+        this.middlewares = (List<BatchMiddleware<T>>) (List<?>) options.getMiddlewares();
+    }
+
+    /**
+     * Fails fast when middleware stages are configured for a message handler that cannot run them.
+     *
+     * @param supported Whether the message handler supports middleware stages
+     */
+    void checkMiddlewareSupported(boolean supported) {
+        if (!supported && !middlewares.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Middleware is only supported with raw and deserialized message handlers");
+        }
+    }
+
+    @Override
+    public R processBatch(E event, Context context) {
+        return process(event, context, false, null);
+    }
+
+    @Override
+    public R processBatchInParallel(E event, Context context) {
+        return process(event, context, true, null);
+    }
+
+    @Override
+    public R processBatchInParallel(E event, Context context, Executor executor) {
+        return process(event, context, true, executor);
+    }
+
+    private R process(E event, Context context, boolean parallel, Executor executor) {
+        List<T> records = filterRecords(getRecords(event));
+        BatchObservation observation = options.getInstrumentation().startBatch(records.size());
+        // Records complete out of order unless processed one after the other
+        CircuitBreaker circuitBreaker = CircuitBreaker.forBatch(options, !parallel && !isAsync());
+        long start = System.nanoTime();
+
+        Function<T, ?> duplicateKey = getDuplicateKey(event);
+        BatchItemResults<F> results = duplicateKey == null
+                ? processRecords(records, getOrderingKey(event, parallel), context, parallel, executor, observation,
+                        circuitBreaker)
+                : processDistinctRecords(records, duplicateKey, context, parallel, executor, observation,
+                        circuitBreaker);
+
+        observation.batchProcessed(System.nanoTime() - start);
+        return buildResponse(results.getFailures());
+    }
+
+    /**
+     * @return the records of the batch selected by the batch filter, if any. The others are not processed, and are
+     *         therefore not reported as failed.
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> filterRecords(List<T> records) {
+        UnaryOperator<List<T>> batchFilter = (UnaryOperator<List<T>>) options.getBatchFilter();
+        if (batchFilter == null || records.isEmpty()) {
+            return records;
+        }
+        List<T> selectedRecords = batchFilter.apply(records);
+        LOGGER.debug("Processing {} records out of {}", selectedRecords.size(), records.size());
+        return selectedRecords;
+    }
+
+    /**
+     * Processes the first record of each distinct key only, and applies its outcome to the records sharing its key:
+     * when it fails, they are all reported as failed, and to the failure handler with the same cause. When it
+     * succeeds, they are all reported to the success handler.
+     *
+     * @return the outcome of the records of the batch
+     */
+    private BatchItemResults<F> processDistinctRecords(List<T> records, Function<T, ?> duplicateKey,
+            Context context, boolean parallel, Executor executor, BatchObservation observation,
+            CircuitBreaker circuitBreaker) {
+        Map<Object, Integer> distinctPositions = new HashMap<>();
+        List<T> distinctRecords = new ArrayList<>();
+        // The position in the distinct records of the record processed in place of each record
+        int[] distinctPositionOf = new int[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            Integer distinctPosition = distinctPositions.putIfAbsent(duplicateKey.apply(records.get(i)),
+                    distinctRecords.size());
+            if (distinctPosition == null) {
+                distinctPosition = distinctRecords.size();
+                distinctRecords.add(records.get(i));
+            }
+            distinctPositionOf[i] = distinctPosition;
+        }
+        if (distinctRecords.size() == records.size()) {
+            return processRecords(records, null, context, parallel, executor, observation, circuitBreaker);
+        }
+
+        LOGGER.debug("Processing {} distinct records out of {}", distinctRecords.size(), records.size());
+        List<AtomicReference<Exception>> failureCauses = new ArrayList<>(distinctRecords.size());
+        for (T distinctRecord : distinctRecords) {
+            AtomicReference<Exception> failureCause = new AtomicReference<>();
+            duplicatedRecordFailures.put(distinctRecord, failureCause);
+            failureCauses.add(failureCause);
+        }
+        BatchItemResults<F> distinctResults;
+        try {
+            distinctResults = processRecords(distinctRecords, null, context, parallel, executor, observation,
+                    circuitBreaker);
+        } finally {
+            distinctRecords.forEach(duplicatedRecordFailures::remove);
+        }
+        BatchItemResults<F> results = new BatchItemResults<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            T eventRecord = records.get(i);
+            T processedRecord = distinctRecords.get(distinctPositionOf[i]);
+            F failure = distinctResults.getFailure(distinctPositionOf[i]);
+            if (eventRecord == processedRecord) {
+                results.setFailure(i, failure);
+            } else {
+                results.setFailure(i, completeDuplicate(eventRecord, failure,
+                        failureCauses.get(distinctPositionOf[i]).get()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reports a record that was not processed, being a duplicate of another one, with the outcome of that one.
+     *
+     * @param failure The batch item failure of the processed record, or null if it succeeded
+     * @param failureCause The cause of the failure of the processed record, or null if it was not started
+     * @return the batch item failure for the duplicate if it failed, or null if it succeeded
+     */
+    private F completeDuplicate(T eventRecord, F failure, Exception failureCause) {
+        if (failure != null) {
+            return failureCause != null ? failBatchItem(eventRecord, failureCause) : toBatchItemFailure(eventRecord);
+        }
+        try {
+            if (this.successHandler != null) {
+                this.successHandler.accept(eventRecord);
+            }
+            return null;
+        } catch (Exception e) {
+            return failBatchItem(eventRecord, e);
+        }
+    }
+
+    /**
+     * Processes the records of a batch. Records sharing the same ordering key are processed in order: processed
+     * sequentially, the whole batch stops at the first failure; processed in parallel, the groups of records
+     * sharing a key are processed concurrently, and each group stops at its first failure. The records that are
+     * not processed because of an earlier failure are reported as failed too.
+     *
+     * @return the outcome of the records of the batch
+     */
+    private BatchItemResults<F> processRecords(List<T> records, Function<T, ?> orderingKey, Context context,
+            boolean parallel, Executor executor, BatchObservation observation, CircuitBreaker circuitBreaker) {
+        List<Slice<T>> slices;
+        if (orderingKey == null) {
+            slices = isAsync() ? singleRecordSlices(records) : chunkSlices(records);
+        } else if (parallel) {
+            slices = groupSlices(records, orderingKey);
+        } else {
+            slices = Collections.singletonList(Slice.of(records, 0));
+        }
+
+        if (isAsync()) {
+            // The async handler does not need threads of its own to wait for records
+            return processAsync(slices, records.size(), context, observation, circuitBreaker);
+        }
+
+        Function<List<T>, List<Optional<F>>> work = orderingKey == null
+                ? chunk -> processChunkBeforeDeadline(chunk, context, observation, circuitBreaker)
+                : group -> processInOrder(group, context, observation, circuitBreaker);
+        BatchItemResults<F> results = new BatchItemResults<>(records.size());
+        if (!parallel) {
+            slices.forEach(slice -> slice.setResults(results, work.apply(slice.records)));
+        } else if (executor == null && adaptiveParallelism != null) {
+            processAdaptively(slices, results, work, orderingKey == null);
+        } else if (executor == null && options.getMaxConcurrency() > 0) {
+            runInParallel(slices, results, work, getBoundedExecutor());
+        } else {
+            runInParallel(slices, results, work, executor);
+        }
+        return results;
+    }
+
+    /**
+     * Processes the given slices sequentially, on the common ForkJoinPool, or on a bounded executor, as planned by
+     * {@link AdaptiveParallelism} from the cost of the records measured so far. When nothing has been measured yet
+     * and the slices are independent, the first records are processed sequentially to measure them.
+     */
+    private void processAdaptively(List<Slice<T>> slices, BatchItemResults<F> results,
+            Function<List<T>, List<Optional<F>>> work, boolean independentSlices) {
+        Function<List<T>, List<Optional<F>>> measuredWork = sliceRecords -> adaptiveParallelism
+                .measure(sliceRecords.size(), () -> work.apply(sliceRecords));
+
+        int next = 0;
+        if (independentSlices && !adaptiveParallelism.hasHistory()) {
+            for (int sampled = 0; next < slices.size() && sampled < AdaptiveParallelism.SAMPLE_SIZE; next++) {
+                Slice<T> slice = slices.get(next);
+                slice.setResults(results, measuredWork.apply(slice.records));
+                sampled += slice.records.size();
+            }
+        }
+        List<Slice<T>> remaining = slices.subList(next, slices.size());
+        int remainingRecords = remaining.stream().mapToInt(slice -> slice.records.size()).sum();
+
+        AdaptiveParallelism.Plan plan = adaptiveParallelism.plan(remainingRecords);
+        LOGGER.debug("Processing {} records with plan {}", remainingRecords, plan);
+        switch (plan.getMode()) {
+            case SEQUENTIAL:
+                remaining.forEach(slice -> slice.setResults(results, measuredWork.apply(slice.records)));
+                break;
+            case PARALLEL:
+                runInParallel(remaining, results, measuredWork, null);
+                break;
+            default:
+                Executor planExecutor = adaptiveParallelism.getExecutor(plan.getConcurrency());
+                runInParallel(remaining, results, measuredWork, planExecutor);
+                break;
+        }
+        adaptiveParallelism.batchProcessed();
+    }
+
+    /**
+     * Processes the given records sequentially, in order. When a record fails, the remaining records are not
+     * processed and are reported as failed too.
+     *
+     * @return for each record, in order, its batch item failure if it failed, or empty if it succeeded
+     */
+    private List<Optional<F>> processInOrder(List<T> records, Context context, BatchObservation observation,
+            CircuitBreaker circuitBreaker) {
+        List<Optional<F>> results = new ArrayList<>(records.size());
+        for (List<T> chunk : chunk(records)) {
+            List<Optional<F>> chunkResults = processChunkBeforeDeadline(chunk, context, observation, circuitBreaker);
+            for (int i = 0; i < chunkResults.size(); i++) {
+                if (chunkResults.get(i).isPresent()) {
+                    int chunkStart = results.size();
+                    LOGGER.info("Record {} of {} failed; failing the records after it too",
+                            chunkStart + i + 1, records.size());
+                    // Records that follow in the same chunk have been processed already, but must be retried
+                    // after this one to preserve ordering. The records of the next chunks are not processed.
+                    results.addAll(chunkResults.subList(0, i));
+                    for (int j = i; j < chunkResults.size(); j++) {
+                        T eventRecord = chunk.get(j);
+                        results.add(Optional.of(chunkResults.get(j).orElseGet(() -> toBatchItemFailure(eventRecord))));
+                    }
+                    records.subList(chunkStart + chunk.size(), records.size())
+                            .forEach(eventRecord -> results.add(Optional.of(toBatchItemFailure(eventRecord))));
+                    return results;
+                }
+            }
+            results.addAll(chunkResults);
+        }
+        return results;
+    }
+
+    /**
+     * Processes a chunk of contiguous records, unless the remaining execution time is below the configured safety
+     * margin. In that case, the records are not started and are all reported as failed, so that only they are
+     * retried rather than the whole batch after a timeout. The records are failed without being processed as well
+     * when the circuit breaker of the batch tripped.
+     */
+    private List<Optional<F>> processChunkBeforeDeadline(List<T> chunk, Context context,
+            BatchObservation observation, CircuitBreaker circuitBreaker) {
+        if (isDeadlineReached(context)) {
+            LOGGER.debug("Less than {} ms of execution time left, not starting {} records",
+                    options.getDeadlineSafetyMarginMillis(), chunk.size());
+            return chunk.stream()
+                    .map(eventRecord -> Optional.of(toBatchItemFailure(eventRecord)))
+                    .collect(Collectors.toList());
+        }
+        if (circuitBreaker.isOpen()) {
+            return chunk.stream()
+                    .map(eventRecord -> Optional.of(failProcessedItem(eventRecord, new CircuitBreakerOpenException())))
+                    .collect(Collectors.toList());
+        }
+        return processChunk(chunk, context, observation, circuitBreaker);
+    }
+
+    private boolean isDeadlineReached(Context context) {
+        long margin = options.getDeadlineSafetyMarginMillis();
+        return margin > 0 && context != null && context.getRemainingTimeInMillis() < margin;
+    }
+
+    /**
+     * Processes a chunk of contiguous records. By default, records are processed one by one.
+     *
+     * @return for each record of the chunk, in order, its batch item failure if it failed, or empty if it succeeded
+     */
+    List<Optional<F>> processChunk(List<T> chunk, Context context, BatchObservation observation,
+            CircuitBreaker circuitBreaker) {
+        List<Optional<F>> results = new ArrayList<>(chunk.size());
+        for (T eventRecord : chunk) {
+            results.add(processBatchItem(eventRecord, context, observation, circuitBreaker));
+        }
+        return results;
+    }
+
+    /**
+     * Processes a single record: deserializes it, hands it to the message handler, and reports success or failure
+     * to the success and failure handlers.
+     *
+     * @return the batch item failure for this record if it failed, or empty if it succeeded
+     */
+    private Optional<F> processBatchItem(T eventRecord, Context context, BatchObservation observation,
+            CircuitBreaker circuitBreaker) {
+        long queueWaitMillis = queueWaitMillis(eventRecord, observation);
+        long start = System.nanoTime();
+        long handlerStart = start;
+        try {
+            if (middlewares.isEmpty()) {
+                Object message = deserialize(eventRecord);
+                handlerStart = System.nanoTime();
+                handleWithRetries(eventRecord, message, context);
+            } else {
+                // The stages deserialize the record on their way to the message handler
+                handlerStart = System.nanoTime();
+                runMiddlewares(0, new BatchRecord<>(eventRecord, this::readBody), context);
+            }
+
+            // Report success if we have a handler
+            if (this.successHandler != null) {
+                this.successHandler.accept(eventRecord);
+            }
+            observation.recordProcessed(queueWaitMillis, handlerStart - start, System.nanoTime() - handlerStart,
+                    true);
+            circuitBreaker.recordProcessed(true);
+            return Optional.empty();
+        } catch (Exception e) {
+            observation.recordProcessed(queueWaitMillis, handlerStart - start, System.nanoTime() - handlerStart,
+                    false);
+            circuitBreaker.recordProcessed(false);
+            return Optional.of(failProcessedItem(eventRecord, e));
+        }
+    }
+
+    /**
+     * Runs the middleware stage at the given index, which runs the next ones, and finally deserializes the record and
+     * hands it to the message handler.
+     */
+    private void runMiddlewares(int index, BatchRecord<T> batchRecord, Context context) {
+        if (index == middlewares.size()) {
+            T eventRecord = batchRecord.getRecord();
+            Object message = batchRecord.isTouched() ? deserialize(eventRecord, batchRecord) : deserialize(eventRecord);
+            handleWithRetries(eventRecord, message, context);
+        } else {
+            middlewares.get(index).handle(batchRecord, context, () -> runMiddlewares(index + 1, batchRecord, context));
+        }
+    }
+
+    /**
+     * Hands a single record to the message handler, retrying it as configured by the retry policy.
+     */
+    void handleWithRetries(T eventRecord, Object message, Context context) {
+        runWithRetries(() -> handle(eventRecord, message, context), context);
+    }
+
+    /**
+     * Runs the given processing, running it again after a delay when it fails, as configured by the retry policy.
+     */
+    void runWithRetries(Runnable processing, Context context) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                processing.run();
+                return;
+            } catch (RuntimeException e) {
+                long backoffMillis = retryBackoffMillis(attempt, e, context);
+                if (backoffMillis < 0) {
+                    throw e;
+                }
+                LOGGER.debug("Attempt {} failed: {}, retrying in {} ms", attempt, e.getMessage(), backoffMillis);
+                try {
+                    sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits before retrying a record. On a ForkJoinPool worker, such as the threads of the common pool shared by
+     * parallel batches, the pool is told the worker is blocked so that it can compensate with another thread.
+     */
+    private static void sleep(long millis) throws InterruptedException {
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            Thread.sleep(millis);
+            return;
+        }
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean slept;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                Thread.sleep(millis);
+                slept = true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return slept;
+            }
+        });
+    }
+
+    /**
+     * @param attempt The attempt that just failed, starting at 1
+     * @param failure The failure of the attempt
+     * @param context The lambda context
+     * @return the delay before the next attempt, in milliseconds, or -1 if the record must not be retried: no retry
+     *         policy is configured, the failure is not retryable, the attempts are exhausted, or not enough execution
+     *         time would be left after the delay
+     */
+    private long retryBackoffMillis(int attempt, Throwable failure, Context context) {
+        RetryPolicy retryPolicy = options.getRetryPolicy();
+        if (retryPolicy == null || attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(failure)) {
+            return -1;
+        }
+        long backoffMillis = retryPolicy.backoffMillis(attempt);
+        if (context != null
+                && context.getRemainingTimeInMillis() - backoffMillis <= options.getDeadlineSafetyMarginMillis()) {
+            LOGGER.debug("Not enough execution time left to retry the record");
+            return -1;
+        }
+        return backoffMillis;
+    }
+
+    /**
+     * Processes a chunk of records with a bulk message handler: the records are deserialized, and handed together
+     * to the handler. Records that cannot be deserialized fail individually; if the handler throws, all the
+     * records it received fail.
+     *
+     * The handler time observed for each record is the duration of the call to the bulk handler.
+     *
+     * @param chunk          The records to process
+     * @param bulkHandler    The user-provided bulk message handler
+     * @param observation    The observation of the batch
+     * @param circuitBreaker The circuit breaker of the batch
+     * @param <M>            The user-defined type of the message
+     * @return for each record of the chunk, in order, its batch item failure if it failed, or empty if it succeeded
+     */
+    @SuppressWarnings("unchecked")
+    <M> List<Optional<F>> processBulkChunk(List<T> chunk, Function<List<M>, BulkResult> bulkHandler,
+            BatchObservation observation, CircuitBreaker circuitBreaker) {
+        List<Optional<F>> results = new ArrayList<>(chunk.size());
+        List<M> messages = new ArrayList<>(chunk.size());
+        // The index in the chunk of the record of each message handed to the bulk handler
+        List<Integer> recordIndexes = new ArrayList<>(chunk.size());
+        long[] queueWaitMillis = new long[chunk.size()];
+        long[] deserializationNanos = new long[chunk.size()];
+
+        for (int i = 0; i < chunk.size(); i++) {
+            queueWaitMillis[i] = queueWaitMillis(chunk.get(i), observation);
+            long start = System.nanoTime();
+            try {
+                messages.add((M) deserialize(chunk.get(i)));
+                deserializationNanos[i] = System.nanoTime() - start;
+                recordIndexes.add(i);
+                results.add(Optional.empty());
+            } catch (Exception e) {
+                observation.recordProcessed(queueWaitMillis[i], System.nanoTime() - start, 0, false);
+                circuitBreaker.recordProcessed(false);
+                results.add(Optional.of(failProcessedItem(chunk.get(i), e)));
+            }
+        }
+        if (messages.isEmpty()) {
+            return results;
+        }
+
+        BulkResult bulkResult;
+        long handlerStart = System.nanoTime();
+        try {
+            LOGGER.debug("Processing chunk of {} messages", messages.size());
+            bulkResult = bulkHandler.apply(messages);
+        } catch (Exception e) {
+            long handlerNanos = System.nanoTime() - handlerStart;
+            for (int i : recordIndexes) {
+                observation.recordProcessed(queueWaitMillis[i], deserializationNanos[i], handlerNanos, false);
+                circuitBreaker.recordProcessed(false);
+                results.set(i, Optional.of(failProcessedItem(chunk.get(i), e)));
+            }
+            return results;
+        }
+        long handlerNanos = System.nanoTime() - handlerStart;
+
+        for (int m = 0; m < recordIndexes.size(); m++) {
+            int i = recordIndexes.get(m);
+            try {
+                if (bulkResult != null && bulkResult.getFailedItems().contains(m)) {
+                    throw new BulkItemFailureException(m);
+                }
+
+                // Report success if we have a handler
+                if (this.successHandler != null) {
+                    this.successHandler.accept(chunk.get(i));
+                }
+                observation.recordProcessed(queueWaitMillis[i], deserializationNanos[i], handlerNanos, true);
+                circuitBreaker.recordProcessed(true);
+            } catch (Exception e) {
+                observation.recordProcessed(queueWaitMillis[i], deserializationNanos[i], handlerNanos, false);
+                circuitBreaker.recordProcessed(false);
+                results.set(i, Optional.of(failProcessedItem(chunk.get(i), e)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Processes the given slices of records with the async message handler. The calling thread starts the
+     * records and waits for their futures; at most {@code maxConcurrency} records are awaited at the same time.
+     * Slices are processed concurrently, and the records within each slice one after the other, in order:
+     * when a record fails, the remaining records of its slice are not started and are reported as failed too.
+     *
+     * @param slices         The slices of records, each one in delivery order
+     * @param batchSize      The number of records in the batch
+     * @param context        The lambda context
+     * @param observation    The observation of the batch
+     * @param circuitBreaker The circuit breaker of the batch
+     * @return the outcome of the records of the batch
+     */
+    private BatchItemResults<F> processAsync(List<Slice<T>> slices, int batchSize, Context context,
+            BatchObservation observation, CircuitBreaker circuitBreaker) {
+        int maxConcurrency = options.getMaxConcurrency() > 0
+                ? options.getMaxConcurrency() : DEFAULT_ASYNC_MAX_CONCURRENCY;
+        Semaphore inFlight = new Semaphore(maxConcurrency);
+        BatchItemResults<F> results = new BatchItemResults<>(batchSize);
+
+        List<Slice<T>> scheduled = largestFirst(slices);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[scheduled.size()];
+        for (int s = 0; s < scheduled.size(); s++) {
+            inFlight.acquireUninterruptibly();
+            CompletableFuture<Void> sliceFuture = new CompletableFuture<>();
+            sliceFuture.whenComplete((v, t) -> inFlight.release());
+            continueInOrderAsync(scheduled.get(s), 0, results, context, observation, circuitBreaker, sliceFuture);
+            futures[s] = sliceFuture;
+        }
+        CompletableFuture.allOf(futures).join();
+
+        return results;
+    }
+
+    /**
+     * Starts the records of the given slice from {@code index}, one after the other. Records whose future is
+     * already complete are handled in a loop rather than in a callback, so that long slices of handlers
+     * completing synchronously do not grow the stack.
+     */
+    private void continueInOrderAsync(Slice<T> slice, int index, BatchItemResults<F> results, Context context,
+            BatchObservation observation, CircuitBreaker circuitBreaker, CompletableFuture<Void> sliceFuture) {
+        for (int i = index; i < slice.records.size(); i++) {
+            CompletableFuture<Optional<F>> result = processBatchItemAsync(slice.records.get(i), context,
+                    observation, circuitBreaker);
+            if (!result.isDone()) {
+                int next = i;
+                result.thenAccept(r -> {
+                    if (!completeOnFailure(slice, next, r, results, sliceFuture)) {
+                        continueInOrderAsync(slice, next + 1, results, context, observation, circuitBreaker,
+                                sliceFuture);
+                    }
+                }).exceptionally(t -> {
+                    sliceFuture.completeExceptionally(t);
+                    return null;
+                });
+                return;
+            }
+            if (completeOnFailure(slice, i, result.join(), results, sliceFuture)) {
+                return;
+            }
+        }
+        sliceFuture.complete(null);
+    }
+
+    private boolean completeOnFailure(Slice<T> slice, int index, Optional<F> result, BatchItemResults<F> results,
+            CompletableFuture<Void> sliceFuture) {
+        if (!result.isPresent()) {
+            return false;
+        }
+        results.setFailure(slice.positions[index], result.get());
+        if (index + 1 < slice.records.size()) {
+            LOGGER.info("Record {} of {} failed; failing the records after it too", index + 1, slice.records.size());
+            for (int i = index + 1; i < slice.records.size(); i++) {
+                results.setFailure(slice.positions[i], toBatchItemFailure(slice.records.get(i)));
+            }
+        }
+        sliceFuture.complete(null);
+        return true;
+    }
+
+    /**
+     * Starts processing a single record with the async message handler, reporting success or failure to the
+     * success and failure handlers once its future completes. The handler time observed for the record lasts
+     * until its future completes.
+     *
+     * @return a future of the batch item failure for this record if it failed, or empty if it succeeded. It
+     *         never completes exceptionally.
+     */
+    private CompletableFuture<Optional<F>> processBatchItemAsync(T eventRecord, Context context,
+            BatchObservation observation, CircuitBreaker circuitBreaker) {
+        if (isDeadlineReached(context)) {
+            LOGGER.debug("Less than {} ms of execution time left, not starting record",
+                    options.getDeadlineSafetyMarginMillis());
+            return CompletableFuture.completedFuture(Optional.of(toBatchItemFailure(eventRecord)));
+        }
+        if (circuitBreaker.isOpen()) {
+            return CompletableFuture.completedFuture(
+                    Optional.of(failProcessedItem(eventRecord, new CircuitBreakerOpenException())));
+        }
+
+        long queueWaitMillis = queueWaitMillis(eventRecord, observation);
+        long start = System.nanoTime();
+        long handlerStart = start;
+        CompletableFuture<Void> future;
+        try {
+            Object message = deserialize(eventRecord);
+            handlerStart = System.nanoTime();
+            future = startBatchItemAsyncWithRetries(eventRecord, message, context);
+        } catch (Exception e) {
+            observation.recordProcessed(queueWaitMillis, handlerStart - start, System.nanoTime() - handlerStart,
+                    false);
+            circuitBreaker.recordProcessed(false);
+            return CompletableFuture.completedFuture(Optional.of(failProcessedItem(eventRecord, e)));
+        }
+
+        long deserializationNanos = handlerStart - start;
+        long handlerStartNanos = handlerStart;
+        return future.handle((v, t) -> {
+            long handlerNanos = System.nanoTime() - handlerStartNanos;
+            if (t != null) {
+                observation.recordProcessed(queueWaitMillis, deserializationNanos, handlerNanos, false);
+                circuitBreaker.recordProcessed(false);
+                Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                return Optional.of(failProcessedItem(eventRecord,
+                        cause instanceof Exception ? (Exception) cause : new CompletionException(cause)));
+            }
+            try {
+                // Report success if we have a handler
+                if (this.successHandler != null) {
+                    this.successHandler.accept(eventRecord);
+                }
+                observation.recordProcessed(queueWaitMillis, deserializationNanos, handlerNanos, true);
+                circuitBreaker.recordProcessed(true);
+                return Optional.<F>empty();
+            } catch (Exception e) {
+                observation.recordProcessed(queueWaitMillis, deserializationNanos, handlerNanos, false);
+                circuitBreaker.recordProcessed(false);
+                return Optional.of(failProcessedItem(eventRecord, e));
+            }
+        });
+    }
+
+    private CompletableFuture<Void> startBatchItemAsyncChecked(T eventRecord, Object message, Context context) {
+        return Objects.requireNonNull(startBatchItemAsync(eventRecord, message, context),
+                "The async message handler returned a null future");
+    }
+
+    /**
+     * Starts processing a single record with the async message handler, starting it again after a delay when it
+     * fails, as configured by the retry policy.
+     */
+    CompletableFuture<Void> startBatchItemAsyncWithRetries(T eventRecord, Object message, Context context) {
+        if (options.getRetryPolicy() == null) {
+            return startBatchItemAsyncChecked(eventRecord, message, context);
+        }
+        return startWithRetries(() -> startBatchItemAsyncChecked(eventRecord, message, context), context, 1);
+    }
+
+    /**
+     * Starts the given async processing, starting it again after a delay when it fails, as configured by the retry
+     * policy. The delay does not block any thread.
+     */
+    CompletableFuture<Void> startWithRetries(Supplier<CompletableFuture<Void>> processing, Context context,
+            int attempt) {
+        CompletableFuture<Void> future;
+        try {
+            future = processing.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.handle((v, t) -> {
+            if (t == null) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            long backoffMillis = retryBackoffMillis(attempt, cause, context);
+            if (backoffMillis < 0) {
+                return CompletableFuture.<Void>failedFuture(cause);
+            }
+            LOGGER.debug("Attempt {} failed: {}, retrying in {} ms", attempt, cause.getMessage(), backoffMillis);
+            Executor delayed = CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> startWithRetries(processing, context, attempt + 1), delayed)
+                    .thenCompose(Function.identity());
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Runs the given slices of records concurrently, propagating the MDC and the X-Ray trace entity to the threads
+     * running them. Each slice records its outcome in the slots of its own records, so that slices never contend
+     * with each other.
+     *
+     * @param slices   The slices of records - chunks, or groups of records
+     * @param results  The slots of the records of the batch
+     * @param work     Processes the records of a slice, returning for each one its batch item failure if it failed
+     * @param executor The executor to run the slices on, or null to use the common ForkJoinPool
+     */
+    private void runInParallel(List<Slice<T>> slices, BatchItemResults<F> results,
+            Function<List<T>, List<Optional<F>>> work, Executor executor) {
+        MultiThreadMDC multiThreadMDC = new MultiThreadMDC();
+        Object capturedSubsegment = XRayTraceEntityPropagator.captureTraceEntity();
+
+        // The MDC and the trace entity are installed once per task, for all the slices of the task
+        Consumer<List<Slice<T>>> task = taskSlices -> XRayTraceEntityPropagator.runWithEntity(capturedSubsegment,
+                () -> multiThreadMDC.runWithMDC(() -> taskSlices.forEach(
+                        slice -> slice.setResults(results, work.apply(slice.records)))));
+        List<List<Slice<T>>> tasks = toTasks(largestFirst(slices));
+
+        if (executor == null && !options.isLargestFirstScheduling()) {
+            tasks
+                    .parallelStream() // Parallel processing
+                    .forEach(task);
+        } else {
+            // Submitted one by one, so that the slices are started in the order they are scheduled
+            Executor target = executor != null ? executor : ForkJoinPool.commonPool();
+            CompletableFuture.allOf(tasks.stream()
+                    .map(taskSlices -> CompletableFuture.runAsync(() -> task.accept(taskSlices), target))
+                    .toArray(CompletableFuture[]::new)).join();
+        }
+    }
+
+    /**
+     * Groups consecutive slices into tasks of at least {@code parallelGrainSize} records, so that the cost of
+     * handing a task over to another thread is shared by several tiny records. The last task may be smaller.
+     */
+    private List<List<Slice<T>>> toTasks(List<Slice<T>> slices) {
+        int grainSize = options.getParallelGrainSize();
+        if (grainSize <= 1) {
+            return slices.stream().map(Collections::singletonList).collect(Collectors.toList());
+        }
+        List<List<Slice<T>>> tasks = new ArrayList<>();
+        List<Slice<T>> current = new ArrayList<>();
+        int currentRecords = 0;
+        for (Slice<T> slice : slices) {
+            current.add(slice);
+            currentRecords += slice.records.size();
+            if (currentRecords >= grainSize) {
+                tasks.add(current);
+                current = new ArrayList<>();
+                currentRecords = 0;
+            }
+        }
+        if (!current.isEmpty()) {
+            tasks.add(current);
+        }
+        return tasks;
+    }
+
+    /**
+     * Orders the given slices by decreasing estimated cost when largest-first scheduling is enabled, so that the
+     * most expensive slices are started first and do not hold up the end of the batch. Slices of equal cost keep
+     * their order.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Slice<T>> largestFirst(List<Slice<T>> slices) {
+        if (!options.isLargestFirstScheduling() || slices.size() < 2) {
+            return slices;
+        }
+        ToLongFunction<T> costFunction = options.getCostFunction() != null
+                ? (ToLongFunction<T>) options.getCostFunction() : this::estimateCost;
+        Map<Slice<T>, Long> costs = new IdentityHashMap<>(slices.size());
+        for (Slice<T> slice : slices) {
+            long cost = 0;
+            for (T eventRecord : slice.records) {
+                cost += costFunction.applyAsLong(eventRecord);
+            }
+            costs.put(slice, cost);
+        }
+
+        List<Slice<T>> scheduled = new ArrayList<>(slices);
+        scheduled.sort(Comparator.comparing(costs::get, Comparator.reverseOrder()));
+        return scheduled;
+    }
+
+    /**
+     * @return how long the record waited in the queue or stream before being started, in milliseconds, or -1 if
+     *         unknown or not observed
+     */
+    private long queueWaitMillis(T eventRecord, BatchObservation observation) {
+        if (observation == BatchObservation.NONE) {
+            return -1;
+        }
+        try {
+            long arrivalTimeMillis = getArrivalTimeMillis(eventRecord);
+            return arrivalTimeMillis > 0 ? Math.max(System.currentTimeMillis() - arrivalTimeMillis, 0) : -1;
+        } catch (Exception e) {
+            // A malformed timestamp is no reason to fail the record
+            LOGGER.debug("Failed to read the arrival time of the record", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Splits the given records into chunks of contiguous records, of {@link #getChunkSize()} records at most.
+     */
+    private List<List<T>> chunk(List<T> records) {
+        int chunkSize = getChunkSize();
+        List<List<T>> chunks = new ArrayList<>((records.size() + chunkSize - 1) / chunkSize);
+        for (int i = 0; i < records.size(); i += chunkSize) {
+            chunks.add(records.subList(i, Math.min(i + chunkSize, records.size())));
+        }
+        return chunks;
+    }
+
+    private List<Slice<T>> chunkSlices(List<T> records) {
+        int chunkSize = getChunkSize();
+        List<Slice<T>> slices = new ArrayList<>((records.size() + chunkSize - 1) / chunkSize);
+        for (int i = 0; i < records.size(); i += chunkSize) {
+            slices.add(Slice.of(records.subList(i, Math.min(i + chunkSize, records.size())), i));
+        }
+        return slices;
+    }
+
+    private static <T> List<Slice<T>> singleRecordSlices(List<T> records) {
+        List<Slice<T>> slices = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            slices.add(Slice.of(Collections.singletonList(records.get(i)), i));
+        }
+        return slices;
+    }
+
+    /**
+     * Partitions the given records by key, keeping the groups in the order of their first record, and the records
+     * of each group in delivery order.
+     */
+    private static <T> List<Slice<T>> groupSlices(List<T> records, Function<T, ?> keyExtractor) {
+        Map<Object, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            groups.computeIfAbsent(keyExtractor.apply(records.get(i)), k -> new ArrayList<>()).add(i);
+        }
+
+        List<Slice<T>> slices = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups.values()) {
+            List<T> groupRecords = new ArrayList<>(group.size());
+            int[] positions = new int[group.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = group.get(i);
+                groupRecords.add(records.get(positions[i]));
+            }
+            slices.add(new Slice<>(groupRecords, positions));
+        }
+        return slices;
+    }
+
+    private Executor getBoundedExecutor() {
+        Executor executor = boundedExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = boundedExecutor;
+                if (executor == null) {
+                    executor = BoundedExecutor.create(options.getMaxConcurrency());
+                    boundedExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @return the maximum number of records processed together by
+     *         {@link #processChunk(List, Context, BatchObservation)}
+     */
+    int getChunkSize() {
+        return 1;
+    }
+
+    /**
+     * @param event    The Lambda batch event
+     * @param parallel Whether the batch is processed in parallel
+     * @return extracts the key of the records that must be processed in order, or null if records can be
+     *         processed in any order
+     */
+    Function<T, ?> getOrderingKey(E event, boolean parallel) {
+        return null;
+    }
+
+    /**
+     * @return the estimated processing cost of the given record, used by largest-first scheduling when no cost
+     *         function is configured. By default, all records cost the same.
+     */
+    long estimateCost(T eventRecord) {
+        return 1;
+    }
+
+    /**
+     * @param event The Lambda batch event
+     * @return extracts the key under which duplicate records are processed only once, or null if every record
+     *         must be processed. Only used for batches whose records can be processed in any order.
+     */
+    Function<T, ?> getDuplicateKey(E event) {
+        return null;
+    }
+
+    /**
+     * @return whether records are processed by an async message handler, through
+     *         {@link #startBatchItemAsync(Object, Object, Context)}
+     */
+    boolean isAsync() {
+        return false;
+    }
+
+    /**
+     * Starts processing a single record with the async message handler.
+     *
+     * @param eventRecord The record to process
+     * @param message     The record, deserialized by {@link #deserialize(Object)}
+     * @param context     The lambda context
+     * @return the future returned by the async message handler
+     */
+    CompletableFuture<Void> startBatchItemAsync(T eventRecord, Object message, Context context) {
+        throw new UnsupportedOperationException("No async message handler was provided");
+    }
+
+    /**
+     * @return the records of the batch, in the order they were delivered
+     */
+    abstract List<T> getRecords(E event);
+
+    /**
+     * @return the message handed to the message handler for the given record: its deserialized payload, or the
+     *         record itself for a raw message handler
+     */
+    abstract Object deserialize(T eventRecord);
+
+    /**
+     * @return the body of the record as text, for the middleware stages, or null if the records have no body
+     */
+    String readBody(T eventRecord) {
+        return null;
+    }
+
+    /**
+     * @return the message handed to the message handler for a record whose body the middleware stages read or
+     *         replaced. Raw message handlers receive a copy of the record carrying the replaced body.
+     * @throws UnsupportedOperationException if a stage replaced the body of a record that has none
+     */
+    Object deserialize(T eventRecord, BatchRecord<T> batchRecord) {
+        if (batchRecord.isReplaced()) {
+            throw new UnsupportedOperationException("The records of this batch have no body to replace");
+        }
+        return deserialize(eventRecord);
+    }
+
+    /**
+     * Hands a single record to the message handler.
+     *
+     * @param eventRecord The record to process
+     * @param message     The record, deserialized by {@link #deserialize(Object)}
+     * @param context     The lambda context
+     */
+    abstract void handle(T eventRecord, Object message, Context context);
+
+    /**
+     * @return the time, in milliseconds since the epoch, at which the record entered the queue or stream, or -1 if
+     *         unknown
+     */
+    abstract long getArrivalTimeMillis(T eventRecord);
+
+    /**
+     * Records the failure of a processed record, keeping its cause when the record was processed in place of its
+     * duplicates.
+     *
+     * @return the batch item failure for this record
+     */
+    private F failProcessedItem(T eventRecord, Exception e) {
+        AtomicReference<Exception> failureCause = duplicatedRecordFailures.get(eventRecord);
+        if (failureCause != null) {
+            failureCause.set(e);
+        }
+        return failBatchItem(eventRecord, e);
+    }
+
+    /**
+     * Records the failure of a record: logs it, and reports it to the failure handler if we have one.
+     *
+     * @return the batch item failure for this record
+     */
+    abstract F failBatchItem(T eventRecord, Exception e);
+
+    /**
+     * @return the batch item failure reporting the given record as failed
+     */
+    abstract F toBatchItemFailure(T eventRecord);
+
+    abstract R buildResponse(List<F> batchItemFailures);
+
+    /**
+     * Records of the batch processed together, along with their positions in the batch.
+     */
+    private static final class Slice<T> {
+        private final List<T> records;
+        private final int[] positions;
+
+        private Slice(List<T> records, int[] positions) {
+            this.records = records;
+            this.positions = positions;
+        }
+
+        // The slice of the given contiguous records, the first of which is at the given position in the batch
+        private static <T> Slice<T> of(List<T> records, int firstPosition) {
+            int[] positions = new int[records.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = firstPosition + i;
+            }
+            return new Slice<>(records, positions);
+        }
+
+        // Records the outcome of the records of this slice, aligned with them, in their slots
+        private <F> void setResults(BatchItemResults<F> results, List<Optional<F>> sliceResults) {
+            for (int i = 0; i < sliceResults.size(); i++) {
+                int position = positions[i];
+                sliceResults.get(i).ifPresent(failure -> results.setFailure(position, failure));
+            }
+        }
+    }
+}
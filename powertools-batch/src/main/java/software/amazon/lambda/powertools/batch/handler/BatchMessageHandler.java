@@ -43,7 +43,8 @@ public interface BatchMessageHandler<E, R> {
      * response indicating the success and failure of individual
      * messages within the batch. <br/>
      * Note that parallel processing is not always better than sequential processing,
-     * and you should benchmark your code to determine the best approach for your use case. <br/>
+     * and you should benchmark your code to determine the best approach for your use case,
+     * or let the handler choose with {@code withAdaptiveParallelism()} on its builder. <br/>
      * Also note that to get more threads available (more vCPUs),
      * you need to increase the amount of memory allocated to your Lambda function. <br/>
 
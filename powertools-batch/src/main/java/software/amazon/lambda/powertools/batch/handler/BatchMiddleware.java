@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+
+/**
+ * A stage run around the message handler for each record of the batch, such as fetching large message payloads,
+ * validating messages, or skipping messages already processed.
+ * <p>
+ * The stages of the batch handler run in a single pass per record, in the order they were added, and share the
+ * {@link BatchRecord}: the body of the record is parsed at most once, by the first stage asking for its JSON tree,
+ * and the message handler is given the message deserialized from that tree.
+ * <p>
+ * For instance, a stage validating the messages against a JSON schema:
+ * <pre>
+ * BatchMiddleware&lt;SQSMessage&gt; validation = (record, context, next) -&gt; {
+ *     ValidationUtils.validate(record.getJson(), schema);
+ *     next.run();
+ * };
+ * </pre>
+ *
+ * @param <T> The type of the records of the batch
+ */
+@FunctionalInterface
+public interface BatchMiddleware<T> {
+
+    /**
+     * Processes a record, handing it to the next stage, and ultimately to the message handler, by running
+     * {@code next}. A stage can skip the remaining stages and the message handler by returning without running
+     * {@code next}, in which case the record is considered successfully processed, or fail the record by throwing.
+     *
+     * @param record  The record, shared by all the stages
+     * @param context The lambda context
+     * @param next    Runs the next stages and the message handler
+     */
+    void handle(BatchRecord<T> record, Context context, Runnable next);
+}
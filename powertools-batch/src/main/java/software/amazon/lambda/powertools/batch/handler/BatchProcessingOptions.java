@@ -0,0 +1,350 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+import software.amazon.lambda.powertools.batch.instrumentation.BatchInstrumentation;
+
+/**
+ * Processing options shared by all the batch message handlers. Instances are created by the batch
+ * message handler builders and are immutable once built.
+ */
+public final class BatchProcessingOptions {
+    private static final BatchProcessingOptions DEFAULTS = builder().build();
+
+    private final int maxConcurrency;
+    private final boolean partitionKeyOrdering;
+    private final long deadlineSafetyMarginMillis;
+    private final BatchInstrumentation instrumentation;
+    private final boolean adaptiveParallelism;
+    private final Function<?, ?> duplicateKeyExtractor;
+    private final boolean kplDeaggregation;
+    private final boolean largestFirstScheduling;
+    private final ToLongFunction<?> costFunction;
+    private final int parallelGrainSize;
+    private final int circuitBreakerConsecutiveFailures;
+    private final double circuitBreakerFailureRate;
+    private final int circuitBreakerMinimumRecords;
+    private final RetryPolicy retryPolicy;
+    private final List<BatchMiddleware<?>> middlewares;
+    private final UnaryOperator<? extends List<?>> batchFilter;
+
+    private BatchProcessingOptions(Builder builder) {
+        this.maxConcurrency = builder.maxConcurrency;
+        this.partitionKeyOrdering = builder.partitionKeyOrdering;
+        this.deadlineSafetyMarginMillis = builder.deadlineSafetyMarginMillis;
+        this.instrumentation = builder.instrumentation;
+        this.adaptiveParallelism = builder.adaptiveParallelism;
+        this.duplicateKeyExtractor = builder.duplicateKeyExtractor;
+        this.kplDeaggregation = builder.kplDeaggregation;
+        this.largestFirstScheduling = builder.largestFirstScheduling;
+        this.costFunction = builder.costFunction;
+        this.parallelGrainSize = builder.parallelGrainSize;
+        this.circuitBreakerConsecutiveFailures = builder.circuitBreakerConsecutiveFailures;
+        this.circuitBreakerFailureRate = builder.circuitBreakerFailureRate;
+        this.circuitBreakerMinimumRecords = builder.circuitBreakerMinimumRecords;
+        this.retryPolicy = builder.retryPolicy;
+        this.middlewares = Collections.unmodifiableList(new ArrayList<>(builder.middlewares));
+        this.batchFilter = builder.batchFilter;
+    }
+
+    /**
+     * Create a builder that can be used to configure and create a {@link BatchProcessingOptions}.
+     *
+     * @return a new instance of {@link Builder}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The options used when none are configured on the batch message handler builder.
+     *
+     * @return the default options
+     */
+    public static BatchProcessingOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * The maximum number of records processed at the same time by
+     * {@code processBatchInParallel(event, context)}, or 0 if it should use the common ForkJoinPool.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Whether parallel processing of stream records must preserve the order of the records sharing the same
+     * partition key.
+     */
+    public boolean isPartitionKeyOrdering() {
+        return partitionKeyOrdering;
+    }
+
+    /**
+     * The remaining execution time, in milliseconds, below which no new record is started, or 0 if records are
+     * always started.
+     */
+    public long getDeadlineSafetyMarginMillis() {
+        return deadlineSafetyMarginMillis;
+    }
+
+    /**
+     * The instrumentation observing the processing of batches.
+     */
+    public BatchInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Whether {@code processBatchInParallel(event, context)} chooses between sequential processing, the common
+     * ForkJoinPool and a bounded executor from the measured cost of the records.
+     */
+    public boolean isAdaptiveParallelism() {
+        return adaptiveParallelism;
+    }
+
+    /**
+     * Extracts the key under which duplicate records of a batch are processed once, or null if every record is
+     * processed.
+     */
+    public Function<?, ?> getDuplicateKeyExtractor() {
+        return duplicateKeyExtractor;
+    }
+
+    /**
+     * Whether Kinesis records aggregated by the Kinesis Producer Library are split into their user records before
+     * being handed to the message handler.
+     */
+    public boolean isKplDeaggregation() {
+        return kplDeaggregation;
+    }
+
+    /**
+     * Whether parallel processing starts the most expensive records first, rather than in delivery order.
+     */
+    public boolean isLargestFirstScheduling() {
+        return largestFirstScheduling;
+    }
+
+    /**
+     * Estimates the processing cost of a record for largest-first scheduling, or null to estimate it from the size
+     * of its payload.
+     */
+    public ToLongFunction<?> getCostFunction() {
+        return costFunction;
+    }
+
+    /**
+     * The minimum number of records processed by each task of parallel processing.
+     */
+    public int getParallelGrainSize() {
+        return parallelGrainSize;
+    }
+
+    /**
+     * Whether the remaining records of a batch are failed without being processed once too many records failed.
+     */
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerConsecutiveFailures > 0 || circuitBreakerFailureRate > 0;
+    }
+
+    /**
+     * The number of consecutive failures tripping the circuit breaker, or 0 if not tripped by consecutive failures.
+     * It only applies to records processed one after the other.
+     */
+    public int getCircuitBreakerConsecutiveFailures() {
+        return circuitBreakerConsecutiveFailures;
+    }
+
+    /**
+     * The share of failed records, between 0 and 1, tripping the circuit breaker, or 0 if not tripped by the
+     * failure rate.
+     */
+    public double getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    /**
+     * The number of records to process before the failure rate can trip the circuit breaker.
+     */
+    public int getCircuitBreakerMinimumRecords() {
+        return circuitBreakerMinimumRecords;
+    }
+
+    /**
+     * How failed records are retried within the invocation, or null if they are reported as failed straight away.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * The stages run around the message handler for each record, in order. Empty if not configured.
+     */
+    public List<BatchMiddleware<?>> getMiddlewares() {
+        return middlewares;
+    }
+
+    /**
+     * Selects the records of a batch to process, or null if all the records are processed.
+     */
+    public UnaryOperator<? extends List<?>> getBatchFilter() {
+        return batchFilter;
+    }
+
+    public static class Builder {
+        private int maxConcurrency = 0;
+        private boolean partitionKeyOrdering = false;
+        private long deadlineSafetyMarginMillis = 0;
+        private BatchInstrumentation instrumentation = BatchInstrumentation.NONE;
+        private boolean adaptiveParallelism = false;
+        private Function<?, ?> duplicateKeyExtractor;
+        private boolean kplDeaggregation = false;
+        private boolean largestFirstScheduling = false;
+        private ToLongFunction<?> costFunction;
+        private int parallelGrainSize = 1;
+        private int circuitBreakerConsecutiveFailures = 0;
+        private double circuitBreakerFailureRate = 0;
+        private int circuitBreakerMinimumRecords = 0;
+        private RetryPolicy retryPolicy;
+        private final List<BatchMiddleware<?>> middlewares = new ArrayList<>();
+        private UnaryOperator<? extends List<?>> batchFilter;
+
+        public Builder withMaxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 1) {
+                throw new IllegalArgumentException("maxConcurrency must be greater than 0");
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public Builder withPartitionKeyOrdering(boolean partitionKeyOrdering) {
+            this.partitionKeyOrdering = partitionKeyOrdering;
+            return this;
+        }
+
+        public Builder withDeadlineSafetyMargin(Duration deadlineSafetyMargin) {
+            if (deadlineSafetyMargin == null || deadlineSafetyMargin.isNegative()) {
+                throw new IllegalArgumentException("deadlineSafetyMargin must not be negative");
+            }
+            this.deadlineSafetyMarginMillis = deadlineSafetyMargin.toMillis();
+            return this;
+        }
+
+        public Builder withInstrumentation(BatchInstrumentation instrumentation) {
+            if (instrumentation == null) {
+                throw new IllegalArgumentException("instrumentation must not be null");
+            }
+            this.instrumentation = instrumentation;
+            return this;
+        }
+
+        public Builder withAdaptiveParallelism(boolean adaptiveParallelism) {
+            this.adaptiveParallelism = adaptiveParallelism;
+            return this;
+        }
+
+        public Builder withDuplicateKeyExtractor(Function<?, ?> duplicateKeyExtractor) {
+            if (duplicateKeyExtractor == null) {
+                throw new IllegalArgumentException("duplicateKeyExtractor must not be null");
+            }
+            this.duplicateKeyExtractor = duplicateKeyExtractor;
+            return this;
+        }
+
+        public Builder withKplDeaggregation(boolean kplDeaggregation) {
+            this.kplDeaggregation = kplDeaggregation;
+            return this;
+        }
+
+        public Builder withLargestFirstScheduling(boolean largestFirstScheduling) {
+            this.largestFirstScheduling = largestFirstScheduling;
+            return this;
+        }
+
+        public Builder withCostFunction(ToLongFunction<?> costFunction) {
+            if (costFunction == null) {
+                throw new IllegalArgumentException("costFunction must not be null");
+            }
+            this.costFunction = costFunction;
+            return this;
+        }
+
+        public Builder withParallelGrainSize(int parallelGrainSize) {
+            if (parallelGrainSize < 1) {
+                throw new IllegalArgumentException("parallelGrainSize must be greater than 0");
+            }
+            this.parallelGrainSize = parallelGrainSize;
+            return this;
+        }
+
+        public Builder withCircuitBreakerConsecutiveFailures(int consecutiveFailures) {
+            if (consecutiveFailures < 1) {
+                throw new IllegalArgumentException("consecutiveFailures must be greater than 0");
+            }
+            this.circuitBreakerConsecutiveFailures = consecutiveFailures;
+            return this;
+        }
+
+        public Builder withCircuitBreakerFailureRate(double failureRate, int minimumRecords) {
+            if (failureRate <= 0 || failureRate > 1) {
+                throw new IllegalArgumentException("failureRate must be greater than 0 and at most 1");
+            }
+            if (minimumRecords < 1) {
+                throw new IllegalArgumentException("minimumRecords must be greater than 0");
+            }
+            this.circuitBreakerFailureRate = failureRate;
+            this.circuitBreakerMinimumRecords = minimumRecords;
+            return this;
+        }
+
+        public Builder withRetryPolicy(RetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new IllegalArgumentException("retryPolicy must not be null");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        public Builder withMiddleware(List<? extends BatchMiddleware<?>> middlewares) {
+            if (middlewares == null || middlewares.contains(null)) {
+                throw new IllegalArgumentException("middlewares must not be null");
+            }
+            this.middlewares.addAll(middlewares);
+            return this;
+        }
+
+        public Builder withBatchFilter(UnaryOperator<? extends List<?>> batchFilter) {
+            if (batchFilter == null) {
+                throw new IllegalArgumentException("batchFilter must not be null");
+            }
+            this.batchFilter = batchFilter;
+            return this;
+        }
+
+        public BatchProcessingOptions build() {
+            return new BatchProcessingOptions(this);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.function.Function;
+import software.amazon.lambda.powertools.batch.internal.MessageReader;
+import software.amazon.lambda.powertools.utilities.EventDeserializationException;
+import software.amazon.lambda.powertools.utilities.JsonConfig;
+
+/**
+ * A record of the batch as seen by the {@link BatchMiddleware} stages: the record itself, and its body, which the
+ * stages can read as text or as a JSON tree, and replace.
+ * <p>
+ * The body is only decoded, and parsed, when a stage asks for it, and only once for all the stages: the tree returned
+ * by {@link #getJson()} is the one the message is deserialized from. Replacing the body, for instance with the
+ * payload of a large message, discards the tree. Raw message handlers receive a copy of the record carrying the
+ * replaced body, while the success and failure handlers receive the record as delivered.
+ *
+ * @param <T> The type of the records of the batch
+ */
+public final class BatchRecord<T> {
+    private final T record;
+    private final Function<T, String> bodyReader;
+    private String body;
+    private JsonNode json;
+    // Whether a stage read or replaced the body, in which case the message is deserialized from it
+    private boolean touched;
+    private boolean replaced;
+
+    BatchRecord(T record, Function<T, String> bodyReader) {
+        this.record = record;
+        this.bodyReader = bodyReader;
+    }
+
+    /**
+     * @return the record, as delivered in the batch
+     */
+    public T getRecord() {
+        return record;
+    }
+
+    /**
+     * @return the body of the record, as replaced by the previous stages if they did, or null if the record has no
+     *         body, like DynamoDB Streams records
+     */
+    public String getBody() {
+        touched = true;
+        if (body == null) {
+            body = json != null ? json.toString() : bodyReader.apply(record);
+        }
+        return body;
+    }
+
+    /**
+     * Replaces the body of the record for the next stages and the message handler.
+     *
+     * @param body The new body of the record
+     */
+    public void setBody(String body) {
+        this.touched = true;
+        this.replaced = true;
+        this.body = body;
+        this.json = null;
+    }
+
+    /**
+     * Parses the body of the record, unless a previous stage already did.
+     *
+     * @return the body of the record as a JSON tree, shared by all the stages
+     * @throws EventDeserializationException if the body is not valid JSON
+     */
+    public JsonNode getJson() {
+        if (json == null) {
+            String text = getBody();
+            if (text == null) {
+                throw new EventDeserializationException("The record has no body to parse");
+            }
+            try {
+                json = JsonConfig.get().getObjectMapper().readTree(text);
+            } catch (JsonProcessingException e) {
+                throw new EventDeserializationException("Cannot parse the body of the record", e);
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Replaces the body of the record with the given JSON tree for the next stages and the message handler.
+     *
+     * @param json The new body of the record
+     */
+    public void setJson(JsonNode json) {
+        this.touched = true;
+        this.replaced = true;
+        this.json = json;
+        this.body = null;
+    }
+
+    boolean isTouched() {
+        return touched;
+    }
+
+    boolean isReplaced() {
+        return replaced;
+    }
+
+    /**
+     * Deserializes the body of the record, from its tree if a stage parsed it.
+     */
+    <M> M read(MessageReader<M> reader) {
+        return json != null ? reader.read(json, body) : reader.read(getBody());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The outcome of a bulk message handler for a chunk of messages. Failed items are identified by their index in
+ * the chunk the handler received; every other item of the chunk is considered successfully processed.
+ * <p>
+ * For instance, with a DynamoDB {@code BatchWriteItem}, the indexes of the unprocessed items:
+ * <pre>
+ * List&lt;Integer&gt; unprocessed = ...;
+ * return BulkResult.failedItems(unprocessed);
+ * </pre>
+ */
+public final class BulkResult {
+    private static final BulkResult SUCCESS = new BulkResult(Collections.emptySet());
+
+    private final Set<Integer> failedItems;
+
+    private BulkResult(Set<Integer> failedItems) {
+        this.failedItems = failedItems;
+    }
+
+    /**
+     * @return a result reporting every item of the chunk as successfully processed
+     */
+    public static BulkResult success() {
+        return SUCCESS;
+    }
+
+    /**
+     * @param indexes the indexes in the chunk of the items that failed
+     * @return a result reporting the given items as failed, and the others as successfully processed
+     */
+    public static BulkResult failedItems(Collection<Integer> indexes) {
+        return new BulkResult(Collections.unmodifiableSet(new LinkedHashSet<>(indexes)));
+    }
+
+    /**
+     * @param indexes the indexes in the chunk of the items that failed
+     * @return a result reporting the given items as failed, and the others as successfully processed
+     */
+    public static BulkResult failedItems(int... indexes) {
+        Set<Integer> failedItems = new LinkedHashSet<>();
+        for (int index : indexes) {
+            failedItems.add(index);
+        }
+        return new BulkResult(Collections.unmodifiableSet(failedItems));
+    }
+
+    /**
+     * @return the indexes in the chunk of the items that failed
+     */
+    public Set<Integer> getFailedItems() {
+        return failedItems;
+    }
+}
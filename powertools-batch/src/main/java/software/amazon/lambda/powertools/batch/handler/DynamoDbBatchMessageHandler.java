@@ -14,15 +14,14 @@
 
 package software.amazon.lambda.powertools.batch.handler;
 
-import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,122 +30,225 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
 import com.amazonaws.services.lambda.runtime.events.StreamsEventResponse;
 
-import software.amazon.lambda.powertools.batch.internal.MultiThreadMDC;
-import software.amazon.lambda.powertools.batch.internal.XRayTraceEntityPropagator;
+import software.amazon.lambda.powertools.batch.internal.DynamoDbImageMapper;
 
 /**
  * A batch message processor for DynamoDB Streams batches.
+ * <p>
+ * Records are handed to the handler either raw, or as a {@link DynamoDbStreamChange} whose images are mapped to a
+ * user-defined class by a {@link DynamoDbImageMapper} resolved once, when the handler is built.
  *
  * @see <a href="https://docs.aws.amazon.com/lambda/latest/dg/with-ddb.html#services-ddb-batchfailurereporting">DynamoDB Streams batch failure reporting</a>
  */
-public class DynamoDbBatchMessageHandler implements BatchMessageHandler<DynamodbEvent, StreamsEventResponse> {
+public class DynamoDbBatchMessageHandler
+        extends AbstractBatchMessageHandler<DynamodbEvent, DynamodbEvent.DynamodbStreamRecord,
+        StreamsEventResponse.BatchItemFailure, StreamsEventResponse> {
     private static final Logger LOGGER = LoggerFactory.getLogger(DynamoDbBatchMessageHandler.class);
 
-    private final Consumer<DynamodbEvent.DynamodbStreamRecord> successHandler;
-    private final BiConsumer<DynamodbEvent.DynamodbStreamRecord, Throwable> failureHandler;
     private final BiConsumer<DynamodbEvent.DynamodbStreamRecord, Context> rawMessageHandler;
+    private final BiFunction<DynamodbEvent.DynamodbStreamRecord, Context, CompletableFuture<Void>>
+            asyncRawMessageHandler;
+    private final BiConsumer<DynamoDbStreamChange<Object>, Context> changeHandler;
+    private final DynamoDbImageMapper<Object> imageMapper;
 
     public DynamoDbBatchMessageHandler(Consumer<DynamodbEvent.DynamodbStreamRecord> successHandler,
             BiConsumer<DynamodbEvent.DynamodbStreamRecord, Throwable> failureHandler,
             BiConsumer<DynamodbEvent.DynamodbStreamRecord, Context> rawMessageHandler) {
-        this.successHandler = successHandler;
-        this.failureHandler = failureHandler;
-        this.rawMessageHandler = rawMessageHandler;
+        this(new Spec()
+                .withSuccessHandler(successHandler)
+                .withFailureHandler(failureHandler)
+                .withRawMessageHandler(rawMessageHandler));
     }
 
+    /**
+     * Creates a handler from the given spec. See
+     * {@link software.amazon.lambda.powertools.batch.builder.DynamoDbBatchMessageHandlerBuilder} for a more
+     * convenient way to build one.
+     *
+     * @param spec The handlers and the processing options of the handler
+     */
+    public DynamoDbBatchMessageHandler(Spec spec) {
+        super(spec.successHandler, spec.failureHandler, spec.options);
+        this.rawMessageHandler = spec.rawMessageHandler;
+        this.asyncRawMessageHandler = spec.asyncRawMessageHandler;
+        this.changeHandler = spec.changeHandler;
+        this.imageMapper = spec.imageMapper;
+        checkMiddlewareSupported(asyncRawMessageHandler == null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When partition key ordering is enabled, records are partitioned by item key. Partitions are processed in
+     * parallel, while the records of a partition are processed sequentially, in order. When a record fails, the
+     * remaining records of its partition are not processed, and only the failure with the lowest sequence number
+     * is reported so that Lambda checkpoints the stream correctly.
+     */
     @Override
-    public StreamsEventResponse processBatch(DynamodbEvent event, Context context) {
-        List<StreamsEventResponse.BatchItemFailure> batchItemFailures = event.getRecords()
-                .stream()
-                .map(eventRecord -> processBatchItem(eventRecord, context))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+    public StreamsEventResponse processBatchInParallel(DynamodbEvent event, Context context) {
+        return reportLowestFailure(super.processBatchInParallel(event, context));
+    }
 
-        return StreamsEventResponse.builder().withBatchItemFailures(batchItemFailures).build();
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When partition key ordering is enabled, partitions are processed in parallel on the given executor. See
+     * {@link #processBatchInParallel(DynamodbEvent, Context)}.
+     */
+    @Override
+    public StreamsEventResponse processBatchInParallel(DynamodbEvent event, Context context, Executor executor) {
+        return reportLowestFailure(super.processBatchInParallel(event, context, executor));
+    }
+
+    private StreamsEventResponse reportLowestFailure(StreamsEventResponse response) {
+        if (!options.isPartitionKeyOrdering()) {
+            return response;
+        }
+        return buildResponse(StreamsBatchItemFailures.lowestSequenceNumber(response.getBatchItemFailures()));
     }
 
     @Override
-    public StreamsEventResponse processBatchInParallel(DynamodbEvent event, Context context) {
-        MultiThreadMDC multiThreadMDC = new MultiThreadMDC();
-        Object capturedSubsegment = XRayTraceEntityPropagator.captureTraceEntity();
-
-        List<StreamsEventResponse.BatchItemFailure> batchItemFailures = event.getRecords()
-                .parallelStream() // Parallel processing
-                .map(eventRecord -> {
-                    AtomicReference<Optional<StreamsEventResponse.BatchItemFailure>> result = new AtomicReference<>();
-
-                    XRayTraceEntityPropagator.runWithEntity(capturedSubsegment, () -> {
-                        multiThreadMDC.copyMDCToThread(Thread.currentThread().getName());
-                        try {
-                            result.set(processBatchItem(eventRecord, context));
-                        } finally {
-                            multiThreadMDC.removeThread(Thread.currentThread().getName());
-                        }
-                    });
-
-                    return result.get();
-                })
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+    List<DynamodbEvent.DynamodbStreamRecord> getRecords(DynamodbEvent event) {
+        return event.getRecords();
+    }
 
-        return StreamsEventResponse.builder().withBatchItemFailures(batchItemFailures).build();
+    @Override
+    StreamsEventResponse.BatchItemFailure toBatchItemFailure(DynamodbEvent.DynamodbStreamRecord streamRecord) {
+        return StreamsEventResponse.BatchItemFailure.builder()
+                .withItemIdentifier(streamRecord.getDynamodb().getSequenceNumber()).build();
     }
 
     @Override
-    public StreamsEventResponse processBatchInParallel(DynamodbEvent event, Context context, Executor executor) {
-        MultiThreadMDC multiThreadMDC = new MultiThreadMDC();
-        Object capturedSubsegment = XRayTraceEntityPropagator.captureTraceEntity();
-
-        List<StreamsEventResponse.BatchItemFailure> batchItemFailures = new ArrayList<>();
-        List<CompletableFuture<Void>> futures = event.getRecords().stream()
-                .map(eventRecord -> CompletableFuture.runAsync(() -> {
-                    XRayTraceEntityPropagator.runWithEntity(capturedSubsegment, () -> {
-                        multiThreadMDC.copyMDCToThread(Thread.currentThread().getName());
-                        try {
-                            Optional<StreamsEventResponse.BatchItemFailure> failureOpt = processBatchItem(eventRecord,
-                                    context);
-                            failureOpt.ifPresent(batchItemFailures::add);
-                        } finally {
-                            multiThreadMDC.removeThread(Thread.currentThread().getName());
-                        }
-                    });
-                }, executor))
-                .collect(Collectors.toList());
-        futures.forEach(CompletableFuture::join);
+    StreamsEventResponse buildResponse(List<StreamsEventResponse.BatchItemFailure> batchItemFailures) {
         return StreamsEventResponse.builder().withBatchItemFailures(batchItemFailures).build();
     }
 
-    private Optional<StreamsEventResponse.BatchItemFailure> processBatchItem(
-            DynamodbEvent.DynamodbStreamRecord streamRecord, Context context) {
-        try {
-            LOGGER.debug("Processing item {}", streamRecord.getEventID());
+    @Override
+    Function<DynamodbEvent.DynamodbStreamRecord, ?> getOrderingKey(DynamodbEvent event, boolean parallel) {
+        if (parallel && options.isPartitionKeyOrdering()) {
+            return streamRecord -> streamRecord.getDynamodb().getKeys();
+        }
+        return null;
+    }
 
+    @Override
+    Object deserialize(DynamodbEvent.DynamodbStreamRecord streamRecord) {
+        if (imageMapper != null) {
+            return new DynamoDbStreamChange<>(streamRecord, imageMapper);
+        }
+        return streamRecord;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void handle(DynamodbEvent.DynamodbStreamRecord streamRecord, Object message, Context context) {
+        LOGGER.debug("Processing item {}", streamRecord.getEventID());
+
+        if (changeHandler != null) {
+            changeHandler.accept((DynamoDbStreamChange<Object>) message, context);
+        } else {
             rawMessageHandler.accept(streamRecord, context);
+        }
+    }
 
-            // Report success if we have a handler
-            if (this.successHandler != null) {
-                this.successHandler.accept(streamRecord);
-            }
-            return Optional.empty();
-        } catch (Exception e) {
-            String sequenceNumber = streamRecord.getDynamodb().getSequenceNumber();
-            LOGGER.error("Error while processing record with id {}: {}, adding it to batch item failures",
-                    sequenceNumber, e.getMessage());
-            LOGGER.error("Error was", e);
-
-            // Report failure if we have a handler
-            if (this.failureHandler != null) {
-                // A failing failure handler is no reason to fail the batch
-                try {
-                    this.failureHandler.accept(streamRecord, e);
-                } catch (Exception e2) {
-                    LOGGER.warn("failureHandler threw handling failure", e2);
-                }
+    @Override
+    long estimateCost(DynamodbEvent.DynamodbStreamRecord streamRecord) {
+        Long sizeBytes = streamRecord.getDynamodb().getSizeBytes();
+        return sizeBytes != null ? sizeBytes : 0;
+    }
+
+    @Override
+    long getArrivalTimeMillis(DynamodbEvent.DynamodbStreamRecord streamRecord) {
+        Date creationDateTime = streamRecord.getDynamodb().getApproximateCreationDateTime();
+        return creationDateTime != null ? creationDateTime.getTime() : -1;
+    }
+
+    @Override
+    boolean isAsync() {
+        return this.asyncRawMessageHandler != null;
+    }
+
+    @Override
+    CompletableFuture<Void> startBatchItemAsync(DynamodbEvent.DynamodbStreamRecord streamRecord, Object message,
+            Context context) {
+        LOGGER.debug("Processing item {}", streamRecord.getEventID());
+
+        return asyncRawMessageHandler.apply(streamRecord, context);
+    }
+
+    @Override
+    StreamsEventResponse.BatchItemFailure failBatchItem(DynamodbEvent.DynamodbStreamRecord streamRecord, Exception e) {
+        String sequenceNumber = streamRecord.getDynamodb().getSequenceNumber();
+        LOGGER.error("Error while processing record with id {}: {}, adding it to batch item failures",
+                sequenceNumber, e.getMessage());
+        LOGGER.error("Error was", e);
+
+        // Report failure if we have a handler
+        if (this.failureHandler != null) {
+            // A failing failure handler is no reason to fail the batch
+            try {
+                this.failureHandler.accept(streamRecord, e);
+            } catch (Exception e2) {
+                LOGGER.warn("failureHandler threw handling failure", e2);
             }
-            return Optional
-                    .of(StreamsEventResponse.BatchItemFailure.builder().withItemIdentifier(sequenceNumber).build());
+        }
+        return toBatchItemFailure(streamRecord);
+    }
+
+    /**
+     * The handlers a {@link DynamoDbBatchMessageHandler} hands the records of a batch to, and its processing
+     * options. A single message handler is used, and the success and failure handlers are optional.
+     */
+    public static final class Spec {
+        private BiConsumer<DynamodbEvent.DynamodbStreamRecord, Context> rawMessageHandler;
+        private BiFunction<DynamodbEvent.DynamodbStreamRecord, Context, CompletableFuture<Void>>
+                asyncRawMessageHandler;
+        private BiConsumer<DynamoDbStreamChange<Object>, Context> changeHandler;
+        private DynamoDbImageMapper<Object> imageMapper;
+        private Consumer<DynamodbEvent.DynamodbStreamRecord> successHandler;
+        private BiConsumer<DynamodbEvent.DynamodbStreamRecord, Throwable> failureHandler;
+        private BatchProcessingOptions options = BatchProcessingOptions.defaults();
+
+        public Spec withRawMessageHandler(
+                BiConsumer<DynamodbEvent.DynamodbStreamRecord, Context> rawMessageHandler) {
+            this.rawMessageHandler = rawMessageHandler;
+            return this;
+        }
+
+        public Spec withAsyncRawMessageHandler(BiFunction<DynamodbEvent.DynamodbStreamRecord, Context,
+                CompletableFuture<Void>> asyncRawMessageHandler) {
+            this.asyncRawMessageHandler = asyncRawMessageHandler;
+            return this;
+        }
+
+        /**
+         * @param changeHandler Processes the change to the item
+         * @param imageClass    The class the images of the item are mapped to, once per class
+         * @param <M>           The type of the items of the table
+         */
+        @SuppressWarnings("unchecked")
+        public <M> Spec withChangeHandler(BiConsumer<DynamoDbStreamChange<M>, Context> changeHandler,
+                Class<M> imageClass) {
+            // The image class only matters to the mapper and the change handler, which always agree on it
+            this.changeHandler = (BiConsumer<DynamoDbStreamChange<Object>, Context>) (BiConsumer<?, Context>)
+                    changeHandler;
+            this.imageMapper = (DynamoDbImageMapper<Object>) DynamoDbImageMapper.forClass(imageClass);
+            return this;
+        }
+
+        public Spec withSuccessHandler(Consumer<DynamodbEvent.DynamodbStreamRecord> successHandler) {
+            this.successHandler = successHandler;
+            return this;
+        }
+
+        public Spec withFailureHandler(BiConsumer<DynamodbEvent.DynamodbStreamRecord, Throwable> failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
+
+        public Spec withOptions(BatchProcessingOptions options) {
+            this.options = options;
+            return this;
         }
     }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import software.amazon.lambda.powertools.batch.internal.DynamoDbImageMapper;
+
+/**
+ * A change to an item of a DynamoDB table, with its images mapped to a user-defined class.
+ * <p>
+ * Which images are available depends on the {@code StreamViewType} of the stream: {@code NEW_IMAGE} only provides the
+ * new image, {@code OLD_IMAGE} the old image, {@code NEW_AND_OLD_IMAGES} both, and {@code KEYS_ONLY} none. The new
+ * image is also missing for {@code REMOVE} events, and the old image for {@code INSERT} events. The keys of the item
+ * are always available.
+ *
+ * @param <M> The user-defined type of the images
+ */
+public final class DynamoDbStreamChange<M> {
+    private final DynamodbEvent.DynamodbStreamRecord streamRecord;
+    private final DynamoDbImageMapper<M> mapper;
+    private final M newImage;
+    private final M oldImage;
+
+    DynamoDbStreamChange(DynamodbEvent.DynamodbStreamRecord streamRecord, DynamoDbImageMapper<M> mapper) {
+        this.streamRecord = streamRecord;
+        this.mapper = mapper;
+        String viewType = streamRecord.getDynamodb().getStreamViewType();
+        this.newImage = !"OLD_IMAGE".equals(viewType) && !"KEYS_ONLY".equals(viewType)
+                ? mapper.map(streamRecord.getDynamodb().getNewImage()) : null;
+        this.oldImage = !"NEW_IMAGE".equals(viewType) && !"KEYS_ONLY".equals(viewType)
+                ? mapper.map(streamRecord.getDynamodb().getOldImage()) : null;
+    }
+
+    /**
+     * @return the type of the change: {@code INSERT}, {@code MODIFY} or {@code REMOVE}
+     */
+    public String getEventName() {
+        return streamRecord.getEventName();
+    }
+
+    /**
+     * @return the item after the change, or null if the stream or the event does not provide it
+     */
+    public M getNewImage() {
+        return newImage;
+    }
+
+    /**
+     * @return the item before the change, or null if the stream or the event does not provide it
+     */
+    public M getOldImage() {
+        return oldImage;
+    }
+
+    /**
+     * Maps the key attributes of the item, leaving the other fields unset. The keys are mapped on every call.
+     *
+     * @return the keys of the item
+     */
+    public M getKeys() {
+        return mapper.map(streamRecord.getDynamodb().getKeys());
+    }
+
+    /**
+     * @return the raw stream record
+     */
+    public DynamodbEvent.DynamodbStreamRecord getStreamRecord() {
+        return streamRecord;
+    }
+}
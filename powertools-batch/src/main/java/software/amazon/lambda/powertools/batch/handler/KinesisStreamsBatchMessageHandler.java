@@ -14,15 +14,20 @@
 
 package software.amazon.lambda.powertools.batch.handler;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,138 +36,379 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
 import com.amazonaws.services.lambda.runtime.events.StreamsEventResponse;
 
-import software.amazon.lambda.powertools.batch.internal.MultiThreadMDC;
-import software.amazon.lambda.powertools.batch.internal.XRayTraceEntityPropagator;
-import software.amazon.lambda.powertools.utilities.EventDeserializer;
+import software.amazon.lambda.powertools.batch.instrumentation.BatchObservation;
+import software.amazon.lambda.powertools.batch.internal.CircuitBreaker;
+import software.amazon.lambda.powertools.batch.internal.KplDeaggregator;
+import software.amazon.lambda.powertools.batch.internal.MessageReader;
 
 /**
  * A batch message processor for Kinesis Streams batch processing.
  * <p>
  * Refer to <a href="https://docs.aws.amazon.com/lambda/latest/dg/with-kinesis.html#services-kinesis-batchfailurereporting">Kinesis Batch failure reporting</a>
+ * <p>
+ * When KPL de-aggregation is enabled, the user records of aggregated Kinesis records are deserialized and handed to
+ * the message handler one by one. Raw message handlers, which receive whole Kinesis records, do not support it. The Kinesis record remains the unit of failure: it fails, and is reported by its
+ * sequence number, when any of its user records fails.
  *
  * @param <M> The user-defined type of the Kinesis record payload
  */
-public class KinesisStreamsBatchMessageHandler<M> implements BatchMessageHandler<KinesisEvent, StreamsEventResponse> {
+public class KinesisStreamsBatchMessageHandler<M>
+        extends AbstractBatchMessageHandler<KinesisEvent, KinesisEvent.KinesisEventRecord,
+        StreamsEventResponse.BatchItemFailure, StreamsEventResponse> {
     private static final Logger LOGGER = LoggerFactory.getLogger(KinesisStreamsBatchMessageHandler.class);
 
     private final BiConsumer<KinesisEvent.KinesisEventRecord, Context> rawMessageHandler;
     private final BiConsumer<M, Context> messageHandler;
-    private final Class<M> messageClass;
-    private final Consumer<KinesisEvent.KinesisEventRecord> successHandler;
-    private final BiConsumer<KinesisEvent.KinesisEventRecord, Throwable> failureHandler;
+    private final MessageReader<M> messageReader;
+    private final Function<List<M>, BulkResult> bulkMessageHandler;
+    private final int bulkChunkSize;
+    private final BiFunction<KinesisEvent.KinesisEventRecord, Context, CompletableFuture<Void>> asyncRawMessageHandler;
+    private final BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler;
+    private final BiConsumer<ByteBuffer, Context> binaryMessageHandler;
+    // Whether the message handler receives the user records of KPL aggregated records
+    private final boolean deaggregate;
 
     public KinesisStreamsBatchMessageHandler(BiConsumer<KinesisEvent.KinesisEventRecord, Context> rawMessageHandler,
             BiConsumer<M, Context> messageHandler,
             Class<M> messageClass,
             Consumer<KinesisEvent.KinesisEventRecord> successHandler,
             BiConsumer<KinesisEvent.KinesisEventRecord, Throwable> failureHandler) {
+        this(new Spec<M>()
+                .withRawMessageHandler(rawMessageHandler)
+                .withMessageHandler(messageHandler, messageClass)
+                .withSuccessHandler(successHandler)
+                .withFailureHandler(failureHandler));
+    }
 
-        this.rawMessageHandler = rawMessageHandler;
-        this.messageHandler = messageHandler;
-        this.messageClass = messageClass;
-        this.successHandler = successHandler;
-        this.failureHandler = failureHandler;
+    /**
+     * Creates a handler from the given spec. See
+     * {@link software.amazon.lambda.powertools.batch.builder.KinesisBatchMessageHandlerBuilder} for a more
+     * convenient way to build one.
+     *
+     * @param spec The handlers and the processing options of the handler
+     */
+    public KinesisStreamsBatchMessageHandler(Spec<M> spec) {
+        super(spec.successHandler, spec.failureHandler, spec.options);
+        this.rawMessageHandler = spec.rawMessageHandler;
+        this.binaryMessageHandler = spec.binaryMessageHandler;
+        this.messageHandler = spec.messageHandler;
+        this.messageReader = spec.messageClass != null ? MessageReader.of(spec.messageClass) : null;
+        this.bulkMessageHandler = spec.bulkMessageHandler;
+        this.bulkChunkSize = spec.bulkChunkSize;
+        this.asyncRawMessageHandler = spec.asyncRawMessageHandler;
+        this.asyncMessageHandler = spec.asyncMessageHandler;
+        if (options.isKplDeaggregation() && (rawMessageHandler != null || asyncRawMessageHandler != null)) {
+            throw new IllegalArgumentException("KPL de-aggregation is not supported with a raw message handler");
+        }
+        this.deaggregate = options.isKplDeaggregation();
+        if (this.deaggregate && bulkMessageHandler != null) {
+            throw new IllegalArgumentException("KPL de-aggregation is not supported with a bulk message handler");
+        }
+        // The stages work on the data as text, which binary message handlers and KPL de-aggregation do not use
+        checkMiddlewareSupported(bulkMessageHandler == null && asyncRawMessageHandler == null
+                && asyncMessageHandler == null && binaryMessageHandler == null && !deaggregate);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When partition key ordering is enabled, records are partitioned by partition key. Partitions are processed in
+     * parallel, while the records of a partition are processed sequentially, in order. When a record fails, the
+     * remaining records of its partition are not processed, and only the failure with the lowest sequence number
+     * is reported so that Lambda checkpoints the stream correctly.
+     */
     @Override
-    public StreamsEventResponse processBatch(KinesisEvent event, Context context) {
-        List<StreamsEventResponse.BatchItemFailure> batchItemFailures = event.getRecords()
-                .stream()
-                .map(eventRecord -> processBatchItem(eventRecord, context))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+    public StreamsEventResponse processBatchInParallel(KinesisEvent event, Context context) {
+        return reportLowestFailure(super.processBatchInParallel(event, context));
+    }
 
-        return StreamsEventResponse.builder().withBatchItemFailures(batchItemFailures).build();
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When partition key ordering is enabled, partitions are processed in parallel on the given executor. See
+     * {@link #processBatchInParallel(KinesisEvent, Context)}.
+     */
+    @Override
+    public StreamsEventResponse processBatchInParallel(KinesisEvent event, Context context, Executor executor) {
+        return reportLowestFailure(super.processBatchInParallel(event, context, executor));
+    }
+
+    private StreamsEventResponse reportLowestFailure(StreamsEventResponse response) {
+        if (!options.isPartitionKeyOrdering()) {
+            return response;
+        }
+        return buildResponse(StreamsBatchItemFailures.lowestSequenceNumber(response.getBatchItemFailures()));
     }
 
     @Override
-    public StreamsEventResponse processBatchInParallel(KinesisEvent event, Context context) {
-        MultiThreadMDC multiThreadMDC = new MultiThreadMDC();
-        Object capturedSubsegment = XRayTraceEntityPropagator.captureTraceEntity();
-
-        List<StreamsEventResponse.BatchItemFailure> batchItemFailures = event.getRecords()
-                .parallelStream() // Parallel processing
-                .map(eventRecord -> {
-                    AtomicReference<Optional<StreamsEventResponse.BatchItemFailure>> result = new AtomicReference<>();
-
-                    XRayTraceEntityPropagator.runWithEntity(capturedSubsegment, () -> {
-                        multiThreadMDC.copyMDCToThread(Thread.currentThread().getName());
-                        try {
-                            result.set(processBatchItem(eventRecord, context));
-                        } finally {
-                            multiThreadMDC.removeThread(Thread.currentThread().getName());
-                        }
-                    });
-
-                    return result.get();
-                })
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+    List<KinesisEvent.KinesisEventRecord> getRecords(KinesisEvent event) {
+        return event.getRecords();
+    }
 
-        return StreamsEventResponse.builder().withBatchItemFailures(batchItemFailures).build();
+    @Override
+    StreamsEventResponse.BatchItemFailure toBatchItemFailure(KinesisEvent.KinesisEventRecord eventRecord) {
+        return StreamsEventResponse.BatchItemFailure.builder()
+                .withItemIdentifier(eventRecord.getKinesis().getSequenceNumber()).build();
     }
 
     @Override
-    public StreamsEventResponse processBatchInParallel(KinesisEvent event, Context context, Executor executor) {
-        MultiThreadMDC multiThreadMDC = new MultiThreadMDC();
-        Object capturedSubsegment = XRayTraceEntityPropagator.captureTraceEntity();
-
-        List<StreamsEventResponse.BatchItemFailure> batchItemFailures = new ArrayList<>();
-        List<CompletableFuture<Void>> futures = event.getRecords().stream()
-                .map(eventRecord -> CompletableFuture.runAsync(() -> {
-                    XRayTraceEntityPropagator.runWithEntity(capturedSubsegment, () -> {
-                        multiThreadMDC.copyMDCToThread(Thread.currentThread().getName());
-                        try {
-                            Optional<StreamsEventResponse.BatchItemFailure> failureOpt = processBatchItem(eventRecord,
-                                    context);
-                            failureOpt.ifPresent(batchItemFailures::add);
-                        } finally {
-                            multiThreadMDC.removeThread(Thread.currentThread().getName());
-                        }
-                    });
-                }, executor))
-                .collect(Collectors.toList());
-        futures.forEach(CompletableFuture::join);
+    StreamsEventResponse buildResponse(List<StreamsEventResponse.BatchItemFailure> batchItemFailures) {
         return StreamsEventResponse.builder().withBatchItemFailures(batchItemFailures).build();
     }
 
-    private Optional<StreamsEventResponse.BatchItemFailure> processBatchItem(
-            KinesisEvent.KinesisEventRecord eventRecord, Context context) {
-        try {
-            LOGGER.debug("Processing item {}", eventRecord.getEventID());
+    @Override
+    Function<KinesisEvent.KinesisEventRecord, ?> getOrderingKey(KinesisEvent event, boolean parallel) {
+        if (parallel && options.isPartitionKeyOrdering()) {
+            return eventRecord -> eventRecord.getKinesis().getPartitionKey();
+        }
+        return null;
+    }
 
-            if (this.rawMessageHandler != null) {
-                rawMessageHandler.accept(eventRecord, context);
-            } else {
-                M messageDeserialized = EventDeserializer.extractDataFrom(eventRecord).as(messageClass);
-                messageHandler.accept(messageDeserialized, context);
+    @Override
+    Object deserialize(KinesisEvent.KinesisEventRecord eventRecord) {
+        if (this.rawMessageHandler != null || this.asyncRawMessageHandler != null) {
+            return eventRecord;
+        }
+        ByteBuffer data = eventRecord.getKinesis().getData();
+        if (this.deaggregate) {
+            List<ByteBuffer> userRecords = KplDeaggregator.deaggregate(data);
+            List<Object> messages = new ArrayList<>(userRecords.size());
+            for (ByteBuffer userRecord : userRecords) {
+                messages.add(readMessage(userRecord));
             }
+            return messages;
+        }
+        return readMessage(data);
+    }
 
-            // Report success if we have a handler
-            if (this.successHandler != null) {
-                this.successHandler.accept(eventRecord);
+    @Override
+    String readBody(KinesisEvent.KinesisEventRecord eventRecord) {
+        return UTF_8.decode(eventRecord.getKinesis().getData().duplicate()).toString();
+    }
+
+    @Override
+    Object deserialize(KinesisEvent.KinesisEventRecord eventRecord,
+            BatchRecord<KinesisEvent.KinesisEventRecord> batchRecord) {
+        if (this.rawMessageHandler != null) {
+            return batchRecord.isReplaced() ? withData(eventRecord, batchRecord.getBody()) : eventRecord;
+        }
+        return batchRecord.read(messageReader);
+    }
+
+    // A copy of the record carrying the data replaced by the middleware stages, for the raw message handler
+    private static KinesisEvent.KinesisEventRecord withData(KinesisEvent.KinesisEventRecord eventRecord,
+            String data) {
+        KinesisEvent.Record kinesis = eventRecord.getKinesis().clone();
+        kinesis.setData(UTF_8.encode(data));
+        KinesisEvent.KinesisEventRecord copy = eventRecord.clone();
+        copy.setKinesis(kinesis);
+        return copy;
+    }
+
+    // The binary message handler receives a read-only view of the data, rather than the data decoded as text
+    private Object readMessage(ByteBuffer data) {
+        return this.binaryMessageHandler != null ? data.asReadOnlyBuffer() : messageReader.read(data);
+    }
+
+    @Override
+    void handle(KinesisEvent.KinesisEventRecord eventRecord, Object message, Context context) {
+        LOGGER.debug("Processing item {}", eventRecord.getEventID());
+
+        if (this.rawMessageHandler != null) {
+            // the record itself, or its copy carrying the data replaced by the middleware stages
+            rawMessageHandler.accept((KinesisEvent.KinesisEventRecord) message, context);
+        } else if (this.deaggregate) {
+            for (Object userRecord : (List<?>) message) {
+                handleMessage(userRecord, context);
             }
-            return Optional.empty();
-        } catch (Exception e) {
-            String sequenceNumber = eventRecord.getEventID();
-            LOGGER.error("Error while processing record with eventID {}: {}, adding it to batch item failures",
-                    sequenceNumber, e.getMessage());
-            LOGGER.error("Error was", e);
-
-            // Report failure if we have a handler
-            if (this.failureHandler != null) {
-                // A failing failure handler is no reason to fail the batch
-                try {
-                    this.failureHandler.accept(eventRecord, e);
-                } catch (Exception e2) {
-                    LOGGER.warn("failureHandler threw handling failure", e2);
-                }
+        } else {
+            handleMessage(message, context);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * With KPL de-aggregation, each user record is retried on its own, so that the user records that already
+     * succeeded are not handled again.
+     */
+    @Override
+    void handleWithRetries(KinesisEvent.KinesisEventRecord eventRecord, Object message, Context context) {
+        if (!this.deaggregate) {
+            super.handleWithRetries(eventRecord, message, context);
+            return;
+        }
+        LOGGER.debug("Processing item {}", eventRecord.getEventID());
+        for (Object userRecord : (List<?>) message) {
+            runWithRetries(() -> handleMessage(userRecord, context), context);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleMessage(Object message, Context context) {
+        if (this.binaryMessageHandler != null) {
+            binaryMessageHandler.accept((ByteBuffer) message, context);
+        } else {
+            messageHandler.accept((M) message, context);
+        }
+    }
+
+    @Override
+    long estimateCost(KinesisEvent.KinesisEventRecord eventRecord) {
+        ByteBuffer data = eventRecord.getKinesis().getData();
+        return data != null ? data.remaining() : 0;
+    }
+
+    @Override
+    long getArrivalTimeMillis(KinesisEvent.KinesisEventRecord eventRecord) {
+        Date arrivalTimestamp = eventRecord.getKinesis().getApproximateArrivalTimestamp();
+        return arrivalTimestamp != null ? arrivalTimestamp.getTime() : -1;
+    }
+
+    @Override
+    List<Optional<StreamsEventResponse.BatchItemFailure>> processChunk(List<KinesisEvent.KinesisEventRecord> chunk,
+            Context context, BatchObservation observation, CircuitBreaker circuitBreaker) {
+        if (this.bulkMessageHandler != null) {
+            return processBulkChunk(chunk, bulkMessageHandler, observation, circuitBreaker);
+        }
+        return super.processChunk(chunk, context, observation, circuitBreaker);
+    }
+
+    @Override
+    boolean isAsync() {
+        return this.asyncRawMessageHandler != null || this.asyncMessageHandler != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Void> startBatchItemAsync(KinesisEvent.KinesisEventRecord eventRecord, Object message,
+            Context context) {
+        LOGGER.debug("Processing item {}", eventRecord.getEventID());
+
+        if (this.asyncRawMessageHandler != null) {
+            return asyncRawMessageHandler.apply(eventRecord, context);
+        }
+        return asyncMessageHandler.apply((M) message, context);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * With KPL de-aggregation, the user records are started one after the other, in order, and stop at the first
+     * failure. Each user record is retried on its own, so that the user records that already succeeded are not
+     * started again.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Void> startBatchItemAsyncWithRetries(KinesisEvent.KinesisEventRecord eventRecord,
+            Object message, Context context) {
+        if (!this.deaggregate) {
+            return super.startBatchItemAsyncWithRetries(eventRecord, message, context);
+        }
+        LOGGER.debug("Processing item {}", eventRecord.getEventID());
+        CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+        for (M userRecord : (List<M>) message) {
+            future = future.thenCompose(v -> startWithRetries(() -> Objects.requireNonNull(
+                    asyncMessageHandler.apply(userRecord, context),
+                    "The async message handler returned a null future"), context, 1));
+        }
+        return future;
+    }
+
+    @Override
+    int getChunkSize() {
+        return this.bulkMessageHandler != null ? bulkChunkSize : 1;
+    }
+
+    @Override
+    StreamsEventResponse.BatchItemFailure failBatchItem(KinesisEvent.KinesisEventRecord eventRecord, Exception e) {
+        String sequenceNumber = eventRecord.getEventID();
+        LOGGER.error("Error while processing record with eventID {}: {}, adding it to batch item failures",
+                sequenceNumber, e.getMessage());
+        LOGGER.error("Error was", e);
+
+        // Report failure if we have a handler
+        if (this.failureHandler != null) {
+            // A failing failure handler is no reason to fail the batch
+            try {
+                this.failureHandler.accept(eventRecord, e);
+            } catch (Exception e2) {
+                LOGGER.warn("failureHandler threw handling failure", e2);
             }
+        }
+
+        return toBatchItemFailure(eventRecord);
+    }
+
+    /**
+     * The handlers a {@link KinesisStreamsBatchMessageHandler} hands the records of a batch to, and its processing
+     * options. A single message handler is used, and the success and failure handlers are optional.
+     *
+     * @param <M> The user-defined type of the Kinesis record payload
+     */
+    public static final class Spec<M> {
+        private BiConsumer<KinesisEvent.KinesisEventRecord, Context> rawMessageHandler;
+        private BiConsumer<M, Context> messageHandler;
+        private Class<M> messageClass;
+        private Function<List<M>, BulkResult> bulkMessageHandler;
+        private int bulkChunkSize = 1;
+        private BiFunction<KinesisEvent.KinesisEventRecord, Context, CompletableFuture<Void>> asyncRawMessageHandler;
+        private BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler;
+        private BiConsumer<ByteBuffer, Context> binaryMessageHandler;
+        private Consumer<KinesisEvent.KinesisEventRecord> successHandler;
+        private BiConsumer<KinesisEvent.KinesisEventRecord, Throwable> failureHandler;
+        private BatchProcessingOptions options = BatchProcessingOptions.defaults();
+
+        public Spec<M> withRawMessageHandler(BiConsumer<KinesisEvent.KinesisEventRecord, Context> rawMessageHandler) {
+            this.rawMessageHandler = rawMessageHandler;
+            return this;
+        }
+
+        public Spec<M> withMessageHandler(BiConsumer<M, Context> messageHandler, Class<M> messageClass) {
+            this.messageHandler = messageHandler;
+            this.messageClass = messageClass;
+            return this;
+        }
+
+        public Spec<M> withBulkMessageHandler(Function<List<M>, BulkResult> bulkMessageHandler,
+                Class<M> messageClass, int chunkSize) {
+            this.bulkMessageHandler = bulkMessageHandler;
+            this.messageClass = messageClass;
+            this.bulkChunkSize = chunkSize;
+            return this;
+        }
+
+        public Spec<M> withAsyncRawMessageHandler(
+                BiFunction<KinesisEvent.KinesisEventRecord, Context, CompletableFuture<Void>> asyncRawMessageHandler) {
+            this.asyncRawMessageHandler = asyncRawMessageHandler;
+            return this;
+        }
+
+        public Spec<M> withAsyncMessageHandler(BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler,
+                Class<M> messageClass) {
+            this.asyncMessageHandler = asyncMessageHandler;
+            this.messageClass = messageClass;
+            return this;
+        }
+
+        public Spec<M> withBinaryMessageHandler(BiConsumer<ByteBuffer, Context> binaryMessageHandler) {
+            this.binaryMessageHandler = binaryMessageHandler;
+            return this;
+        }
+
+        public Spec<M> withSuccessHandler(Consumer<KinesisEvent.KinesisEventRecord> successHandler) {
+            this.successHandler = successHandler;
+            return this;
+        }
+
+        public Spec<M> withFailureHandler(BiConsumer<KinesisEvent.KinesisEventRecord, Throwable> failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
 
-            return Optional.of(StreamsEventResponse.BatchItemFailure.builder()
-                    .withItemIdentifier(eventRecord.getKinesis().getSequenceNumber()).build());
+        public Spec<M> withOptions(BatchProcessingOptions options) {
+            this.options = options;
+            return this;
         }
     }
 }
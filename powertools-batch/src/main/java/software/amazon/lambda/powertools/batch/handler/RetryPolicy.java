@@ -0,0 +1,151 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * How a message whose handler failed is retried within the invocation, before being reported as a batch item
+ * failure. Retries are delayed by an exponential backoff with full jitter: before attempt {@code n + 1}, a random
+ * delay between 0 and {@code min(maxBackoff, initialBackoff * multiplier^(n - 1))}.
+ * <p>
+ * For instance, to retry throttled calls up to 3 times:
+ * <pre>
+ * RetryPolicy.builder()
+ *         .withMaxAttempts(3)
+ *         .withInitialBackoff(Duration.ofMillis(50))
+ *         .retryOn(e -&gt; e instanceof ThrottlingException)
+ *         .build();
+ * </pre>
+ */
+public final class RetryPolicy {
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double multiplier;
+    private final Predicate<Throwable> retryOn;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoff.toMillis();
+        this.maxBackoffMillis = builder.maxBackoff.toMillis();
+        this.multiplier = builder.multiplier;
+        this.retryOn = builder.retryOn;
+    }
+
+    /**
+     * Create a builder that can be used to configure and create a {@link RetryPolicy}.
+     *
+     * @return a new instance of {@link Builder}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the maximum number of times the handler is invoked for a message, including the first attempt
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param failure The exception thrown by the handler
+     * @return whether a message failing with the given exception may be retried
+     */
+    public boolean isRetryable(Throwable failure) {
+        return retryOn.test(failure);
+    }
+
+    /**
+     * @param attempt The attempt that just failed, starting at 1
+     * @return the delay before the next attempt, in milliseconds
+     */
+    long backoffMillis(int attempt) {
+        double ceiling = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(multiplier, attempt - 1));
+        return (long) (ThreadLocalRandom.current().nextDouble() * ceiling);
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private Duration initialBackoff = Duration.ofMillis(100);
+        private Duration maxBackoff = Duration.ofSeconds(2);
+        private double multiplier = 2;
+        private Predicate<Throwable> retryOn = failure -> true;
+
+        /**
+         * @param maxAttempts The maximum number of times the handler is invoked for a message, including the
+         *                    first attempt. Defaults to 3.
+         */
+        public Builder withMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be greater than 0");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialBackoff The upper bound of the delay before the first retry. Defaults to 100 ms.
+         */
+        public Builder withInitialBackoff(Duration initialBackoff) {
+            if (initialBackoff == null || initialBackoff.isNegative()) {
+                throw new IllegalArgumentException("initialBackoff must not be negative");
+            }
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        /**
+         * @param maxBackoff The upper bound of the delay before any retry. Defaults to 2 seconds.
+         */
+        public Builder withMaxBackoff(Duration maxBackoff) {
+            if (maxBackoff == null || maxBackoff.isNegative()) {
+                throw new IllegalArgumentException("maxBackoff must not be negative");
+            }
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * @param multiplier The factor applied to the upper bound of the delay after each attempt. Defaults to 2.
+         */
+        public Builder withMultiplier(double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("multiplier must be at least 1");
+            }
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param retryOn Tells whether a message failing with the given exception may be retried, for instance
+         *                only on throttling errors. By default, every exception is retried.
+         */
+        public Builder retryOn(Predicate<Throwable> retryOn) {
+            if (retryOn == null) {
+                throw new IllegalArgumentException("retryOn must not be null");
+            }
+            this.retryOn = retryOn;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
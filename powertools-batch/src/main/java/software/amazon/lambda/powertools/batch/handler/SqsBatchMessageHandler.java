@@ -14,16 +14,13 @@
 
 package software.amazon.lambda.powertools.batch.handler;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,178 +29,282 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 
-import software.amazon.lambda.powertools.batch.internal.MultiThreadMDC;
-import software.amazon.lambda.powertools.batch.internal.XRayTraceEntityPropagator;
-import software.amazon.lambda.powertools.utilities.EventDeserializer;
+import software.amazon.lambda.powertools.batch.instrumentation.BatchObservation;
+import software.amazon.lambda.powertools.batch.internal.CircuitBreaker;
+import software.amazon.lambda.powertools.batch.internal.MessageReader;
 
 /**
  * A batch message processor for SQS batches.
+ * <p>
+ * If we are working on a FIFO queue, when any message fails we stop processing and return the rest of the batch
+ * as failed too. When processing in parallel, the messages are partitioned by message group ID: message groups
+ * are processed in parallel, while the messages of a group are processed sequentially, in order, and when a
+ * message fails, the remaining messages of its group are failed too.
  *
  * @param <M> The user-defined type of the message payload
  * @see <a href="https://docs.aws.amazon.com/lambda/latest/dg/with-sqs.html#services-sqs-batchfailurereporting">SQS Batch failure reporting</a>
  */
-public class SqsBatchMessageHandler<M> implements BatchMessageHandler<SQSEvent, SQSBatchResponse> {
+public class SqsBatchMessageHandler<M>
+        extends AbstractBatchMessageHandler<SQSEvent, SQSEvent.SQSMessage, SQSBatchResponse.BatchItemFailure,
+        SQSBatchResponse> {
     private static final Logger LOGGER = LoggerFactory.getLogger(SqsBatchMessageHandler.class);
 
     // The attribute on an SQS-FIFO message used to record the message group ID
     // https://docs.aws.amazon.com/lambda/latest/dg/with-sqs.html#sample-fifo-queues-message-event
     private static final String MESSAGE_GROUP_ID_KEY = "MessageGroupId";
 
-    private final Class<M> messageClass;
+    // The attribute on an SQS message recording when it was sent to the queue, in milliseconds since the epoch
+    private static final String SENT_TIMESTAMP_KEY = "SentTimestamp";
+
+    private final MessageReader<M> messageReader;
     private final BiConsumer<M, Context> messageHandler;
     private final BiConsumer<SQSEvent.SQSMessage, Context> rawMessageHandler;
-    private final Consumer<SQSEvent.SQSMessage> successHandler;
-    private final BiConsumer<SQSEvent.SQSMessage, Throwable> failureHandler;
+    private final Function<List<M>, BulkResult> bulkMessageHandler;
+    private final int bulkChunkSize;
+    private final BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler;
+    private final BiFunction<SQSEvent.SQSMessage, Context, CompletableFuture<Void>> asyncRawMessageHandler;
 
     public SqsBatchMessageHandler(BiConsumer<M, Context> messageHandler, Class<M> messageClass,
             BiConsumer<SQSEvent.SQSMessage, Context> rawMessageHandler,
             Consumer<SQSEvent.SQSMessage> successHandler,
             BiConsumer<SQSEvent.SQSMessage, Throwable> failureHandler) {
-        this.messageHandler = messageHandler;
-        this.messageClass = messageClass;
-        this.rawMessageHandler = rawMessageHandler;
-        this.successHandler = successHandler;
-        this.failureHandler = failureHandler;
-    }
-
-    @Override
-    public SQSBatchResponse processBatch(SQSEvent event, Context context) {
-        SQSBatchResponse response = SQSBatchResponse.builder().withBatchItemFailures(new ArrayList<>()).build();
-
-        // If we are working on a FIFO queue, when any message fails we should stop processing and return the
-        // rest of the batch as failed too. We use this variable to track when that has happened.
-        // https://docs.aws.amazon.com/lambda/latest/dg/with-sqs.html#services-sqs-batchfailurereporting
-        final AtomicBoolean failWholeBatch = new AtomicBoolean(false);
-
-        int messageCursor = 0;
-        for (; messageCursor < event.getRecords().size() && !failWholeBatch.get(); messageCursor++) {
-            SQSEvent.SQSMessage message = event.getRecords().get(messageCursor);
-
-            String messageGroupId = message.getAttributes() != null ? message.getAttributes().get(MESSAGE_GROUP_ID_KEY)
-                    : null;
-
-            processBatchItem(message, context).ifPresent(batchItemFailure -> {
-                response.getBatchItemFailures().add(batchItemFailure);
-                if (messageGroupId != null) {
-                    failWholeBatch.set(true);
-                    LOGGER.info(
-                            "A message in a batch with messageGroupId {} and messageId {} failed; failing the rest of the batch too",
-                            messageGroupId, message.getMessageId());
-                }
-            });
+        this(new Spec<M>()
+                .withMessageHandler(messageHandler, messageClass)
+                .withRawMessageHandler(rawMessageHandler)
+                .withSuccessHandler(successHandler)
+                .withFailureHandler(failureHandler));
+    }
+
+    /**
+     * Creates a handler from the given spec. See
+     * {@link software.amazon.lambda.powertools.batch.builder.SqsBatchMessageHandlerBuilder} for a more convenient
+     * way to build one.
+     *
+     * @param spec The handlers and the processing options of the handler
+     */
+    public SqsBatchMessageHandler(Spec<M> spec) {
+        super(spec.successHandler, spec.failureHandler, spec.options);
+        this.messageHandler = spec.messageHandler;
+        this.messageReader = spec.messageClass != null ? MessageReader.of(spec.messageClass) : null;
+        this.rawMessageHandler = spec.rawMessageHandler;
+        this.bulkMessageHandler = spec.bulkMessageHandler;
+        this.bulkChunkSize = spec.bulkChunkSize;
+        this.asyncMessageHandler = spec.asyncMessageHandler;
+        this.asyncRawMessageHandler = spec.asyncRawMessageHandler;
+        checkMiddlewareSupported(bulkMessageHandler == null && asyncMessageHandler == null
+                && asyncRawMessageHandler == null);
+    }
+
+    @Override
+    List<SQSEvent.SQSMessage> getRecords(SQSEvent event) {
+        return event.getRecords();
+    }
+
+    @Override
+    SQSBatchResponse.BatchItemFailure toBatchItemFailure(SQSEvent.SQSMessage message) {
+        return SQSBatchResponse.BatchItemFailure.builder().withItemIdentifier(message.getMessageId()).build();
+    }
+
+    @Override
+    SQSBatchResponse buildResponse(List<SQSBatchResponse.BatchItemFailure> batchItemFailures) {
+        return SQSBatchResponse.builder().withBatchItemFailures(batchItemFailures).build();
+    }
+
+    @Override
+    Function<SQSEvent.SQSMessage, ?> getOrderingKey(SQSEvent event, boolean parallel) {
+        return isFIFOEnabled(event) ? SqsBatchMessageHandler::messageGroupId : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Function<SQSEvent.SQSMessage, ?> getDuplicateKey(SQSEvent event) {
+        // FIFO queues deduplicate messages already, and collapsing them would break the ordering of their groups
+        return isFIFOEnabled(event) ? null : (Function<SQSEvent.SQSMessage, ?>) options.getDuplicateKeyExtractor();
+    }
+
+    @Override
+    Object deserialize(SQSEvent.SQSMessage message) {
+        if (this.rawMessageHandler != null || this.asyncRawMessageHandler != null) {
+            return message;
         }
+        return messageReader.read(message.getBody());
+    }
+
+    @Override
+    String readBody(SQSEvent.SQSMessage message) {
+        return message.getBody();
+    }
 
-        if (failWholeBatch.get()) {
-            // Add the remaining messages to the batch item failures
-            event.getRecords()
-                    .subList(messageCursor, event.getRecords().size())
-                    .forEach(message -> response.getBatchItemFailures()
-                            .add(SQSBatchResponse.BatchItemFailure.builder().withItemIdentifier(message.getMessageId())
-                                    .build()));
+    @Override
+    Object deserialize(SQSEvent.SQSMessage message, BatchRecord<SQSEvent.SQSMessage> batchRecord) {
+        if (this.rawMessageHandler != null) {
+            return batchRecord.isReplaced() ? withBody(message, batchRecord.getBody()) : message;
         }
-        return response;
+        return batchRecord.read(messageReader);
+    }
+
+    // A copy of the message carrying the body replaced by the middleware stages, for the raw message handler
+    private static SQSEvent.SQSMessage withBody(SQSEvent.SQSMessage message, String body) {
+        SQSEvent.SQSMessage copy = new SQSEvent.SQSMessage();
+        copy.setMessageId(message.getMessageId());
+        copy.setReceiptHandle(message.getReceiptHandle());
+        copy.setBody(body);
+        // the MD5 of the body as delivered no longer matches, and is left unset
+        copy.setMd5OfMessageAttributes(message.getMd5OfMessageAttributes());
+        copy.setEventSourceArn(message.getEventSourceArn());
+        copy.setEventSource(message.getEventSource());
+        copy.setAwsRegion(message.getAwsRegion());
+        copy.setAttributes(message.getAttributes());
+        copy.setMessageAttributes(message.getMessageAttributes());
+        return copy;
     }
 
     @Override
-    public SQSBatchResponse processBatchInParallel(SQSEvent event, Context context) {
-        if (isFIFOEnabled(event)) {
-            throw new UnsupportedOperationException(
-                    "FIFO queues are not supported in parallel mode, use the processBatch method instead");
+    @SuppressWarnings("unchecked")
+    void handle(SQSEvent.SQSMessage message, Object messageDeserialized, Context context) {
+        LOGGER.debug("Processing message {}", message.getMessageId());
+
+        if (this.rawMessageHandler != null) {
+            // the message itself, or its copy carrying the body replaced by the middleware stages
+            rawMessageHandler.accept((SQSEvent.SQSMessage) messageDeserialized, context);
+        } else {
+            messageHandler.accept((M) messageDeserialized, context);
         }
+    }
 
-        MultiThreadMDC multiThreadMDC = new MultiThreadMDC();
-        Object capturedSubsegment = XRayTraceEntityPropagator.captureTraceEntity();
-
-        List<SQSBatchResponse.BatchItemFailure> batchItemFailures = event.getRecords()
-                .parallelStream() // Parallel processing
-                .map(sqsMessage -> {
-                    AtomicReference<Optional<SQSBatchResponse.BatchItemFailure>> result = new AtomicReference<>();
-
-                    XRayTraceEntityPropagator.runWithEntity(capturedSubsegment, () -> {
-                        multiThreadMDC.copyMDCToThread(Thread.currentThread().getName());
-                        try {
-                            result.set(processBatchItem(sqsMessage, context));
-                        } finally {
-                            multiThreadMDC.removeThread(Thread.currentThread().getName());
-                        }
-                    });
-
-                    return result.get();
-                })
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+    @Override
+    long estimateCost(SQSEvent.SQSMessage message) {
+        return message.getBody() != null ? message.getBody().length() : 0;
+    }
 
-        return SQSBatchResponse.builder().withBatchItemFailures(batchItemFailures).build();
+    @Override
+    long getArrivalTimeMillis(SQSEvent.SQSMessage message) {
+        String sentTimestamp = message.getAttributes() != null ? message.getAttributes().get(SENT_TIMESTAMP_KEY)
+                : null;
+        return sentTimestamp != null ? Long.parseLong(sentTimestamp) : -1;
     }
 
     @Override
-    public SQSBatchResponse processBatchInParallel(SQSEvent event, Context context, Executor executor) {
-        if (isFIFOEnabled(event)) {
-            throw new UnsupportedOperationException(
-                    "FIFO queues are not supported in parallel mode, use the processBatch method instead");
+    List<Optional<SQSBatchResponse.BatchItemFailure>> processChunk(List<SQSEvent.SQSMessage> chunk,
+            Context context, BatchObservation observation, CircuitBreaker circuitBreaker) {
+        if (this.bulkMessageHandler != null) {
+            return processBulkChunk(chunk, bulkMessageHandler, observation, circuitBreaker);
         }
+        return super.processChunk(chunk, context, observation, circuitBreaker);
+    }
 
-        MultiThreadMDC multiThreadMDC = new MultiThreadMDC();
-        Object capturedSubsegment = XRayTraceEntityPropagator.captureTraceEntity();
-
-        List<SQSBatchResponse.BatchItemFailure> batchItemFailures = new ArrayList<>();
-        List<CompletableFuture<Void>> futures = event.getRecords().stream()
-                .map(eventRecord -> CompletableFuture.runAsync(() -> {
-                    XRayTraceEntityPropagator.runWithEntity(capturedSubsegment, () -> {
-                        multiThreadMDC.copyMDCToThread(Thread.currentThread().getName());
-                        try {
-                            Optional<SQSBatchResponse.BatchItemFailure> failureOpt = processBatchItem(eventRecord,
-                                    context);
-                            failureOpt.ifPresent(batchItemFailures::add);
-                        } finally {
-                            multiThreadMDC.removeThread(Thread.currentThread().getName());
-                        }
-                    });
-                }, executor))
-                .collect(Collectors.toList());
-        futures.forEach(CompletableFuture::join);
+    @Override
+    boolean isAsync() {
+        return this.asyncMessageHandler != null || this.asyncRawMessageHandler != null;
+    }
 
-        return SQSBatchResponse.builder().withBatchItemFailures(batchItemFailures).build();
+    @Override
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Void> startBatchItemAsync(SQSEvent.SQSMessage message, Object messageDeserialized,
+            Context context) {
+        LOGGER.debug("Processing message {}", message.getMessageId());
+
+        if (this.asyncRawMessageHandler != null) {
+            return asyncRawMessageHandler.apply(message, context);
+        }
+        return asyncMessageHandler.apply((M) messageDeserialized, context);
     }
 
-    private Optional<SQSBatchResponse.BatchItemFailure> processBatchItem(SQSEvent.SQSMessage message, Context context) {
-        try {
-            LOGGER.debug("Processing message {}", message.getMessageId());
+    @Override
+    int getChunkSize() {
+        return this.bulkMessageHandler != null ? bulkChunkSize : 1;
+    }
 
-            if (this.rawMessageHandler != null) {
-                rawMessageHandler.accept(message, context);
-            } else {
-                M messageDeserialized = EventDeserializer.extractDataFrom(message).as(messageClass);
-                messageHandler.accept(messageDeserialized, context);
-            }
+    @Override
+    SQSBatchResponse.BatchItemFailure failBatchItem(SQSEvent.SQSMessage message, Exception e) {
+        LOGGER.error("Error while processing message with messageId {}: {}, adding it to batch item failures",
+                message.getMessageId(), e.getMessage());
+        LOGGER.error("Error was", e);
 
-            // Report success if we have a handler
-            if (this.successHandler != null) {
-                this.successHandler.accept(message);
-            }
-            return Optional.empty();
-        } catch (Exception e) {
-            LOGGER.error("Error while processing message with messageId {}: {}, adding it to batch item failures",
-                    message.getMessageId(), e.getMessage());
-            LOGGER.error("Error was", e);
-
-            // Report failure if we have a handler
-            if (this.failureHandler != null) {
-                // A failing failure handler is no reason to fail the batch
-                try {
-                    this.failureHandler.accept(message, e);
-                } catch (Exception e2) {
-                    LOGGER.warn("failureHandler threw handling failure", e2);
-                }
+        // Report failure if we have a handler
+        if (this.failureHandler != null) {
+            // A failing failure handler is no reason to fail the batch
+            try {
+                this.failureHandler.accept(message, e);
+            } catch (Exception e2) {
+                LOGGER.warn("failureHandler threw handling failure", e2);
             }
-            return Optional.of(SQSBatchResponse.BatchItemFailure.builder().withItemIdentifier(message.getMessageId())
-                    .build());
         }
+        return toBatchItemFailure(message);
+    }
+
+    private static String messageGroupId(SQSEvent.SQSMessage message) {
+        return message.getAttributes() != null ? message.getAttributes().get(MESSAGE_GROUP_ID_KEY) : null;
     }
 
     private boolean isFIFOEnabled(SQSEvent sqsEvent) {
         return !sqsEvent.getRecords().isEmpty()
                 && sqsEvent.getRecords().get(0).getAttributes().get(MESSAGE_GROUP_ID_KEY) != null;
     }
+
+    /**
+     * The handlers an {@link SqsBatchMessageHandler} hands the messages of a batch to, and its processing options.
+     * A single message handler is used, and the success and failure handlers are optional.
+     *
+     * @param <M> The user-defined type of the message payload
+     */
+    public static final class Spec<M> {
+        private BiConsumer<M, Context> messageHandler;
+        private Class<M> messageClass;
+        private BiConsumer<SQSEvent.SQSMessage, Context> rawMessageHandler;
+        private Function<List<M>, BulkResult> bulkMessageHandler;
+        private int bulkChunkSize = 1;
+        private BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler;
+        private BiFunction<SQSEvent.SQSMessage, Context, CompletableFuture<Void>> asyncRawMessageHandler;
+        private Consumer<SQSEvent.SQSMessage> successHandler;
+        private BiConsumer<SQSEvent.SQSMessage, Throwable> failureHandler;
+        private BatchProcessingOptions options = BatchProcessingOptions.defaults();
+
+        public Spec<M> withMessageHandler(BiConsumer<M, Context> messageHandler, Class<M> messageClass) {
+            this.messageHandler = messageHandler;
+            this.messageClass = messageClass;
+            return this;
+        }
+
+        public Spec<M> withRawMessageHandler(BiConsumer<SQSEvent.SQSMessage, Context> rawMessageHandler) {
+            this.rawMessageHandler = rawMessageHandler;
+            return this;
+        }
+
+        public Spec<M> withBulkMessageHandler(Function<List<M>, BulkResult> bulkMessageHandler,
+                Class<M> messageClass, int chunkSize) {
+            this.bulkMessageHandler = bulkMessageHandler;
+            this.messageClass = messageClass;
+            this.bulkChunkSize = chunkSize;
+            return this;
+        }
+
+        public Spec<M> withAsyncMessageHandler(BiFunction<M, Context, CompletableFuture<Void>> asyncMessageHandler,
+                Class<M> messageClass) {
+            this.asyncMessageHandler = asyncMessageHandler;
+            this.messageClass = messageClass;
+            return this;
+        }
+
+        public Spec<M> withAsyncRawMessageHandler(
+                BiFunction<SQSEvent.SQSMessage, Context, CompletableFuture<Void>> asyncRawMessageHandler) {
+            this.asyncRawMessageHandler = asyncRawMessageHandler;
+            return this;
+        }
+
+        public Spec<M> withSuccessHandler(Consumer<SQSEvent.SQSMessage> successHandler) {
+            this.successHandler = successHandler;
+            return this;
+        }
+
+        public Spec<M> withFailureHandler(BiConsumer<SQSEvent.SQSMessage, Throwable> failureHandler) {
+            this.failureHandler = failureHandler;
+            return this;
+        }
+
+        public Spec<M> withOptions(BatchProcessingOptions options) {
+            this.options = options;
+            return this;
+        }
+    }
 }
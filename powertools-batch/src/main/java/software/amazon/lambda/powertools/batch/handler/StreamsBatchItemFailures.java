@@ -0,0 +1,49 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.handler;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.amazonaws.services.lambda.runtime.events.StreamsEventResponse;
+
+/**
+ * Helpers for the batch item failures of the Kinesis and DynamoDB Streams handlers, where the item identifier is
+ * the sequence number of the record.
+ */
+final class StreamsBatchItemFailures {
+
+    private StreamsBatchItemFailures() {
+        // Utility class
+    }
+
+    /**
+     * Lambda checkpoints a stream at the lowest reported sequence number and retries every record after it, so
+     * this is the only failure that matters when records have been processed out of order.
+     *
+     * @param batchItemFailures the failures, in any order
+     * @return a list holding only the failure with the lowest sequence number, or an empty list
+     */
+    static List<StreamsEventResponse.BatchItemFailure> lowestSequenceNumber(
+            List<StreamsEventResponse.BatchItemFailure> batchItemFailures) {
+        // Sequence numbers are decimal strings too large for a long
+        return batchItemFailures.stream()
+                .min(Comparator.comparing(failure -> new BigInteger(failure.getItemIdentifier())))
+                .map(Collections::singletonList)
+                .orElse(Collections.emptyList());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.instrumentation;
+
+/**
+ * A hook to observe where time goes when processing batches - for instance, to decide between sequential and
+ * parallel processing, or to right-size the memory of the function. The batch message handler starts an
+ * observation for each batch it processes, and notifies it as records are processed.
+ * <p>
+ * {@link MetricsBatchInstrumentation} publishes the observations with Powertools for AWS Lambda (Java) Metrics.
+ *
+ * @see software.amazon.lambda.powertools.batch.BatchMessageHandlerBuilder
+ */
+public interface BatchInstrumentation {
+
+    /**
+     * Instrumentation that observes nothing. This is the default.
+     */
+    BatchInstrumentation NONE = batchSize -> BatchObservation.NONE;
+
+    /**
+     * Invoked when the processing of a batch starts.
+     *
+     * @param batchSize The number of records in the batch
+     * @return the observation of this batch
+     */
+    BatchObservation startBatch(int batchSize);
+}
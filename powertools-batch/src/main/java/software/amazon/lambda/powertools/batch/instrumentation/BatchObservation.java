@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.instrumentation;
+
+/**
+ * The observation of the processing of a single batch, started by {@link BatchInstrumentation#startBatch(int)}.
+ * <p>
+ * When the batch is processed in parallel, records are reported from several threads at the same time:
+ * implementations must be thread-safe.
+ */
+public interface BatchObservation {
+
+    /**
+     * An observation that ignores everything.
+     */
+    BatchObservation NONE = new BatchObservation() {
+        @Override
+        public void recordProcessed(long queueWaitMillis, long deserializationNanos, long handlerNanos,
+                boolean success) {
+            // Nothing to observe
+        }
+
+        @Override
+        public void batchProcessed(long durationNanos) {
+            // Nothing to observe
+        }
+    };
+
+    /**
+     * Invoked once a record has been processed, successfully or not. Records that are not started, because
+     * the function is about to time out or an earlier record of the same message group failed, are not reported.
+     *
+     * @param queueWaitMillis      The time the record waited in the queue or stream before being processed -
+     *                             from {@code SentTimestamp} for SQS, {@code ApproximateArrivalTimestamp} for
+     *                             Kinesis and {@code ApproximateCreationDateTime} for DynamoDB - or -1 if unknown
+     * @param deserializationNanos The time spent deserializing the record
+     * @param handlerNanos         The time spent in the message handler. With a bulk message handler, this is the
+     *                             time spent processing the chunk of the record.
+     * @param success              Whether the record was processed successfully
+     */
+    void recordProcessed(long queueWaitMillis, long deserializationNanos, long handlerNanos, boolean success);
+
+    /**
+     * Invoked once all the records of the batch have been processed.
+     *
+     * @param durationNanos The time spent processing the batch
+     */
+    void batchProcessed(long durationNanos);
+}
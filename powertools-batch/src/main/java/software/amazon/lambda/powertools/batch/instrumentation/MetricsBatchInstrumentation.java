@@ -0,0 +1,135 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.instrumentation;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import software.amazon.lambda.powertools.metrics.Metrics;
+import software.amazon.lambda.powertools.metrics.MetricsFactory;
+import software.amazon.lambda.powertools.metrics.model.MetricUnit;
+
+/**
+ * A {@link BatchInstrumentation} publishing one aggregated CloudWatch Embedded Metric Format (EMF) document per
+ * batch, using Powertools for AWS Lambda (Java) Metrics. The document uses the namespace and default dimensions of
+ * the metrics instance, and holds the following metrics:
+ * <ul>
+ *     <li>{@code BatchSize}, {@code ProcessedRecords} and {@code FailedRecords}</li>
+ *     <li>{@code BatchDuration}, the time spent processing the batch</li>
+ *     <li>{@code DeserializationTime} and {@code HandlerTime}, summed over the records of the batch</li>
+ *     <li>{@code RecordLatencyP50} and {@code RecordLatencyP99}, the percentiles of the time spent processing
+ *     each record</li>
+ *     <li>{@code QueueWaitTimeMax}, the longest time a record waited in the queue or stream</li>
+ * </ul>
+ * <p>
+ * This requires the {@code powertools-metrics} dependency.
+ */
+public class MetricsBatchInstrumentation implements BatchInstrumentation {
+    private final Metrics metrics;
+
+    /**
+     * Publishes metrics with the instance returned by {@link MetricsFactory#getMetricsInstance()}.
+     */
+    public MetricsBatchInstrumentation() {
+        this(MetricsFactory.getMetricsInstance());
+    }
+
+    /**
+     * Publishes metrics with the given instance.
+     *
+     * @param metrics The metrics instance whose namespace and default dimensions are used
+     */
+    public MetricsBatchInstrumentation(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public BatchObservation startBatch(int batchSize) {
+        return new MetricsBatchObservation(batchSize);
+    }
+
+    private final class MetricsBatchObservation implements BatchObservation {
+        private final int batchSize;
+        private final LongAdder processedRecords = new LongAdder();
+        private final LongAdder failedRecords = new LongAdder();
+        private final LongAdder deserializationNanos = new LongAdder();
+        private final LongAdder handlerNanos = new LongAdder();
+        private final LongAccumulator maxQueueWaitMillis = new LongAccumulator(Math::max, -1);
+        // Lock-free: each record gets its own slot
+        private final AtomicLongArray recordLatencies;
+        private final AtomicInteger recordCount = new AtomicInteger();
+
+        private MetricsBatchObservation(int batchSize) {
+            this.batchSize = batchSize;
+            this.recordLatencies = new AtomicLongArray(batchSize);
+        }
+
+        @Override
+        public void recordProcessed(long queueWaitMillis, long deserializationNanos, long handlerNanos,
+                boolean success) {
+            (success ? processedRecords : failedRecords).increment();
+            this.deserializationNanos.add(deserializationNanos);
+            this.handlerNanos.add(handlerNanos);
+            maxQueueWaitMillis.accumulate(queueWaitMillis);
+
+            int slot = recordCount.getAndIncrement();
+            if (slot < recordLatencies.length()) {
+                recordLatencies.set(slot, deserializationNanos + handlerNanos);
+            }
+        }
+
+        @Override
+        public void batchProcessed(long durationNanos) {
+            long[] latencies = new long[Math.min(recordCount.get(), recordLatencies.length())];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = recordLatencies.get(i);
+            }
+            Arrays.sort(latencies);
+
+            metrics.flushMetrics(batchMetrics -> {
+                batchMetrics.addMetric("BatchSize", batchSize, MetricUnit.COUNT);
+                batchMetrics.addMetric("ProcessedRecords", processedRecords.sum(), MetricUnit.COUNT);
+                batchMetrics.addMetric("FailedRecords", failedRecords.sum(), MetricUnit.COUNT);
+                batchMetrics.addMetric("BatchDuration", toMillis(durationNanos), MetricUnit.MILLISECONDS);
+                batchMetrics.addMetric("DeserializationTime", toMillis(deserializationNanos.sum()),
+                        MetricUnit.MILLISECONDS);
+                batchMetrics.addMetric("HandlerTime", toMillis(handlerNanos.sum()), MetricUnit.MILLISECONDS);
+                if (latencies.length > 0) {
+                    batchMetrics.addMetric("RecordLatencyP50", toMillis(percentile(latencies, 50)),
+                            MetricUnit.MILLISECONDS);
+                    batchMetrics.addMetric("RecordLatencyP99", toMillis(percentile(latencies, 99)),
+                            MetricUnit.MILLISECONDS);
+                }
+                if (maxQueueWaitMillis.get() >= 0) {
+                    batchMetrics.addMetric("QueueWaitTimeMax", maxQueueWaitMillis.get(), MetricUnit.MILLISECONDS);
+                }
+            });
+        }
+    }
+
+    // Nearest-rank percentile of the given sorted values
+    static long percentile(long[] sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(rank, 1) - 1];
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
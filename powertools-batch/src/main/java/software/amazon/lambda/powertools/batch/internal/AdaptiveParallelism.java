@@ -0,0 +1,250 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Chooses how to process a batch in parallel from the cost of the records processed so far in the execution
+ * environment, and the number of available processors:
+ * <ul>
+ *     <li>sequentially, when the whole batch is too cheap to make up for handing records over to other threads,
+ *     or when the records are CPU-bound and a single processor is available;</li>
+ *     <li>on the common ForkJoinPool, when the records are CPU-bound;</li>
+ *     <li>on a bounded executor, when the records mostly wait for I/O. The concurrency is sized so that the
+ *     processors are kept busy while records wait: the number of processors divided by the share of its time a
+ *     record spends on the CPU.</li>
+ * </ul>
+ * The cost of the records is measured on the threads processing them, and smoothed over the invocations.
+ * <p>
+ * The CPU time of virtual threads cannot be measured, so the bounded executor runs on platform threads, even on
+ * Java 21+. Work measured on a virtual thread anyway, for instance when the batch is processed from one, only
+ * counts towards the cost of the records: the share of their time spent on the CPU is left as measured before.
+ */
+public final class AdaptiveParallelism {
+
+    /**
+     * The number of records measured sequentially before the first plan in the execution environment.
+     */
+    public static final int SAMPLE_SIZE = 2;
+
+    // Below this amount of work, handing records over to other threads costs more than it saves
+    private static final long MIN_PARALLEL_WORK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Records spending at least this share of their time on the CPU do not benefit from more threads than CPUs
+    private static final double CPU_BOUND_RATIO = 0.5;
+    private static final int DEFAULT_MAX_CONCURRENCY = 64;
+    // The weight of the last invocation in the smoothed statistics
+    private static final double SMOOTHING = 0.3;
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final int maxConcurrency;
+    private volatile Executor executor;
+
+    // Measurements of the current invocation
+    private final LongAdder records = new LongAdder();
+    private final LongAdder wallNanos = new LongAdder();
+    private final LongAdder cpuMeasuredWallNanos = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+
+    // Smoothed statistics of the previous invocations, guarded by this
+    private double recordCostNanos = -1;
+    private double cpuRatio = 1;
+
+    /**
+     * @param maxConcurrency The maximum number of records processed at the same time, or 0 for the default
+     */
+    public AdaptiveParallelism(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : DEFAULT_MAX_CONCURRENCY;
+    }
+
+    /**
+     * @return whether the cost of the records is known from previous invocations
+     */
+    public synchronized boolean hasHistory() {
+        return recordCostNanos >= 0;
+    }
+
+    /**
+     * Runs the given work on the current thread, measuring its wall-clock and CPU time.
+     *
+     * @param recordCount The number of records processed by the work
+     * @param work        The work to run
+     * @param <R>         The type of the result of the work
+     * @return the result of the work
+     */
+    public <R> R measure(int recordCount, Supplier<R> work) {
+        long cpuStart = currentThreadCpuTime();
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            records.add(recordCount);
+            wallNanos.add(elapsed);
+            long cpuEnd = cpuStart >= 0 ? currentThreadCpuTime() : -1;
+            if (cpuEnd >= 0) {
+                cpuMeasuredWallNanos.add(elapsed);
+                cpuNanos.add(cpuEnd - cpuStart);
+            }
+        }
+    }
+
+    /**
+     * Plans the processing of the given number of records, from the statistics of the previous invocations, or from
+     * the measurements of the current one if there are none.
+     *
+     * @param recordCount The number of records to process
+     * @return the plan
+     */
+    public synchronized Plan plan(int recordCount) {
+        double cost = recordCostNanos;
+        double ratio = cpuRatio;
+        if (cost < 0 && records.sum() > 0) {
+            cost = wallNanos.sum() / (double) records.sum();
+            ratio = currentCpuRatio(ratio);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        if (cost < 0) {
+            // Nothing measured yet
+            return processors > 1 ? Plan.PARALLEL : Plan.SEQUENTIAL;
+        }
+        if (recordCount < 2 || cost * recordCount < MIN_PARALLEL_WORK_NANOS) {
+            return Plan.SEQUENTIAL;
+        }
+        if (ratio >= CPU_BOUND_RATIO) {
+            return processors > 1 ? Plan.PARALLEL : Plan.SEQUENTIAL;
+        }
+        int concurrency = (int) Math.ceil(processors / Math.max(ratio, 0.01));
+        return Plan.onExecutor(Math.max(2, Math.min(concurrency, Math.min(recordCount, maxConcurrency))));
+    }
+
+    /**
+     * Folds the measurements of the current invocation into the statistics of the previous ones.
+     */
+    public synchronized void batchProcessed() {
+        long recordCount = records.sumThenReset();
+        long wall = wallNanos.sumThenReset();
+        double ratio = currentCpuRatio(cpuRatio);
+        cpuMeasuredWallNanos.reset();
+        cpuNanos.reset();
+        if (recordCount == 0) {
+            return;
+        }
+
+        double cost = wall / (double) recordCount;
+        if (recordCostNanos < 0) {
+            recordCostNanos = cost;
+            cpuRatio = ratio;
+        } else {
+            recordCostNanos += SMOOTHING * (cost - recordCostNanos);
+            cpuRatio += SMOOTHING * (ratio - cpuRatio);
+        }
+    }
+
+    /**
+     * @param concurrency The maximum number of tasks in flight
+     * @return an executor running at most {@code concurrency} tasks at the same time, on platform threads
+     */
+    public Executor getExecutor(int concurrency) {
+        Executor shared = executor;
+        if (shared == null) {
+            synchronized (this) {
+                shared = executor;
+                if (shared == null) {
+                    // Platform threads, as the CPU time of virtual threads cannot be measured
+                    shared = BoundedExecutor.createOnPlatformThreads(maxConcurrency);
+                    executor = shared;
+                }
+            }
+        }
+        return BoundedExecutor.limit(shared, concurrency);
+    }
+
+    // The share of the wall-clock time spent on the CPU in the current invocation, or the given default if unknown
+    private double currentCpuRatio(double defaultRatio) {
+        long measuredWall = cpuMeasuredWallNanos.sum();
+        if (measuredWall <= 0) {
+            return defaultRatio;
+        }
+        return Math.min(1, cpuNanos.sum() / (double) measuredWall);
+    }
+
+    private static long currentThreadCpuTime() {
+        try {
+            return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1;
+        } catch (UnsupportedOperationException e) {
+            // Not supported on virtual threads
+            return -1;
+        }
+    }
+
+    /**
+     * How to process a batch.
+     */
+    public static final class Plan {
+        static final Plan SEQUENTIAL = new Plan(Mode.SEQUENTIAL, 1);
+        static final Plan PARALLEL = new Plan(Mode.PARALLEL, 0);
+
+        private final Mode mode;
+        private final int concurrency;
+
+        private Plan(Mode mode, int concurrency) {
+            this.mode = mode;
+            this.concurrency = concurrency;
+        }
+
+        static Plan onExecutor(int concurrency) {
+            return new Plan(Mode.EXECUTOR, concurrency);
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * The maximum number of records processed at the same time on the executor.
+         */
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        @Override
+        public String toString() {
+            return mode == Mode.EXECUTOR ? mode + "(" + concurrency + ")" : mode.toString();
+        }
+    }
+
+    public enum Mode {
+        /**
+         * Process the records on the calling thread.
+         */
+        SEQUENTIAL,
+        /**
+         * Process the records on the common ForkJoinPool.
+         */
+        PARALLEL,
+        /**
+         * Process the records on a bounded executor.
+         */
+        EXECUTOR
+    }
+}
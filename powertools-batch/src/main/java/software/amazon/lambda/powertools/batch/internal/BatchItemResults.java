@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collects the outcome of the records of a batch processed concurrently. There is one preallocated slot per
+ * record, indexed by the position of the record in the batch: each slot is written by the single task processing
+ * that record, so tasks never contend with each other, and no lock is needed.
+ *
+ * @param <F> The type of a batch item failure
+ */
+public final class BatchItemResults<F> {
+    private final AtomicReferenceArray<F> failures;
+
+    public BatchItemResults(int batchSize) {
+        this.failures = new AtomicReferenceArray<>(batchSize);
+    }
+
+    /**
+     * Records the failure of the record at the given position in the batch.
+     */
+    public void setFailure(int position, F failure) {
+        failures.set(position, failure);
+    }
+
+    /**
+     * @return the failure recorded for the record at the given position in the batch, or null if none
+     */
+    public F getFailure(int position) {
+        return failures.get(position);
+    }
+
+    /**
+     * @return the failures recorded so far, in the order of the records in the batch
+     */
+    public List<F> getFailures() {
+        List<F> batchItemFailures = new ArrayList<>();
+        for (int i = 0; i < failures.length(); i++) {
+            F failure = failures.get(i);
+            if (failure != null) {
+                batchItemFailures.add(failure);
+            }
+        }
+        return batchItemFailures;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link Executor} that runs each task on its own virtual thread when the runtime supports them (Java 21+),
+ * and on a fixed pool of daemon platform threads otherwise. In both cases, at most {@code maxConcurrency} tasks
+ * are in flight at any time: {@link #execute(Runnable)} blocks the submitting thread until a slot is free.
+ * <p>
+ * Reflection is used to create the virtual thread executor as the library is compiled for Java 11.
+ */
+public final class BoundedExecutor implements Executor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedExecutor.class);
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR_METHOD;
+
+    // Detect exactly once if virtual threads are available, like we do for X-Ray in XRayTraceEntityPropagator
+    static {
+        Method method = null;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            LOGGER.debug("Virtual threads detected. Bounded parallel processing will use virtual threads.");
+        } catch (NoSuchMethodException e) {
+            LOGGER.debug("Virtual threads not available. Bounded parallel processing will use a thread pool.");
+        }
+        NEW_VIRTUAL_THREAD_EXECUTOR_METHOD = method;
+    }
+
+    private final Executor delegate;
+    private final Semaphore inFlight;
+
+    private BoundedExecutor(Executor delegate, int maxConcurrency) {
+        this.delegate = delegate;
+        this.inFlight = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Creates a new executor running at most {@code maxConcurrency} tasks at the same time.
+     *
+     * @param maxConcurrency the maximum number of tasks in flight
+     * @return a new executor
+     */
+    public static BoundedExecutor create(int maxConcurrency) {
+        Executor virtualThreadExecutor = newVirtualThreadExecutor();
+        if (virtualThreadExecutor != null) {
+            return new BoundedExecutor(virtualThreadExecutor, maxConcurrency);
+        }
+        return createOnPlatformThreads(maxConcurrency);
+    }
+
+    /**
+     * Creates a new executor running at most {@code maxConcurrency} tasks at the same time on a fixed pool of daemon
+     * platform threads, even when the runtime supports virtual threads.
+     *
+     * @param maxConcurrency the maximum number of tasks in flight
+     * @return a new executor
+     */
+    public static BoundedExecutor createOnPlatformThreads(int maxConcurrency) {
+        return new BoundedExecutor(Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory()),
+                maxConcurrency);
+    }
+
+    /**
+     * Creates a view of the given executor running at most {@code maxConcurrency} tasks at the same time.
+     *
+     * @param delegate       the executor running the tasks
+     * @param maxConcurrency the maximum number of tasks in flight
+     * @return a new executor
+     */
+    public static BoundedExecutor limit(Executor delegate, int maxConcurrency) {
+        return new BoundedExecutor(delegate, maxConcurrency);
+    }
+
+    private static Executor newVirtualThreadExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR_METHOD == null) {
+            return null;
+        }
+        try {
+            return (Executor) NEW_VIRTUAL_THREAD_EXECUTOR_METHOD.invoke(null);
+        } catch (Exception e) {
+            // We don't want to break batch processing if this fails.
+            LOGGER.warn("Failed to create virtual thread executor, falling back to a thread pool.", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        inFlight.acquireUninterruptibly();
+        try {
+            delegate.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    // Daemon threads so that an idle pool never keeps the execution environment from shutting down
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "powertools-batch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
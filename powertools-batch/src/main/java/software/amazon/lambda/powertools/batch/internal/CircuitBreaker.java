@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.lambda.powertools.batch.handler.BatchProcessingOptions;
+
+/**
+ * Trips when the records of a batch keep failing, so that the remaining records are failed without being processed.
+ * It opens after a number of consecutive failures, or once the failure rate reaches a threshold over a minimum
+ * number of records, and stays open until the end of the batch.
+ * <p>
+ * A circuit breaker is created for each batch, and told the outcome of each of its records. Consecutive failures
+ * are only counted when the records are processed one after the other: processed in parallel, or with an async
+ * message handler, records complete out of order, and only the failure rate applies.
+ */
+public final class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    // The circuit breaker of the batches processed without one: it never trips
+    private static final CircuitBreaker DISABLED = new CircuitBreaker(0, 0, 0);
+
+    private final int consecutiveFailuresThreshold;
+    private final double failureRateThreshold;
+    private final int minimumRecords;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile boolean open;
+
+    private CircuitBreaker(int consecutiveFailuresThreshold, double failureRateThreshold, int minimumRecords) {
+        this.consecutiveFailuresThreshold = consecutiveFailuresThreshold;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumRecords = minimumRecords;
+    }
+
+    /**
+     * @param options    The processing options of the batch handler
+     * @param sequential Whether the records of the batch are processed one after the other, in order
+     * @return a new circuit breaker for a batch, or one that never trips if no circuit breaker is configured
+     */
+    public static CircuitBreaker forBatch(BatchProcessingOptions options, boolean sequential) {
+        if (!options.isCircuitBreakerEnabled()) {
+            return DISABLED;
+        }
+        return new CircuitBreaker(sequential ? options.getCircuitBreakerConsecutiveFailures() : 0,
+                options.getCircuitBreakerFailureRate(), options.getCircuitBreakerMinimumRecords());
+    }
+
+    /**
+     * @return whether the circuit breaker tripped
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Records the outcome of a record of the batch.
+     *
+     * @param success Whether the record was processed successfully
+     */
+    public void recordProcessed(boolean success) {
+        if (this == DISABLED) {
+            return;
+        }
+        int processedRecords = processed.incrementAndGet();
+        if (success) {
+            consecutiveFailures.set(0);
+            return;
+        }
+        int consecutive = consecutiveFailures.incrementAndGet();
+        int failedRecords = failed.incrementAndGet();
+        if (open) {
+            return;
+        }
+        if (consecutiveFailuresThreshold > 0 && consecutive >= consecutiveFailuresThreshold) {
+            trip(consecutive + " consecutive records failed");
+        } else if (failureRateThreshold > 0 && processedRecords >= minimumRecords
+                && failedRecords >= failureRateThreshold * processedRecords) {
+            trip(failedRecords + " records failed out of " + processedRecords);
+        }
+    }
+
+    private void trip(String reason) {
+        open = true;
+        LOGGER.warn("Circuit breaker tripped: {}, failing the remaining records of the batch", reason);
+    }
+}
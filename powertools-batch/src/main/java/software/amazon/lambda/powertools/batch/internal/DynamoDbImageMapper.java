@@ -0,0 +1,339 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.internal;
+
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import software.amazon.lambda.powertools.utilities.EventDeserializationException;
+
+/**
+ * Maps the DynamoDB images of stream records ({@code Keys}, {@code NewImage} and {@code OldImage}) to instances of a
+ * user-defined class, without going through JSON.
+ * <p>
+ * The bindings of the attributes to the fields of the class, and the conversion of each attribute to the type of its
+ * field, are resolved once per class, when the mapper is created; mapping an image then only instantiates the class
+ * and sets its fields. An attribute is bound to the field of the same name, ignoring case, or to the field annotated
+ * with {@code @JsonProperty} of that name. Static, transient and {@code @JsonIgnore} fields are not bound, and
+ * attributes without a field are skipped.
+ * <p>
+ * The class needs a constructor without arguments. Fields can be strings, numbers, booleans, enums,
+ * {@code ByteBuffer} or {@code byte[]}, collections and string-keyed maps of those, other classes mapped the same
+ * way, or {@code Object} for the natural Java representation of the attribute. Fields of other types, such as other
+ * arrays or {@code char}, are rejected when the mapper is created.
+ *
+ * @param <M> The user-defined type of the images
+ */
+public final class DynamoDbImageMapper<M> {
+    private static final Map<Class<?>, DynamoDbImageMapper<?>> MAPPERS = new ConcurrentHashMap<>();
+    // Converters of maps and lists to their natural Java representation, for Object fields
+    private static final Function<AttributeValue, Object> NATURAL_MAP = converterFor(Map.class);
+    private static final Function<AttributeValue, Object> NATURAL_LIST = converterFor(List.class);
+
+    private final Class<M> imageClass;
+    private final Constructor<M> constructor;
+    private final Map<String, Binding> bindings = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private DynamoDbImageMapper(Class<M> imageClass) {
+        this.imageClass = imageClass;
+        try {
+            this.constructor = imageClass.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(imageClass.getName() + " has no constructor without arguments", e);
+        }
+        for (Class<?> c = imageClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+                        || field.isSynthetic() || field.isAnnotationPresent(JsonIgnore.class)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                Function<AttributeValue, Object> converter;
+                try {
+                    converter = converterFor(field.getGenericType());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Field " + field.getName() + " of " + imageClass.getName()
+                            + " cannot be mapped: " + e.getMessage(), e);
+                }
+                // Fields of subclasses hide the fields of the same name of their superclasses
+                bindings.putIfAbsent(attributeName(field), new Binding(field, converter));
+            }
+        }
+    }
+
+    /**
+     * Returns the mapper of the given class, creating it on first use.
+     *
+     * @param imageClass The user-defined class of the images
+     * @return the mapper of the given class
+     * @throws IllegalArgumentException if the class has no constructor without arguments, or a field of an
+     *                                  unsupported type
+     */
+    @SuppressWarnings("unchecked")
+    public static <M> DynamoDbImageMapper<M> forClass(Class<M> imageClass) {
+        // Mappers of nested classes are resolved lazily, so that creating a mapper never recurses into the cache
+        return (DynamoDbImageMapper<M>) MAPPERS.computeIfAbsent(imageClass, DynamoDbImageMapper::new);
+    }
+
+    /**
+     * Maps an image to a new instance of the user-defined class.
+     *
+     * @param image The attributes of the image
+     * @return the mapped image, or null if the image is null
+     * @throws EventDeserializationException if an attribute cannot be converted to the type of its field
+     */
+    public M map(Map<String, AttributeValue> image) {
+        if (image == null) {
+            return null;
+        }
+        try {
+            M instance = constructor.newInstance();
+            for (Map.Entry<String, AttributeValue> attribute : image.entrySet()) {
+                Binding binding = bindings.get(attribute.getKey());
+                if (binding != null) {
+                    binding.set(instance, attribute.getValue());
+                }
+            }
+            return instance;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new EventDeserializationException("Cannot map the image as " + imageClass.getSimpleName(), e);
+        }
+    }
+
+    private static String attributeName(Field field) {
+        JsonProperty property = field.getAnnotation(JsonProperty.class);
+        if (property != null && !property.value().isEmpty()) {
+            return property.value();
+        }
+        return field.getName();
+    }
+
+    private static Function<AttributeValue, Object> converterFor(Type type) {
+        Class<?> rawClass = rawClass(type);
+        Function<String, Object> scalarParser = scalarParser(rawClass);
+        if (scalarParser != null) {
+            return value -> {
+                String text = value.getS() != null ? value.getS() : value.getN();
+                return text != null ? scalarParser.apply(text) : null;
+            };
+        }
+        if (rawClass == boolean.class || rawClass == Boolean.class) {
+            return AttributeValue::getBOOL;
+        }
+        if (rawClass == ByteBuffer.class || rawClass == byte[].class) {
+            Function<ByteBuffer, Object> bytesConverter = bytesConverter(rawClass);
+            return value -> value.getB() != null ? bytesConverter.apply(value.getB()) : null;
+        }
+        if (Collection.class.isAssignableFrom(rawClass)) {
+            return collectionConverter(rawClass, typeArgument(type, 0));
+        }
+        if (Map.class.isAssignableFrom(rawClass)) {
+            Function<AttributeValue, Object> valueConverter = converterFor(typeArgument(type, 1));
+            return value -> {
+                if (value.getM() == null) {
+                    return null;
+                }
+                Map<String, Object> map = new LinkedHashMap<>();
+                value.getM().forEach((key, entry) -> map.put(key, convert(valueConverter, entry)));
+                return map;
+            };
+        }
+        if (type instanceof GenericArrayType || rawClass.isArray() || rawClass.isPrimitive()
+                || rawClass == Character.class) {
+            // Not a class mapped as a nested image either, which would only fail when an image is mapped
+            throw new IllegalArgumentException(type.getTypeName() + " is not supported");
+        }
+        if (rawClass == Object.class) {
+            return DynamoDbImageMapper::naturalValue;
+        }
+        Supplier<DynamoDbImageMapper<?>> nestedMapper = new LazyMapper(rawClass);
+        return value -> nestedMapper.get().map(value.getM());
+    }
+
+    // Converts the elements of string, number and binary sets, and of lists
+    private static Function<AttributeValue, Object> collectionConverter(Class<?> collectionClass, Type elementType) {
+        Class<?> elementClass = rawClass(elementType);
+        Function<String, Object> scalarParser = scalarParser(elementClass);
+        Function<ByteBuffer, Object> bytesConverter = bytesConverter(elementClass);
+        Function<AttributeValue, Object> elementConverter = converterFor(elementType);
+        boolean isSet = Set.class.isAssignableFrom(collectionClass);
+        return value -> {
+            List<String> strings = value.getSS() != null ? value.getSS() : value.getNS();
+            Collection<Object> collection;
+            if (strings != null) {
+                collection = newCollection(isSet, strings.size());
+                for (String string : strings) {
+                    collection.add(scalarParser != null ? scalarParser.apply(string) : string);
+                }
+            } else if (value.getBS() != null) {
+                collection = newCollection(isSet, value.getBS().size());
+                for (ByteBuffer bytes : value.getBS()) {
+                    collection.add(bytesConverter.apply(bytes));
+                }
+            } else if (value.getL() != null) {
+                collection = newCollection(isSet, value.getL().size());
+                for (AttributeValue element : value.getL()) {
+                    collection.add(convert(elementConverter, element));
+                }
+            } else {
+                return null;
+            }
+            return collection;
+        };
+    }
+
+    private static Collection<Object> newCollection(boolean isSet, int size) {
+        return isSet ? new LinkedHashSet<>(size * 4 / 3 + 1) : new ArrayList<>(size);
+    }
+
+    // Parses strings and numbers, or returns null if the class is not a scalar
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Function<String, Object> scalarParser(Class<?> rawClass) {
+        if (rawClass == String.class) {
+            return text -> text;
+        } else if (rawClass == int.class || rawClass == Integer.class) {
+            return Integer::valueOf;
+        } else if (rawClass == long.class || rawClass == Long.class) {
+            return Long::valueOf;
+        } else if (rawClass == double.class || rawClass == Double.class) {
+            return Double::valueOf;
+        } else if (rawClass == float.class || rawClass == Float.class) {
+            return Float::valueOf;
+        } else if (rawClass == short.class || rawClass == Short.class) {
+            return Short::valueOf;
+        } else if (rawClass == byte.class || rawClass == Byte.class) {
+            return Byte::valueOf;
+        } else if (rawClass == BigDecimal.class) {
+            return BigDecimal::new;
+        } else if (rawClass == BigInteger.class) {
+            return BigInteger::new;
+        } else if (rawClass.isEnum()) {
+            return text -> Enum.valueOf((Class<? extends Enum>) rawClass, text);
+        }
+        return null;
+    }
+
+    private static Function<ByteBuffer, Object> bytesConverter(Class<?> rawClass) {
+        if (rawClass == byte[].class) {
+            return bytes -> {
+                byte[] array = new byte[bytes.remaining()];
+                bytes.duplicate().get(array);
+                return array;
+            };
+        }
+        return ByteBuffer::duplicate;
+    }
+
+    private static Object convert(Function<AttributeValue, Object> converter, AttributeValue value) {
+        if (value == null || Boolean.TRUE.equals(value.getNULL())) {
+            return null;
+        }
+        return converter.apply(value);
+    }
+
+    private static Object naturalValue(AttributeValue value) {
+        if (value.getS() != null) {
+            return value.getS();
+        } else if (value.getN() != null) {
+            return new BigDecimal(value.getN());
+        } else if (value.getBOOL() != null) {
+            return value.getBOOL();
+        } else if (value.getB() != null) {
+            return value.getB().duplicate();
+        }
+        return value.getM() != null ? NATURAL_MAP.apply(value) : NATURAL_LIST.apply(value);
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        } else if (type instanceof WildcardType) {
+            return rawClass(((WildcardType) type).getUpperBounds()[0]);
+        }
+        // Type variables and generic arrays
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static final class Binding {
+        private final Field field;
+        private final Function<AttributeValue, Object> converter;
+
+        private Binding(Field field, Function<AttributeValue, Object> converter) {
+            this.field = field;
+            this.converter = converter;
+        }
+
+        private void set(Object instance, AttributeValue value) throws IllegalAccessException {
+            Object converted = convert(converter, value);
+            // Primitive fields keep their default value when the attribute is null
+            if (converted != null || !field.getType().isPrimitive()) {
+                field.set(instance, converted);
+            }
+        }
+    }
+
+    private static final class LazyMapper implements Supplier<DynamoDbImageMapper<?>> {
+        private final Class<?> imageClass;
+        private volatile DynamoDbImageMapper<?> mapper;
+
+        private LazyMapper(Class<?> imageClass) {
+            this.imageClass = imageClass;
+        }
+
+        @Override
+        public DynamoDbImageMapper<?> get() {
+            DynamoDbImageMapper<?> resolved = mapper;
+            if (resolved == null) {
+                resolved = forClass(imageClass);
+                mapper = resolved;
+            }
+            return resolved;
+        }
+    }
+}
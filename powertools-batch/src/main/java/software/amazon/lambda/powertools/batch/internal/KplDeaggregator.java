@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.internal;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits Kinesis records aggregated by the Kinesis Producer Library (KPL) into their user records.
+ * <p>
+ * An aggregated record is made of a 4 bytes magic number, an {@code AggregatedRecord} protobuf message, and the MD5
+ * digest of that message. Only the data of the user records is extracted: the partition keys, explicit hash keys
+ * and tags are skipped. The data of each user record is a view of the buffer of the Kinesis record, sharing its
+ * content, so that no payload is copied.
+ * <p>
+ * Like the Kinesis Client Library, a record not starting with the magic number, or whose digest does not match, is
+ * not aggregated, and is returned as a single user record.
+ *
+ * @see <a href="https://github.com/awslabs/amazon-kinesis-producer/blob/master/aggregation-format.md">KPL aggregation format</a>
+ */
+public final class KplDeaggregator {
+
+    private static final byte[] MAGIC = {(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+    private static final int DIGEST_LENGTH = 16;
+
+    // Fields of the AggregatedRecord and Record protobuf messages
+    private static final int AGGREGATED_RECORD_RECORDS_FIELD = 3;
+    private static final int RECORD_DATA_FIELD = 3;
+
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_FIXED64 = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_TYPE_FIXED32 = 5;
+
+    private KplDeaggregator() {
+        // Utility class
+    }
+
+    /**
+     * Extracts the data of the user records of the given Kinesis record data. The position of the buffer is left
+     * untouched.
+     *
+     * @param data The data of a Kinesis record
+     * @return the data of each user record, in order, or the given data alone if it is not aggregated
+     * @throws IllegalArgumentException if the record is aggregated but its protobuf message is malformed
+     */
+    public static List<ByteBuffer> deaggregate(ByteBuffer data) {
+        if (!isAggregated(data)) {
+            return Collections.singletonList(data.duplicate());
+        }
+
+        ByteBuffer message = data.duplicate();
+        message.position(message.position() + MAGIC.length);
+        message.limit(message.limit() - DIGEST_LENGTH);
+
+        List<ByteBuffer> userRecords = new ArrayList<>();
+        while (message.hasRemaining()) {
+            int tag = readVarint32(message);
+            if (tag >>> 3 == AGGREGATED_RECORD_RECORDS_FIELD && (tag & 0x7) == WIRE_TYPE_LENGTH_DELIMITED) {
+                userRecords.add(readUserRecordData(readLengthDelimited(message)));
+            } else {
+                skipField(message, tag & 0x7);
+            }
+        }
+        return userRecords;
+    }
+
+    // Whether the data starts with the magic number and ends with the MD5 digest of the message in between
+    private static boolean isAggregated(ByteBuffer data) {
+        if (data.remaining() < MAGIC.length + DIGEST_LENGTH) {
+            return false;
+        }
+        int start = data.position();
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(start + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+
+        ByteBuffer message = data.duplicate();
+        message.position(start + MAGIC.length);
+        message.limit(data.limit() - DIGEST_LENGTH);
+        MessageDigest md5 = newMd5();
+        md5.update(message);
+        byte[] digest = md5.digest();
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (data.get(data.limit() - DIGEST_LENGTH + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer readUserRecordData(ByteBuffer record) {
+        ByteBuffer recordData = null;
+        while (record.hasRemaining()) {
+            int tag = readVarint32(record);
+            if (tag >>> 3 == RECORD_DATA_FIELD && (tag & 0x7) == WIRE_TYPE_LENGTH_DELIMITED) {
+                recordData = readLengthDelimited(record);
+            } else {
+                skipField(record, tag & 0x7);
+            }
+        }
+        if (recordData == null) {
+            throw new IllegalArgumentException("Malformed KPL aggregated record: user record without data");
+        }
+        return recordData;
+    }
+
+    // Returns a view of the next length-delimited field, and moves the buffer past it
+    private static ByteBuffer readLengthDelimited(ByteBuffer buffer) {
+        long length = readVarint64(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed KPL aggregated record: truncated field");
+        }
+        ByteBuffer field = buffer.slice();
+        field.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return field;
+    }
+
+    private static void skipField(ByteBuffer buffer, int wireType) {
+        switch (wireType) {
+            case WIRE_TYPE_VARINT:
+                readVarint64(buffer);
+                break;
+            case WIRE_TYPE_FIXED64:
+                skip(buffer, 8);
+                break;
+            case WIRE_TYPE_LENGTH_DELIMITED:
+                readLengthDelimited(buffer);
+                break;
+            case WIRE_TYPE_FIXED32:
+                skip(buffer, 4);
+                break;
+            default:
+                throw new IllegalArgumentException("Malformed KPL aggregated record: unsupported wire type "
+                        + wireType);
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Malformed KPL aggregated record: truncated field");
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    private static int readVarint32(ByteBuffer buffer) {
+        long value = readVarint64(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Malformed KPL aggregated record: invalid field tag");
+        }
+        return (int) value;
+    }
+
+    private static long readVarint64(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Malformed KPL aggregated record: truncated varint");
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed KPL aggregated record: varint too long");
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
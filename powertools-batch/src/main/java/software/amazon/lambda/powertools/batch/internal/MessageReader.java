@@ -0,0 +1,161 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import software.amazon.lambda.powertools.utilities.EventDeserializationException;
+import software.amazon.lambda.powertools.utilities.JsonConfig;
+
+/**
+ * Deserializes the messages of a batch into the user-defined message class. The Jackson reader specialized to the
+ * class is resolved once, when the handler is built, and shared by all the threads processing the batch, instead
+ * of being looked up for every record.
+ * <p>
+ * There is a single reader per message class, shared by all the handlers built for it. It is registered once to be
+ * primed before a CRaC checkpoint, so that the deserializer of the message class is already built when the function
+ * is restored.
+ *
+ * @param <M> The user-defined type of the message
+ */
+public final class MessageReader<M> implements Resource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageReader.class);
+
+    private static final Map<Class<?>, MessageReader<?>> READERS = new ConcurrentHashMap<>();
+
+    private final Class<M> messageClass;
+    private final ObjectReader reader;
+
+    private MessageReader(Class<M> messageClass) {
+        this.messageClass = messageClass;
+        this.reader = JsonConfig.get().getReader(messageClass);
+    }
+
+    /**
+     * Returns the reader of the given message class, creating it and registering it for priming the first time.
+     *
+     * @param messageClass The user-defined class of the messages
+     * @return the reader shared by all the handlers of this message class
+     */
+    @SuppressWarnings("unchecked")
+    public static <M> MessageReader<M> of(Class<M> messageClass) {
+        return (MessageReader<M>) READERS.computeIfAbsent(messageClass, clazz -> {
+            MessageReader<M> messageReader = new MessageReader<>(messageClass);
+            Core.getGlobalContext().register(messageReader);
+            return messageReader;
+        });
+    }
+
+    /**
+     * Deserializes a message from its JSON text, or returns the text itself if the message class is String.
+     *
+     * @param content The JSON text of the message
+     * @return the deserialized message
+     */
+    @SuppressWarnings("unchecked")
+    public M read(String content) {
+        if (content == null) {
+            // should not occur, except if the event is malformed (missing fields)
+            throw new IllegalStateException("Event content is null: the event may be malformed (missing fields)");
+        }
+        if (messageClass == String.class) {
+            // do not read json when returning String, just return the String
+            return (M) content;
+        }
+        try {
+            return reader.readValue(content);
+        } catch (IOException e) {
+            throw new EventDeserializationException("Cannot load the event as " + messageClass.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Deserializes a message from its UTF-8 encoded JSON bytes, without decoding them into a String first. The
+     * position of the buffer is left untouched.
+     *
+     * @param data The UTF-8 encoded JSON bytes of the message
+     * @return the deserialized message
+     */
+    @SuppressWarnings("unchecked")
+    public M read(ByteBuffer data) {
+        if (data == null) {
+            // should not occur, except if the event is malformed (missing fields)
+            throw new IllegalStateException("Event content is null: the event may be malformed (missing fields)");
+        }
+        if (messageClass == String.class) {
+            return (M) UTF_8.decode(data.duplicate()).toString();
+        }
+        try {
+            if (data.hasArray()) {
+                return reader.readValue(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            }
+            return reader.readValue(new ByteBufferBackedInputStream(data.duplicate()));
+        } catch (IOException e) {
+            throw new EventDeserializationException("Cannot load the event as " + messageClass.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Deserializes a message already parsed as a JSON tree, without parsing its text again.
+     *
+     * @param tree The JSON tree of the message
+     * @param text The JSON text of the message if known, returned as is if the message class is String
+     * @return the deserialized message
+     */
+    @SuppressWarnings("unchecked")
+    public M read(JsonNode tree, String text) {
+        if (messageClass == String.class) {
+            return (M) (text != null ? text : tree.toString());
+        }
+        try {
+            return reader.readValue(tree);
+        } catch (IOException e) {
+            throw new EventDeserializationException("Cannot load the event as " + messageClass.getSimpleName(), e);
+        }
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) throws Exception {
+        if (messageClass == String.class) {
+            return;
+        }
+        try {
+            // Builds and caches the deserializer of the message class, whatever the content of the message
+            reader.readValue("{}");
+        } catch (IOException e) {
+            LOGGER.debug("Priming the reader of {} failed", messageClass.getName(), e);
+        }
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) throws Exception {
+        // No action needed after restore
+    }
+}
@@ -14,41 +14,43 @@
 
 package software.amazon.lambda.powertools.batch.internal;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
 /**
  * MDC (SLF4J) is not passed to other threads (ThreadLocal).
- * This class permits to manually copy the MDC to a given thread.
+ * This class captures the MDC of the thread creating it, and permits to run tasks with it on any thread.
+ * Each task installs the captured MDC and restores the MDC the thread had before, so no state is shared
+ * between threads and it is safe to use from any number of threads at the same time.
  */
 public class MultiThreadMDC {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(MultiThreadMDC.class);
-
-    private final List<String> mdcAwareThreads = new ArrayList<>();
     private final Map<String, String> contextMap;
-    
+
     public MultiThreadMDC() {
-        mdcAwareThreads.add("main");
         contextMap = MDC.getCopyOfContextMap();
     }
-    
-    public void copyMDCToThread(String thread) {
-        if (!mdcAwareThreads.contains(thread)) {
-            LOGGER.debug("Copy MDC to thread {}", thread);
-            MDC.setContextMap(contextMap);
-            mdcAwareThreads.add(thread);
+
+    /**
+     * Runs the given task on the current thread with the captured MDC.
+     *
+     * @param task the task to run
+     */
+    public void runWithMDC(Runnable task) {
+        Map<String, String> previous = MDC.getCopyOfContextMap();
+        setContextMap(contextMap);
+        try {
+            task.run();
+        } finally {
+            setContextMap(previous);
         }
     }
 
-    public void removeThread(String thread) {
-        if (mdcAwareThreads.contains(thread)) {
-            LOGGER.debug("Removing thread {}", thread);
-            mdcAwareThreads.remove(thread);
+    private static void setContextMap(Map<String, String> contextMap) {
+        if (contextMap == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(contextMap);
         }
     }
 }
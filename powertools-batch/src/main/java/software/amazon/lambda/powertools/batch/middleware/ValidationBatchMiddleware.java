@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.middleware;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.networknt.schema.JsonSchema;
+
+import software.amazon.lambda.powertools.batch.handler.BatchMiddleware;
+import software.amazon.lambda.powertools.batch.handler.BatchRecord;
+import software.amazon.lambda.powertools.validation.ValidationException;
+import software.amazon.lambda.powertools.validation.ValidationUtils;
+
+/**
+ * A {@link BatchMiddleware} validating the body of each record against a JSON schema, using Powertools for AWS
+ * Lambda (Java) Validation. The body is validated as the JSON tree shared by the stages, so that the message handler
+ * deserializes the message without parsing the body again. A record that does not match the schema fails with a
+ * {@link ValidationException}, and is not handed to the next stages.
+ * <p>
+ * This requires the {@code powertools-validation} dependency.
+ *
+ * @param <T> The type of the records of the batch
+ */
+public class ValidationBatchMiddleware<T> implements BatchMiddleware<T> {
+    private final JsonSchema jsonSchema;
+
+    /**
+     * Validates the records against the given schema.
+     *
+     * @param jsonSchema Either the schema itself, or the path of a schema in the classpath:
+     *                   "classpath:/path/to/schema.json"
+     */
+    public ValidationBatchMiddleware(String jsonSchema) {
+        this(ValidationUtils.getJsonSchema(jsonSchema));
+    }
+
+    /**
+     * Validates the records against the given schema.
+     *
+     * @param jsonSchema The schema of the records
+     */
+    public ValidationBatchMiddleware(JsonSchema jsonSchema) {
+        this.jsonSchema = jsonSchema;
+    }
+
+    @Override
+    public void handle(BatchRecord<T> record, Context context, Runnable next) {
+        ValidationUtils.validate(record.getJson(), jsonSchema);
+        next.run();
+    }
+}
@@ -23,6 +23,7 @@ import com.amazonaws.services.lambda.runtime.tests.annotations.Event;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -33,6 +34,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.mockito.Mock;
 import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.DynamoDbStreamChange;
 
 class DdbBatchProcessorTest {
 
@@ -238,4 +240,105 @@ class DdbBatchProcessorTest {
         assertThat(threadList).hasSizeGreaterThan(1);
     }
 
+    @ParameterizedTest
+    @Event(value = "dynamo_event_partitions.json", type = DynamodbEvent.class)
+    void parallelBatchProcessingWithPartitionKeyOrdering_shouldReportLowestFailedSequenceNumber(DynamodbEvent event) {
+        // Arrange
+        List<String> processedRecords = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<DynamodbEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withDynamoDbBatchHandler()
+                .withPartitionKeyOrdering()
+                .buildWithRawMessageHandler((record, context) -> {
+                    String sequenceNumber = record.getDynamodb().getSequenceNumber();
+                    processedRecords.add(sequenceNumber);
+                    if (sequenceNumber.equals("4421584500000000017450439103")
+                            || sequenceNumber.equals("4421584500000000017450439102")) {
+                        throw new RuntimeException("fake exception");
+                    }
+                });
+
+        // Act
+        StreamsEventResponse dynamodbBatchResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(dynamodbBatchResponse.getBatchItemFailures()).hasSize(1);
+        assertThat(dynamodbBatchResponse.getBatchItemFailures().get(0).getItemIdentifier())
+                .isEqualTo("4421584500000000017450439102");
+        assertThat(processedRecords).containsExactlyInAnyOrder(
+                "4421584500000000017450439101",
+                "4421584500000000017450439102",
+                "4421584500000000017450439103",
+                "4421584500000000017450439104");
+    }
+
+    @ParameterizedTest
+    @Event(value = "dynamo_event.json", type = DynamodbEvent.class)
+    void asyncBatchProcessing_shouldAddMessageToBatchFailure_whenFutureFails(DynamodbEvent event) {
+        // Arrange
+        BatchMessageHandler<DynamodbEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withDynamoDbBatchHandler()
+                .buildWithAsyncRawMessageHandler((record, context) -> CompletableFuture.runAsync(
+                        () -> processMessageFailsForFixedMessage(record, context)));
+
+        // Act
+        StreamsEventResponse dynamodbBatchResponse = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(dynamodbBatchResponse.getBatchItemFailures()).hasSize(1);
+        StreamsEventResponse.BatchItemFailure batchItemFailure = dynamodbBatchResponse.getBatchItemFailures().get(0);
+        assertThat(batchItemFailure.getItemIdentifier()).isEqualTo("4421584500000000017450439091");
+    }
+
+    @ParameterizedTest
+    @Event(value = "dynamo_event.json", type = DynamodbEvent.class)
+    void changeHandler_shouldMapImagesOfEachChange(DynamodbEvent event) {
+        // Arrange
+        List<String> changes = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<DynamodbEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withDynamoDbBatchHandler()
+                .buildWithChangeHandler((DynamoDbStreamChange<Item> change) -> changes.add(change.getEventName()
+                        + " " + describe(change.getOldImage()) + " -> " + describe(change.getNewImage())
+                        + " (" + change.getKeys().id + ")"), Item.class);
+
+        // Act
+        StreamsEventResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).isEmpty();
+        assertThat(changes).containsExactly(
+                "INSERT null -> 101: New item! (101)",
+                "MODIFY 101: New item! -> 101: This item has changed (101)",
+                "REMOVE 101: This item has changed -> null (101)");
+    }
+
+    @ParameterizedTest
+    @Event(value = "dynamo_event.json", type = DynamodbEvent.class)
+    void batchProcessingWithMiddleware_shouldFailRecordsWhoseBodyIsReplaced(DynamodbEvent event) {
+        // Arrange
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<DynamodbEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withDynamoDbBatchHandler()
+                .withMiddleware((record, context, next) -> {
+                    // stream records have no body to replace
+                    record.setBody("{}");
+                    next.run();
+                })
+                .buildWithRawMessageHandler(record -> processed.add(record.getEventID()));
+
+        // Act
+        StreamsEventResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).hasSize(event.getRecords().size());
+        assertThat(processed).isEmpty();
+    }
+
+    private static String describe(Item item) {
+        return item != null ? item.id + ": " + item.message : null;
+    }
+
+    static class Item {
+        private long id;
+        private String message;
+    }
 }
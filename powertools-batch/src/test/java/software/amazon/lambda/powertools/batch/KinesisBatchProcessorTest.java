@@ -15,14 +15,22 @@
 package software.amazon.lambda.powertools.batch;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.KinesisEvent;
 import com.amazonaws.services.lambda.runtime.events.StreamsEventResponse;
 import com.amazonaws.services.lambda.runtime.tests.annotations.Event;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -30,12 +38,20 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.mockito.Mock;
+import software.amazon.lambda.powertools.batch.builder.KinesisBatchMessageHandlerBuilder;
 import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.RetryPolicy;
 import software.amazon.lambda.powertools.batch.model.Product;
 
 class KinesisBatchProcessorTest {
+    // A KPL aggregated record of the products 5, 1234 and 6
+    private static final String KPL_RECORD =
+            "84mawgoMcGFydGl0aW9uS2V5GigIABokeyJpZCI6NSwibmFtZSI6InByb2R1Y3Q1IiwicHJpY2UiOjV9GisIABoneyJpZCI6"
+                    + "MTIzNCwibmFtZSI6InByb2R1Y3QiLCJwcmljZSI6NDJ9GigIABokeyJpZCI6NiwibmFtZSI6InByb2R1Y3Q2IiwicHJp"
+                    + "Y2UiOjZ9A6jwfE2bfP8qJf24pqyoVA==";
 
     @Mock
     private Context context;
@@ -268,4 +284,233 @@ class KinesisBatchProcessorTest {
         assertThat(threadList).hasSizeGreaterThan(1);
     }
 
+    @ParameterizedTest
+    @Event(value = "kinesis_event_partitions.json", type = KinesisEvent.class)
+    void batchProcessingInParallelWithPartitionKeyOrdering_shouldReportLowestFailedSequenceNumber(KinesisEvent event) {
+        // Arrange
+        List<String> processedRecords = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withPartitionKeyOrdering()
+                .buildWithRawMessageHandler((record, context) -> {
+                    String sequenceNumber = record.getKinesis().getSequenceNumber();
+                    processedRecords.add(sequenceNumber);
+                    if (sequenceNumber.endsWith("1003") || sequenceNumber.endsWith("1005")) {
+                        throw new RuntimeException("fake exception");
+                    }
+                });
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(kinesisBatchResponse.getBatchItemFailures()).hasSize(1);
+        assertThat(kinesisBatchResponse.getBatchItemFailures().get(0).getItemIdentifier()).isEqualTo(
+                "49545115243490985018280067714973144582180062593244201003");
+        // The records following a failure in the same partition are not processed, the others are
+        assertThat(processedRecords).hasSize(5).noneMatch(s -> s.endsWith("1006") || s.endsWith("1007"));
+        assertThat(processedRecords).containsSubsequence(
+                "49545115243490985018280067714973144582180062593244201001",
+                "49545115243490985018280067714973144582180062593244201003");
+        assertThat(processedRecords).containsSubsequence(
+                "49545115243490985018280067714973144582180062593244201002",
+                "49545115243490985018280067714973144582180062593244201005");
+    }
+
+    @ParameterizedTest
+    @Event(value = "kinesis_event_partitions.json", type = KinesisEvent.class)
+    void batchProcessingInParallelWithPartitionKeyOrderingAndExecutor_shouldReportLowestFailedSequenceNumber(
+            KinesisEvent event) {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withPartitionKeyOrdering()
+                .buildWithRawMessageHandler((record, context) -> {
+                    if (record.getKinesis().getSequenceNumber().endsWith("1005")) {
+                        throw new RuntimeException("fake exception");
+                    }
+                });
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatchInParallel(event, context, executor);
+        executor.shutdown();
+
+        // Assert
+        assertThat(kinesisBatchResponse.getBatchItemFailures()).hasSize(1);
+        assertThat(kinesisBatchResponse.getBatchItemFailures().get(0).getItemIdentifier()).isEqualTo(
+                "49545115243490985018280067714973144582180062593244201005");
+    }
+
+    @ParameterizedTest
+    @Event(value = "kinesis_event.json", type = KinesisEvent.class)
+    void batchProcessingWithKplDeaggregation_shouldHandleUserRecordsAndFailParentRecord(KinesisEvent event) {
+        // Arrange - the second record aggregates the products 5, 1234 and 6
+        event.getRecords().get(1).getKinesis().setData(ByteBuffer.wrap(Base64.getDecoder().decode(KPL_RECORD)));
+        List<Long> processedProducts = new ArrayList<>();
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withKplDeaggregation()
+                .buildWithMessageHandler((Product product, Context context) -> {
+                    processedProducts.add(product.getId());
+                    processMessageFailsForFixedProduct(product, context);
+                }, Product.class);
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatch(event, context);
+
+        // Assert - the user records after the failed one are not processed
+        assertThat(processedProducts).containsExactly(1234L, 5L, 1234L);
+        assertThat(kinesisBatchResponse.getBatchItemFailures())
+                .extracting(StreamsEventResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("49545115243490985018280067714973144582180062593244200961",
+                        "49545115243490985018280067714973144582180062593244200962");
+    }
+
+    @Test
+    void batchProcessingWithKplDeaggregation_shouldRejectRawMessageHandler() {
+        // Arrange
+        KinesisBatchMessageHandlerBuilder builder = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withKplDeaggregation();
+
+        // Act & Assert
+        assertThatThrownBy(() -> builder.buildWithRawMessageHandler((record, context) -> {
+        }))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("raw message handler");
+    }
+
+    @ParameterizedTest
+    @Event(value = "kinesis_event.json", type = KinesisEvent.class)
+    void batchProcessingWithKplDeaggregationAndRetryPolicy_shouldRetryOnlyFailedUserRecord(KinesisEvent event) {
+        // Arrange - the second record aggregates the products 5, 1234 and 6
+        event.getRecords().get(1).getKinesis().setData(ByteBuffer.wrap(Base64.getDecoder().decode(KPL_RECORD)));
+        List<Long> processedProducts = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean failed = new AtomicBoolean();
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withKplDeaggregation()
+                .withRetryPolicy(RetryPolicy.builder()
+                        .withInitialBackoff(Duration.ofMillis(1))
+                        .build())
+                .buildWithMessageHandler((Product product, Context context) -> {
+                    processedProducts.add(product.getId());
+                    if (product.getId() == 6 && failed.compareAndSet(false, true)) {
+                        throw new IllegalStateException("throttled");
+                    }
+                }, Product.class);
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatch(event, context);
+
+        // Assert - the user records before the failed one are not handled again
+        assertThat(kinesisBatchResponse.getBatchItemFailures()).isEmpty();
+        assertThat(processedProducts).containsExactly(1234L, 5L, 1234L, 6L, 6L);
+    }
+
+    @ParameterizedTest
+    @Event(value = "kinesis_event.json", type = KinesisEvent.class)
+    void asyncBatchProcessingWithKplDeaggregationAndRetryPolicy_shouldRetryOnlyFailedUserRecord(KinesisEvent event) {
+        // Arrange - the second record aggregates the products 5, 1234 and 6
+        event.getRecords().get(1).getKinesis().setData(ByteBuffer.wrap(Base64.getDecoder().decode(KPL_RECORD)));
+        List<Long> processedProducts = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean failed = new AtomicBoolean();
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withKplDeaggregation()
+                .withRetryPolicy(RetryPolicy.builder()
+                        .withInitialBackoff(Duration.ofMillis(1))
+                        .build())
+                .buildWithAsyncMessageHandler((Product product, Context context) -> CompletableFuture.runAsync(() -> {
+                    processedProducts.add(product.getId());
+                    if (product.getId() == 6 && failed.compareAndSet(false, true)) {
+                        throw new IllegalStateException("throttled");
+                    }
+                }), Product.class);
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatch(event, context);
+
+        // Assert - the user records before the failed one are not started again
+        assertThat(kinesisBatchResponse.getBatchItemFailures()).isEmpty();
+        assertThat(processedProducts).containsSubsequence(5L, 1234L, 6L, 6L);
+        assertThat(processedProducts).hasSize(5);
+    }
+
+    @ParameterizedTest
+    @Event(value = "kinesis_event.json", type = KinesisEvent.class)
+    void batchProcessingWithMiddleware_shouldHandReplacedDataToRawMessageHandler(KinesisEvent event) {
+        // Arrange
+        List<String> processedData = new ArrayList<>();
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withMiddleware((record, context, next) -> {
+                    record.setBody("replaced " + record.getRecord().getKinesis().getSequenceNumber());
+                    next.run();
+                })
+                .buildWithRawMessageHandler(record -> processedData.add(
+                        StandardCharsets.UTF_8.decode(record.getKinesis().getData()).toString()));
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(kinesisBatchResponse.getBatchItemFailures()).isEmpty();
+        assertThat(processedData).containsExactly(
+                "replaced " + event.getRecords().get(0).getKinesis().getSequenceNumber(),
+                "replaced " + event.getRecords().get(1).getKinesis().getSequenceNumber());
+        // The records of the event are left as delivered
+        assertThat(event.getRecords().get(0).getKinesis().getData().get(0)).isEqualTo((byte) '{');
+    }
+
+    @ParameterizedTest
+    @Event(value = "kinesis_event.json", type = KinesisEvent.class)
+    void batchProcessingWithBinaryMessageHandler_shouldPassReadOnlyViewOfData(KinesisEvent event) {
+        // Arrange
+        List<ByteBuffer> processedData = new ArrayList<>();
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .buildWithBinaryMessageHandler(data -> {
+                    processedData.add(data);
+                    if (data.get(data.position()) != '{') {
+                        throw new IllegalStateException("unexpected payload");
+                    }
+                });
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(kinesisBatchResponse.getBatchItemFailures()).isEmpty();
+        assertThat(processedData).hasSize(2).allMatch(ByteBuffer::isReadOnly);
+        assertThat(processedData.get(0)).isEqualTo(event.getRecords().get(0).getKinesis().getData());
+    }
+
+    @ParameterizedTest
+    @Event(value = "kinesis_event_big.json", type = KinesisEvent.class)
+    void parallelBatchProcessingWithGrainSize_shouldProcessContiguousRecordsOnSameThread(KinesisEvent event) {
+        // Arrange
+        List<String> recordThreads = Collections.synchronizedList(new ArrayList<>());
+        Map<String, String> threadBySequenceNumber = new ConcurrentHashMap<>();
+        BatchMessageHandler<KinesisEvent, StreamsEventResponse> handler = new BatchMessageHandlerBuilder()
+                .withKinesisBatchHandler()
+                .withParallelGrainSize(event.getRecords().size())
+                .buildWithRawMessageHandler((record, context) -> {
+                    recordThreads.add(Thread.currentThread().getName());
+                    threadBySequenceNumber.put(record.getKinesis().getSequenceNumber(),
+                            Thread.currentThread().getName());
+                    processMessageFailsForFixedMessage(record, context);
+                });
+
+        // Act
+        StreamsEventResponse kinesisBatchResponse = handler.processBatchInParallel(event, context);
+
+        // Assert - a single task processes the whole batch
+        assertThat(threadBySequenceNumber).hasSize(event.getRecords().size());
+        assertThat(recordThreads).containsOnly(recordThreads.get(0));
+        assertThat(kinesisBatchResponse.getBatchItemFailures())
+                .extracting(StreamsEventResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("49545115243490985018280067714973144582180062593244200961");
+    }
 }
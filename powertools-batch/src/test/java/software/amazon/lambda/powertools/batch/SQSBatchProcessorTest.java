@@ -15,24 +15,41 @@
 package software.amazon.lambda.powertools.batch;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 import com.amazonaws.services.lambda.runtime.tests.annotations.Event;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.mockito.Mock;
+import software.amazon.lambda.powertools.batch.builder.SqsBatchMessageHandlerBuilder;
+import software.amazon.lambda.powertools.batch.exception.CircuitBreakerOpenException;
 import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.handler.BulkResult;
+import software.amazon.lambda.powertools.batch.handler.RetryPolicy;
+import software.amazon.lambda.powertools.batch.instrumentation.BatchObservation;
 import software.amazon.lambda.powertools.batch.model.Product;
 
 class SQSBatchProcessorTest {
@@ -276,5 +293,648 @@ class SQSBatchProcessorTest {
         assertThat(threadList).hasSizeGreaterThan(1);
     }
 
+    @ParameterizedTest
+    @Event(value = "sqs_event_big.json", type = SQSEvent.class)
+    void parallelBatchProcessingWithMaxConcurrencySucceedsAndReturns(SQSEvent event) {
+        // Arrange
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withMaxConcurrency(3)
+                .buildWithRawMessageHandler(this::processMessageInParallelFailsForFixedMessage);
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures()).hasSize(1);
+        SQSBatchResponse.BatchItemFailure batchItemFailure = sqsBatchResponse.getBatchItemFailures().get(0);
+        assertThat(batchItemFailure.getItemIdentifier()).isEqualTo("e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(threadList).hasSizeBetween(2, 3);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_fifo_event_multiple_groups.json", type = SQSEvent.class)
+    void parallelBatchProcessing_shouldFailRestOfMessageGroup_whenException_withSQSFIFO(SQSEvent event) {
+        // Arrange
+        List<Long> processedProducts = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .buildWithMessageHandler((Product product, Context context) -> {
+                    processedProducts.add(product.getId());
+                    processMessageFailsForFixedProduct(product, context);
+                }, Product.class);
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("39144555-9a4f-4ec3-99a0-34ce359b4b54", "59144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(processedProducts).containsExactlyInAnyOrder(1L, 2L, 12345L, 4L, 6L);
+        assertThat(processedProducts).containsSubsequence(1L, 12345L);
+        assertThat(processedProducts).containsSubsequence(2L, 6L);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_fifo_event_multiple_groups.json", type = SQSEvent.class)
+    void parallelBatchProcessingWithExecutor_shouldFailRestOfMessageGroup_whenException_withSQSFIFO(SQSEvent event) {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .buildWithMessageHandler(this::processMessageFailsForFixedProduct, Product.class);
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatchInParallel(event, context, executor);
+        executor.shutdown();
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("39144555-9a4f-4ec3-99a0-34ce359b4b54", "59144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void bulkBatchProcessing_shouldAddFailedItemsToBatchFailure(SQSEvent event) {
+        // Arrange
+        List<Integer> chunkSizes = new ArrayList<>();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .buildWithBulkMessageHandler((List<Product> products) -> {
+                    chunkSizes.add(products.size());
+                    List<Integer> failedItems = new ArrayList<>();
+                    for (int i = 0; i < products.size(); i++) {
+                        if (products.get(i).getId() == 12345) {
+                            failedItems.add(i);
+                        }
+                    }
+                    return BulkResult.failedItems(failedItems);
+                }, Product.class, 2);
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(chunkSizes).containsExactly(2, 1);
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void bulkBatchProcessing_shouldFailWholeChunk_whenHandlerThrows(SQSEvent event) {
+        // Arrange
+        List<SQSEvent.SQSMessage> failedMessages = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withFailureHandler((message, e) -> failedMessages.add(message))
+                .buildWithBulkMessageHandler((List<Product> products) -> {
+                    if (products.stream().anyMatch(product -> product.getId() == 12345)) {
+                        throw new RuntimeException("fake exception");
+                    }
+                    return BulkResult.success();
+                }, Product.class, 2);
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("d9144555-9a4f-4ec3-99a0-34ce359b4b54", "e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(failedMessages).hasSize(2);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void shouldAddUnstartedMessagesToBatchFailure_whenDeadlineSafetyMarginReached(SQSEvent event) {
+        // Arrange
+        Context lambdaContext = mock(Context.class);
+        when(lambdaContext.getRemainingTimeInMillis()).thenReturn(10_000, 10_000, 500);
+        List<String> processedMessages = new ArrayList<>();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withDeadlineSafetyMargin(Duration.ofSeconds(1))
+                .buildWithRawMessageHandler(message -> processedMessages.add(message.getMessageId()));
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatch(event, lambdaContext);
+
+        // Assert
+        assertThat(processedMessages).containsExactly("d9144555-9a4f-4ec3-99a0-34ce359b4b54",
+                "e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("f9144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event_big.json", type = SQSEvent.class)
+    void asyncBatchProcessing_shouldAddMessageToBatchFailure_whenFutureFails(SQSEvent event) {
+        // Arrange
+        ExecutorService downstream = Executors.newFixedThreadPool(10);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withMaxConcurrency(3)
+                .buildWithAsyncRawMessageHandler((message, context) -> CompletableFuture.runAsync(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(50); // simulate a downstream call
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    inFlight.decrementAndGet();
+                    if (message.getMessageId().equals("e9144555-9a4f-4ec3-99a0-34ce359b4b54")) {
+                        throw new RuntimeException("fake exception");
+                    }
+                }, downstream));
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatch(event, context);
+        downstream.shutdown();
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(maxInFlight.get()).isBetween(2, 3);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_fifo_event_multiple_groups.json", type = SQSEvent.class)
+    void asyncBatchProcessing_shouldFailRestOfMessageGroup_whenException_withSQSFIFO(SQSEvent event) {
+        // Arrange
+        List<Long> processedProducts = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .buildWithAsyncMessageHandler((Product product, Context context) -> CompletableFuture.runAsync(() -> {
+                    processedProducts.add(product.getId());
+                    processMessageFailsForFixedProduct(product, context);
+                }), Product.class);
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("39144555-9a4f-4ec3-99a0-34ce359b4b54", "59144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(processedProducts).containsExactlyInAnyOrder(1L, 2L, 12345L, 4L, 6L);
+        assertThat(processedProducts).containsSubsequence(1L, 12345L);
+        assertThat(processedProducts).containsSubsequence(2L, 6L);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event_big.json", type = SQSEvent.class)
+    void parallelBatchProcessingWithExecutor_shouldReportAllFailuresInRecordOrder(SQSEvent event) {
+        // Arrange
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .buildWithRawMessageHandler(message -> {
+                    throw new RuntimeException("fake exception");
+                });
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatchInParallel(event, context, executor);
+        executor.shutdown();
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactlyElementsOf(event.getRecords().stream()
+                        .map(SQSEvent.SQSMessage::getMessageId)
+                        .collect(Collectors.toList()));
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void shouldReportBatchToInstrumentation(SQSEvent event) {
+        // Arrange
+        List<Integer> batchSizes = new ArrayList<>();
+        List<Boolean> outcomes = Collections.synchronizedList(new ArrayList<>());
+        List<Long> queueWaits = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger batchesProcessed = new AtomicInteger();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withInstrumentation(batchSize -> {
+                    batchSizes.add(batchSize);
+                    return new BatchObservation() {
+                        @Override
+                        public void recordProcessed(long queueWaitMillis, long deserializationNanos,
+                                long handlerNanos, boolean success) {
+                            outcomes.add(success);
+                            queueWaits.add(queueWaitMillis);
+                        }
+
+                        @Override
+                        public void batchProcessed(long durationNanos) {
+                            batchesProcessed.incrementAndGet();
+                        }
+                    };
+                })
+                .buildWithRawMessageHandler(this::processMessageFailsForFixedMessage);
+
+        // Act
+        SQSBatchResponse sqsBatchResponse = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(sqsBatchResponse.getBatchItemFailures()).hasSize(1);
+        assertThat(batchSizes).containsExactly(3);
+        assertThat(outcomes).containsExactly(true, false, true);
+        // The sample messages were sent long ago
+        assertThat(queueWaits).allMatch(queueWait -> queueWait > 0);
+        assertThat(batchesProcessed.get()).isEqualTo(1);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event_big.json", type = SQSEvent.class)
+    void adaptiveParallelBatchProcessing_shouldAddMessageToBatchFailure_whenException(SQSEvent event) {
+        // Arrange
+        List<String> processedMessages = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withAdaptiveParallelism()
+                .buildWithRawMessageHandler((message, context) -> {
+                    processedMessages.add(message.getMessageId());
+                    processMessageFailsForFixedMessage(message, context);
+                });
+
+        // Act - the first batch is measured, the second one planned from it
+        SQSBatchResponse firstResponse = handler.processBatchInParallel(event, context);
+        SQSBatchResponse secondResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(processedMessages).hasSize(event.getRecords().size() * 2);
+        assertThat(firstResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(secondResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithDuplicateCollapsing_shouldApplyOutcomeToDuplicates(SQSEvent event) {
+        // Arrange - the last message is a duplicate of the failing one
+        event.getRecords().get(2).setBody(event.getRecords().get(1).getBody());
+        List<String> processedMessages = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withDuplicateCollapsing()
+                .buildWithRawMessageHandler((message, context) -> {
+                    processedMessages.add(message.getMessageId());
+                    processMessageFailsForFixedMessage(message, context);
+                });
+
+        // Act
+        SQSBatchResponse sequentialResponse = handler.processBatch(event, context);
+        SQSBatchResponse parallelResponse = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(processedMessages).containsExactlyInAnyOrder(
+                "d9144555-9a4f-4ec3-99a0-34ce359b4b54", "e9144555-9a4f-4ec3-99a0-34ce359b4b54",
+                "d9144555-9a4f-4ec3-99a0-34ce359b4b54", "e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(sequentialResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("e9144555-9a4f-4ec3-99a0-34ce359b4b54", "f9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(parallelResponse.getBatchItemFailures())
+                .extracting(SQSBatchResponse.BatchItemFailure::getItemIdentifier)
+                .containsExactly("e9144555-9a4f-4ec3-99a0-34ce359b4b54", "f9144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithDuplicateCollapsing_shouldReportDuplicatesToFailureHandler(SQSEvent event) {
+        // Arrange - the last message is a duplicate of the failing one
+        event.getRecords().get(2).setBody(event.getRecords().get(1).getBody());
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        List<String> succeededMessages = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withDuplicateCollapsing()
+                .withSuccessHandler(message -> succeededMessages.add(message.getMessageId()))
+                .withFailureHandler((message, e) -> failures.put(message.getMessageId(), e))
+                .buildWithRawMessageHandler(this::processMessageFailsForFixedMessage);
+
+        // Act
+        handler.processBatch(event, context);
+
+        // Assert - the duplicate is reported with the failure of the message processed in its place
+        assertThat(succeededMessages).containsExactly("d9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(failures).containsOnlyKeys(
+                "e9144555-9a4f-4ec3-99a0-34ce359b4b54", "f9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(failures.get("f9144555-9a4f-4ec3-99a0-34ce359b4b54"))
+                .isSameAs(failures.get("e9144555-9a4f-4ec3-99a0-34ce359b4b54"));
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithDuplicateCollapsing_shouldReportDuplicatesToSuccessHandler(SQSEvent event) {
+        // Arrange - all the messages share the same event source
+        List<String> succeededMessages = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withDuplicateCollapsing(message -> message.getEventSource())
+                .withSuccessHandler(message -> succeededMessages.add(message.getMessageId()))
+                .buildWithRawMessageHandler(message -> {
+                });
+
+        // Act
+        SQSBatchResponse response = handler.processBatchInParallel(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).isEmpty();
+        assertThat(succeededMessages).containsExactlyInAnyOrder("d9144555-9a4f-4ec3-99a0-34ce359b4b54",
+                "e9144555-9a4f-4ec3-99a0-34ce359b4b54", "f9144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithDuplicateKeyExtractor_shouldProcessEachKeyOnce(SQSEvent event) {
+        // Arrange
+        AtomicInteger processed = new AtomicInteger();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withDuplicateCollapsing(message -> message.getEventSource())
+                .buildWithRawMessageHandler(message -> processed.incrementAndGet());
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(processed.get()).isEqualTo(1);
+        assertThat(response.getBatchItemFailures()).isEmpty();
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void parallelBatchProcessingWithLargestFirstScheduling_shouldStartLargestMessagesFirst(SQSEvent event) {
+        // Arrange
+        event.getRecords().get(0).setBody("{}");
+        event.getRecords().get(2).setBody(event.getRecords().get(2).getBody() + "          ");
+        List<String> processedMessages = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withLargestFirstScheduling()
+                .buildWithRawMessageHandler(message -> processedMessages.add(message.getMessageId()));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // Act
+        SQSBatchResponse response = handler.processBatchInParallel(event, context, executor);
+        executor.shutdown();
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).isEmpty();
+        assertThat(processedMessages).containsExactly("f9144555-9a4f-4ec3-99a0-34ce359b4b54",
+                "e9144555-9a4f-4ec3-99a0-34ce359b4b54", "d9144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void parallelBatchProcessingWithCostFunction_shouldStartCostliestMessagesFirst(SQSEvent event) {
+        // Arrange
+        List<String> processedMessages = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withLargestFirstScheduling(message -> message.getMessageId().startsWith("e") ? 100 : 1)
+                .buildWithRawMessageHandler(message -> processedMessages.add(message.getMessageId()));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // Act
+        handler.processBatchInParallel(event, context, executor);
+        executor.shutdown();
 
+        // Assert - messages of equal cost keep their order
+        assertThat(processedMessages).containsExactly("e9144555-9a4f-4ec3-99a0-34ce359b4b54",
+                "d9144555-9a4f-4ec3-99a0-34ce359b4b54", "f9144555-9a4f-4ec3-99a0-34ce359b4b54");
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event_big.json", type = SQSEvent.class)
+    void batchProcessingWithCircuitBreaker_shouldFailRemainingMessagesWithoutProcessingThem(SQSEvent event) {
+        // Arrange
+        AtomicInteger processed = new AtomicInteger();
+        List<Throwable> reportedFailures = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withCircuitBreaker(2)
+                .withFailureHandler((message, throwable) -> reportedFailures.add(throwable))
+                .buildWithRawMessageHandler(message -> {
+                    processed.incrementAndGet();
+                    throw new IllegalStateException("downstream is down");
+                });
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(processed.get()).isEqualTo(2);
+        assertThat(response.getBatchItemFailures()).hasSize(event.getRecords().size());
+        assertThat(reportedFailures).hasSize(event.getRecords().size());
+        assertThat(reportedFailures.subList(2, reportedFailures.size()))
+                .allMatch(CircuitBreakerOpenException.class::isInstance);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithRetryPolicy_shouldRetryTransientFailures(SQSEvent event) {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withRetryPolicy(RetryPolicy.builder()
+                        .withMaxAttempts(3)
+                        .withInitialBackoff(Duration.ofMillis(1))
+                        .build())
+                .buildWithRawMessageHandler(message -> {
+                    if (message.getMessageId().equals("e9144555-9a4f-4ec3-99a0-34ce359b4b54")
+                            && attempts.incrementAndGet() == 1) {
+                        throw new IllegalStateException("throttled");
+                    }
+                });
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).isEmpty();
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithRetryPolicy_shouldNotRetryNonRetryableFailures(SQSEvent event) {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withRetryPolicy(RetryPolicy.builder()
+                        .withInitialBackoff(Duration.ofMillis(1))
+                        .retryOn(e -> !(e instanceof IllegalArgumentException))
+                        .build())
+                .buildWithRawMessageHandler(message -> {
+                    if (message.getMessageId().equals("e9144555-9a4f-4ec3-99a0-34ce359b4b54")) {
+                        attempts.incrementAndGet();
+                        throw new IllegalArgumentException("poison message");
+                    }
+                });
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).hasSize(1);
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void asyncBatchProcessingWithRetryPolicy_shouldGiveUpAfterMaxAttempts(SQSEvent event) {
+        // Arrange
+        AtomicInteger attempts = new AtomicInteger();
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withRetryPolicy(RetryPolicy.builder()
+                        .withMaxAttempts(3)
+                        .withInitialBackoff(Duration.ofMillis(1))
+                        .build())
+                .buildWithAsyncRawMessageHandler((message, context) -> CompletableFuture.runAsync(() -> {
+                    if (message.getMessageId().equals("e9144555-9a4f-4ec3-99a0-34ce359b4b54")) {
+                        attempts.incrementAndGet();
+                        throw new IllegalStateException("throttled");
+                    }
+                }));
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).hasSize(1);
+        assertThat(response.getBatchItemFailures().get(0).getItemIdentifier())
+                .isEqualTo("e9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithMiddleware_shouldShareParsedBodyBetweenStages(SQSEvent event) {
+        // Arrange
+        List<JsonNode> parsedBodies = Collections.synchronizedList(new ArrayList<>());
+        List<Product> products = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withMiddleware((record, context, next) -> {
+                    // Skips the first message, e.g. already processed
+                    if (!record.getRecord().getMessageId().equals("e9144555-9a4f-4ec3-99a0-34ce359b4b54")) {
+                        parsedBodies.add(record.getJson());
+                        next.run();
+                    }
+                }, (record, context, next) -> {
+                    parsedBodies.add(record.getJson());
+                    ((ObjectNode) record.getJson()).put("name", "enriched");
+                    next.run();
+                })
+                .buildWithMessageHandler((Product product) -> products.add(product), Product.class);
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).isEmpty();
+        assertThat(products).extracting(Product::getName).containsExactly("enriched", "enriched");
+        // Both stages received the same tree for each message
+        assertThat(parsedBodies).hasSize(4);
+        assertThat(parsedBodies.get(0)).isSameAs(parsedBodies.get(1));
+        assertThat(parsedBodies.get(2)).isSameAs(parsedBodies.get(3));
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithMiddleware_shouldFailMessagesRejectedByAStage(SQSEvent event) {
+        // Arrange
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withMiddleware((record, context, next) -> {
+                    if (record.getJson().get("price").asInt() > 45) {
+                        throw new IllegalArgumentException("price too high");
+                    }
+                    next.run();
+                })
+                .buildWithRawMessageHandler(message -> processed.add(message.getMessageId()));
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).hasSize(1);
+        assertThat(processed).hasSize(2);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithMiddleware_shouldHandReplacedBodyToRawMessageHandler(SQSEvent event) {
+        // Arrange
+        List<String> processedBodies = Collections.synchronizedList(new ArrayList<>());
+        List<String> succeededBodies = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withSuccessHandler(message -> succeededBodies.add(message.getBody()))
+                .withMiddleware((record, context, next) -> {
+                    // e.g. the payload of a large message
+                    record.setBody("{\"id\": 1, \"name\": \"fetched\", \"price\": 10}");
+                    next.run();
+                })
+                .buildWithRawMessageHandler(message -> processedBodies.add(message.getBody()));
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).isEmpty();
+        assertThat(processedBodies).hasSize(3).allMatch(body -> body.contains("fetched"));
+        // The success handler receives the messages as delivered
+        assertThat(succeededBodies).containsExactlyElementsOf(
+                event.getRecords().stream().map(SQSEvent.SQSMessage::getBody).collect(Collectors.toList()));
+    }
+
+    @Test
+    void asyncBatchProcessingWithMiddleware_shouldNotBeSupported() {
+        SqsBatchMessageHandlerBuilder builder = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withMiddleware((record, context, next) -> next.run());
+
+        assertThatThrownBy(() -> builder.buildWithAsyncRawMessageHandler(
+                (message, context) -> CompletableFuture.completedFuture(null)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessingWithBatchFilter_shouldOnlyProcessSelectedMessages(SQSEvent event) {
+        // Arrange
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withBatchFilter(messages -> messages.subList(1, messages.size()))
+                .buildWithRawMessageHandler(message -> {
+                    processed.add(message.getMessageId());
+                    throw new IllegalStateException("fake exception");
+                });
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert - the message filtered out is neither processed nor reported as failed
+        assertThat(processed).hasSize(event.getRecords().size() - 1)
+                .doesNotContain(event.getRecords().get(0).getMessageId());
+        assertThat(response.getBatchItemFailures()).hasSize(event.getRecords().size() - 1);
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.instrumentation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.tests.annotations.Event;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.mockito.Mock;
+import software.amazon.lambda.powertools.batch.BatchMessageHandlerBuilder;
+import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.metrics.MetricsBuilder;
+
+class MetricsBatchInstrumentationTest {
+
+    private static final PrintStream STANDARD_OUT = System.out;
+
+    @Mock
+    private Context context;
+
+    private final ByteArrayOutputStream outputStreamCaptor = new ByteArrayOutputStream();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp() {
+        System.setOut(new PrintStream(outputStreamCaptor));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(STANDARD_OUT);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessing_shouldFlushOneEmfDocumentPerBatch(SQSEvent event) throws Exception {
+        // Arrange
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withInstrumentation(new MetricsBatchInstrumentation(MetricsBuilder.builder()
+                        .withNamespace("BatchTest")
+                        .build()))
+                .buildWithRawMessageHandler(message -> {
+                    if (message.getMessageId().equals("e9144555-9a4f-4ec3-99a0-34ce359b4b54")) {
+                        throw new IllegalStateException("fake exception");
+                    }
+                });
+
+        // Act
+        handler.processBatch(event, context);
+
+        // Assert
+        List<JsonNode> documents = emfDocuments();
+        assertThat(documents).hasSize(1);
+        JsonNode document = documents.get(0);
+        assertThat(document.get("_aws").get("CloudWatchMetrics").get(0).get("Namespace").asText())
+                .isEqualTo("BatchTest");
+        assertThat(document.get("BatchSize").asInt()).isEqualTo(3);
+        assertThat(document.get("ProcessedRecords").asInt()).isEqualTo(2);
+        assertThat(document.get("FailedRecords").asInt()).isEqualTo(1);
+        assertThat(document.has("BatchDuration")).isTrue();
+        assertThat(document.get("RecordLatencyP50").asDouble())
+                .isLessThanOrEqualTo(document.get("RecordLatencyP99").asDouble());
+        assertThat(document.get("QueueWaitTimeMax").asLong()).isPositive();
+    }
+
+    @Test
+    void percentile_shouldReturnNearestRankValue() {
+        long[] hundredValues = LongStream.rangeClosed(1, 100).toArray();
+        long[] threeValues = {10, 20, 30};
+        long[] singleValue = {42};
+
+        assertThat(MetricsBatchInstrumentation.percentile(hundredValues, 50)).isEqualTo(50);
+        assertThat(MetricsBatchInstrumentation.percentile(hundredValues, 99)).isEqualTo(99);
+        assertThat(MetricsBatchInstrumentation.percentile(threeValues, 50)).isEqualTo(20);
+        assertThat(MetricsBatchInstrumentation.percentile(threeValues, 99)).isEqualTo(30);
+        assertThat(MetricsBatchInstrumentation.percentile(singleValue, 50)).isEqualTo(42);
+        assertThat(MetricsBatchInstrumentation.percentile(singleValue, 99)).isEqualTo(42);
+    }
+
+    private List<JsonNode> emfDocuments() throws Exception {
+        List<JsonNode> documents = new ArrayList<>();
+        for (String line : outputStreamCaptor.toString().split("\\R")) {
+            if (line.startsWith("{")) {
+                JsonNode document = objectMapper.readTree(line);
+                if (document.has("_aws")) {
+                    documents.add(document);
+                }
+            }
+        }
+        return documents;
+    }
+}
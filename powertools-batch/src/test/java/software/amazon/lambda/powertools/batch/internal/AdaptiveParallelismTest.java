@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package software.amazon.lambda.powertools.batch.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveParallelismTest {
+
+    @Test
+    void shouldPlanSequentialProcessing_whenRecordsAreCheap() {
+        AdaptiveParallelism adaptiveParallelism = new AdaptiveParallelism(0);
+        adaptiveParallelism.measure(2, () -> null);
+        adaptiveParallelism.batchProcessed();
+
+        assertThat(adaptiveParallelism.hasHistory()).isTrue();
+        assertThat(adaptiveParallelism.plan(10).getMode()).isEqualTo(AdaptiveParallelism.Mode.SEQUENTIAL);
+    }
+
+    @Test
+    void shouldPlanExecutorProcessing_whenRecordsWaitForIO() {
+        AdaptiveParallelism adaptiveParallelism = new AdaptiveParallelism(8);
+        adaptiveParallelism.measure(1, () -> {
+            sleep(20); // simulate a downstream call
+            return null;
+        });
+
+        AdaptiveParallelism.Plan plan = adaptiveParallelism.plan(100);
+
+        assertThat(plan.getMode()).isEqualTo(AdaptiveParallelism.Mode.EXECUTOR);
+        assertThat(plan.getConcurrency()).isBetween(2, 8);
+    }
+
+    @Test
+    void shouldPlanSequentialProcessing_whenSingleRecordIsLeft() {
+        AdaptiveParallelism adaptiveParallelism = new AdaptiveParallelism(0);
+        adaptiveParallelism.measure(1, () -> {
+            sleep(20);
+            return null;
+        });
+
+        assertThat(adaptiveParallelism.plan(1).getMode()).isEqualTo(AdaptiveParallelism.Mode.SEQUENTIAL);
+    }
+
+    @Test
+    void shouldMeasureCpuTime_onExecutorThreads() throws Exception {
+        AdaptiveParallelism adaptiveParallelism = new AdaptiveParallelism(2);
+
+        // virtual threads would not support it
+        CompletableFuture<Long> cpuTime = CompletableFuture.supplyAsync(
+                () -> ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime(),
+                adaptiveParallelism.getExecutor(1));
+
+        assertThat(cpuTime.get()).isNotNegative();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package software.amazon.lambda.powertools.batch.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.lambda.powertools.batch.handler.BatchProcessingOptions;
+
+class CircuitBreakerTest {
+
+    @Test
+    void shouldNeverTrip_whenNoCircuitBreakerIsConfigured() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forBatch(BatchProcessingOptions.defaults(), true);
+
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.recordProcessed(false);
+        }
+        assertThat(circuitBreaker.isOpen()).isFalse();
+    }
+
+    @Test
+    void shouldTrip_whenConsecutiveFailuresReachThreshold() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forBatch(
+                BatchProcessingOptions.builder().withCircuitBreakerConsecutiveFailures(2).build(), true);
+
+        circuitBreaker.recordProcessed(false);
+        circuitBreaker.recordProcessed(true);
+        circuitBreaker.recordProcessed(false);
+        assertThat(circuitBreaker.isOpen()).isFalse();
+
+        circuitBreaker.recordProcessed(false);
+        assertThat(circuitBreaker.isOpen()).isTrue();
+    }
+
+    @Test
+    void shouldNotCountConsecutiveFailures_whenRecordsAreNotProcessedSequentially() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forBatch(BatchProcessingOptions.builder()
+                .withCircuitBreakerConsecutiveFailures(2)
+                .withCircuitBreakerFailureRate(0.75, 4)
+                .build(), false);
+
+        circuitBreaker.recordProcessed(false);
+        circuitBreaker.recordProcessed(false);
+        circuitBreaker.recordProcessed(true);
+        assertThat(circuitBreaker.isOpen()).isFalse();
+
+        circuitBreaker.recordProcessed(false);
+        circuitBreaker.recordProcessed(false);
+        assertThat(circuitBreaker.isOpen()).isTrue();
+    }
+
+    @Test
+    void shouldTrip_whenFailureRateReachesThreshold_afterMinimumRecords() {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forBatch(
+                BatchProcessingOptions.builder().withCircuitBreakerFailureRate(0.5, 4).build(), false);
+
+        circuitBreaker.recordProcessed(false);
+        circuitBreaker.recordProcessed(true);
+        circuitBreaker.recordProcessed(false);
+        assertThat(circuitBreaker.isOpen()).isFalse();
+
+        circuitBreaker.recordProcessed(true);
+        circuitBreaker.recordProcessed(false);
+        assertThat(circuitBreaker.isOpen()).isTrue();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package software.amazon.lambda.powertools.batch.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.lambda.powertools.utilities.EventDeserializationException;
+
+class DynamoDbImageMapperTest {
+
+    @Test
+    void shouldMapAttributes_toFieldsOfTheirType() {
+        Map<String, AttributeValue> image = new HashMap<>();
+        image.put("Id", new AttributeValue().withN("42"));
+        image.put("name", new AttributeValue("basket"));
+        image.put("price", new AttributeValue().withN("9.99"));
+        image.put("paid", new AttributeValue().withBOOL(true));
+        image.put("status", new AttributeValue("SHIPPED"));
+        image.put("tags", new AttributeValue().withSS("a", "b"));
+        image.put("quantities", new AttributeValue().withNS("1", "2"));
+        image.put("payload", new AttributeValue().withB(ByteBuffer.wrap("data".getBytes(UTF_8))));
+        image.put("attributes", new AttributeValue().withM(Map.of("color", new AttributeValue().withN("3"))));
+        image.put("owner", new AttributeValue().withM(Map.of("login", new AttributeValue("jdoe"))));
+        image.put("lines", new AttributeValue().withL(
+                new AttributeValue().withM(Map.of("login", new AttributeValue("first"))),
+                new AttributeValue().withM(Map.of("login", new AttributeValue("second")))));
+        image.put("extra", new AttributeValue().withL(new AttributeValue().withN("1"), new AttributeValue("x")));
+        image.put("unknown", new AttributeValue("ignored"));
+
+        Order order = DynamoDbImageMapper.forClass(Order.class).map(image);
+
+        assertThat(order.id).isEqualTo(42);
+        assertThat(order.name).isEqualTo("basket");
+        assertThat(order.price).isEqualTo(new BigDecimal("9.99"));
+        assertThat(order.paid).isTrue();
+        assertThat(order.status).isEqualTo(Status.SHIPPED);
+        assertThat(order.tags).containsExactly("a", "b");
+        assertThat(order.quantities).containsExactly(1, 2);
+        assertThat(new String(order.payload, UTF_8)).isEqualTo("data");
+        assertThat(order.attributes).containsEntry("color", 3L);
+        assertThat(order.owner.login).isEqualTo("jdoe");
+        assertThat(order.orderLines).extracting(owner -> owner.login).containsExactly("first", "second");
+        assertThat(order.extra).isEqualTo(Arrays.asList(new BigDecimal("1"), "x"));
+    }
+
+    @Test
+    void shouldLeaveFieldsUnset_whenAttributesAreNullOrMissing() {
+        Map<String, AttributeValue> image = new HashMap<>();
+        image.put("id", new AttributeValue().withNULL(true));
+        image.put("name", new AttributeValue().withNULL(true));
+
+        Order order = DynamoDbImageMapper.forClass(Order.class).map(image);
+
+        assertThat(order.id).isZero();
+        assertThat(order.name).isNull();
+        assertThat(order.owner).isNull();
+        assertThat(DynamoDbImageMapper.forClass(Order.class).map(null)).isNull();
+    }
+
+    @Test
+    void shouldReuseMapper_forTheSameClass() {
+        assertThat(DynamoDbImageMapper.forClass(Order.class)).isSameAs(DynamoDbImageMapper.forClass(Order.class));
+    }
+
+    @Test
+    void shouldFail_whenAttributeCannotBeConverted() {
+        Map<String, AttributeValue> image = Map.of("id", new AttributeValue("not a number"));
+
+        assertThatThrownBy(() -> DynamoDbImageMapper.forClass(Order.class).map(image))
+                .isInstanceOf(EventDeserializationException.class)
+                .hasMessageContaining("Order");
+    }
+
+    @Test
+    void shouldFail_whenClassHasNoConstructorWithoutArguments() {
+        assertThatThrownBy(() -> DynamoDbImageMapper.forClass(Immutable.class))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldFail_whenClassHasFieldOfUnsupportedType() {
+        assertThatThrownBy(() -> DynamoDbImageMapper.forClass(WithArray.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("names");
+        assertThatThrownBy(() -> DynamoDbImageMapper.forClass(WithChar.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("initial");
+        assertThatThrownBy(() -> DynamoDbImageMapper.forClass(WithArrayElements.class))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("groups");
+    }
+
+    enum Status { CREATED, SHIPPED }
+
+    static class Owner {
+        private String login;
+    }
+
+    static class Order {
+        private int id;
+        private String name;
+        private BigDecimal price;
+        private boolean paid;
+        private Status status;
+        private Set<String> tags;
+        private List<Integer> quantities;
+        private byte[] payload;
+        private Map<String, Long> attributes;
+        private Owner owner;
+        @JsonProperty("lines")
+        private List<Owner> orderLines;
+        private Object extra;
+    }
+
+    static class Immutable {
+        private final String value;
+
+        Immutable(String value) {
+            this.value = value;
+        }
+    }
+
+    static class WithArray {
+        private String[] names;
+    }
+
+    static class WithChar {
+        private char initial;
+    }
+
+    static class WithArrayElements {
+        private List<String[]> groups;
+    }
+}
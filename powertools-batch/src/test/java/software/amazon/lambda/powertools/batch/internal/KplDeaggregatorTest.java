@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package software.amazon.lambda.powertools.batch.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class KplDeaggregatorTest {
+
+    private static final byte[] MAGIC = {(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+
+    @Test
+    void shouldSplitAggregatedRecord_intoUserRecords() throws Exception {
+        ByteBuffer data = ByteBuffer.wrap(aggregate("{\"id\":1}", "{\"id\":2}", "{\"id\":3}"));
+
+        List<ByteBuffer> userRecords = KplDeaggregator.deaggregate(data);
+
+        assertThat(userRecords.stream().map(KplDeaggregatorTest::decode).collect(Collectors.toList()))
+                .containsExactly("{\"id\":1}", "{\"id\":2}", "{\"id\":3}");
+        // The user records share the content of the Kinesis record
+        assertThat(userRecords).allMatch(userRecord -> userRecord.array() == data.array());
+        assertThat(data.position()).isZero();
+    }
+
+    @Test
+    void shouldReturnRecordAsIs_whenNotAggregated() {
+        ByteBuffer data = ByteBuffer.wrap("{\"id\":1}".getBytes(UTF_8));
+
+        List<ByteBuffer> userRecords = KplDeaggregator.deaggregate(data);
+
+        assertThat(userRecords).hasSize(1);
+        assertThat(decode(userRecords.get(0))).isEqualTo("{\"id\":1}");
+    }
+
+    @Test
+    void shouldReturnRecordAsIs_whenDigestDoesNotMatch() throws Exception {
+        byte[] aggregated = aggregate("{\"id\":1}", "{\"id\":2}");
+        aggregated[aggregated.length - 1]++;
+
+        List<ByteBuffer> userRecords = KplDeaggregator.deaggregate(ByteBuffer.wrap(aggregated));
+
+        assertThat(userRecords).hasSize(1);
+        assertThat(userRecords.get(0).remaining()).isEqualTo(aggregated.length);
+    }
+
+    @Test
+    void shouldThrow_whenAggregatedRecordIsMalformed() throws Exception {
+        // A records field announcing more bytes than available
+        byte[] message = {0x1A, 0x10, 0x01};
+
+        assertThatThrownBy(() -> KplDeaggregator.deaggregate(ByteBuffer.wrap(withMagicAndDigest(message))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Encodes the given user records as a KPL aggregated record, with a partition key table of one entry.
+     */
+    static byte[] aggregate(String... userRecords) throws Exception {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        writeLengthDelimited(message, 1, "partitionKey".getBytes(UTF_8));
+        for (String userRecord : userRecords) {
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            record.write(1 << 3); // partition_key_index
+            record.write(0);
+            writeLengthDelimited(record, 3, userRecord.getBytes(UTF_8));
+            writeLengthDelimited(message, 3, record.toByteArray());
+        }
+        return withMagicAndDigest(message.toByteArray());
+    }
+
+    private static byte[] withMagicAndDigest(byte[] message) throws Exception {
+        ByteArrayOutputStream aggregated = new ByteArrayOutputStream();
+        aggregated.write(MAGIC);
+        aggregated.write(message);
+        aggregated.write(MessageDigest.getInstance("MD5").digest(message));
+        return aggregated.toByteArray();
+    }
+
+    private static void writeLengthDelimited(ByteArrayOutputStream out, int field, byte[] value) {
+        out.write(field << 3 | 2);
+        int length = value.length;
+        while (length >= 0x80) {
+            out.write(length & 0x7F | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        out.write(value, 0, value.length);
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        return UTF_8.decode(buffer.duplicate()).toString();
+    }
+}
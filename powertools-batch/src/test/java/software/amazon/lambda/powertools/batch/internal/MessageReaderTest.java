@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package software.amazon.lambda.powertools.batch.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import java.nio.ByteBuffer;
+
+import org.crac.Context;
+import org.crac.Resource;
+import org.junit.jupiter.api.Test;
+import software.amazon.lambda.powertools.batch.model.Product;
+import software.amazon.lambda.powertools.utilities.EventDeserializationException;
+
+class MessageReaderTest {
+
+    private static final String PRODUCT_JSON = "{\"id\":1234,\"name\":\"product\",\"price\":42}";
+
+    @Test
+    void shouldReadMessageFromString() {
+        MessageReader<Product> reader = MessageReader.of(Product.class);
+
+        assertThat(reader.read(PRODUCT_JSON)).isEqualTo(new Product(1234, "product", 42));
+    }
+
+    @Test
+    void shouldReadMessageFromBuffer_withoutMovingItsPosition() {
+        MessageReader<Product> reader = MessageReader.of(Product.class);
+        ByteBuffer heapBuffer = ByteBuffer.wrap(PRODUCT_JSON.getBytes(UTF_8));
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(heapBuffer.remaining());
+        directBuffer.put(heapBuffer.duplicate()).flip();
+
+        assertThat(reader.read(heapBuffer)).isEqualTo(new Product(1234, "product", 42));
+        assertThat(reader.read(directBuffer)).isEqualTo(new Product(1234, "product", 42));
+        assertThat(heapBuffer.position()).isZero();
+        assertThat(directBuffer.position()).isZero();
+    }
+
+    @Test
+    void shouldReturnContent_whenMessageClassIsString() {
+        MessageReader<String> reader = MessageReader.of(String.class);
+
+        assertThat(reader.read(PRODUCT_JSON)).isEqualTo(PRODUCT_JSON);
+        assertThat(reader.read(ByteBuffer.wrap(PRODUCT_JSON.getBytes(UTF_8)))).isEqualTo(PRODUCT_JSON);
+    }
+
+    @Test
+    void shouldThrowEventDeserializationException_whenContentIsNotJson() {
+        MessageReader<Product> reader = MessageReader.of(Product.class);
+
+        assertThatThrownBy(() -> reader.read("not json"))
+                .isInstanceOf(EventDeserializationException.class)
+                .hasMessage("Cannot load the event as Product");
+    }
+
+    @Test
+    void shouldShareReader_forSameMessageClass() {
+        assertThat(MessageReader.of(Product.class)).isSameAs(MessageReader.of(Product.class));
+        assertThat(MessageReader.of(String.class)).isNotSameAs(MessageReader.of(Product.class));
+    }
+
+    @Test
+    void testBeforeCheckpointDoesNotThrowException() {
+        MessageReader<Product> reader = MessageReader.of(Product.class);
+        Context<Resource> context = mock(Context.class);
+
+        assertThatNoException().isThrownBy(() -> reader.beforeCheckpoint(context));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.batch.middleware;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.tests.annotations.Event;
+import com.fasterxml.jackson.databind.JsonNode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.mockito.Mock;
+import software.amazon.lambda.powertools.batch.BatchMessageHandlerBuilder;
+import software.amazon.lambda.powertools.batch.handler.BatchMessageHandler;
+import software.amazon.lambda.powertools.batch.model.Product;
+import software.amazon.lambda.powertools.validation.ValidationException;
+
+class ValidationBatchMiddlewareTest {
+
+    private static final String PRODUCT_SCHEMA = "{"
+            + "\"$schema\": \"http://json-schema.org/draft-07/schema\","
+            + "\"type\": \"object\","
+            + "\"required\": [\"id\", \"name\", \"price\"],"
+            + "\"properties\": {\"price\": {\"type\": \"number\", \"maximum\": 45}}"
+            + "}";
+
+    @Mock
+    private Context context;
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessing_shouldFailMessagesNotMatchingTheSchema(SQSEvent event) {
+        // Arrange
+        List<Product> products = Collections.synchronizedList(new ArrayList<>());
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withFailureHandler((message, e) -> failures.add(e))
+                .withMiddleware(new ValidationBatchMiddleware<>(PRODUCT_SCHEMA))
+                .buildWithMessageHandler((Product product) -> products.add(product), Product.class);
+
+        // Act
+        SQSBatchResponse response = handler.processBatch(event, context);
+
+        // Assert
+        assertThat(response.getBatchItemFailures()).hasSize(1);
+        assertThat(response.getBatchItemFailures().get(0).getItemIdentifier())
+                .isEqualTo("f9144555-9a4f-4ec3-99a0-34ce359b4b54");
+        assertThat(failures).hasSize(1).allMatch(ValidationException.class::isInstance);
+        assertThat(products).extracting(Product::getPrice).containsExactly(42.0, 45.0);
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void batchProcessing_shouldValidateTheTreeSharedWithTheOtherStages(SQSEvent event) {
+        // Arrange
+        List<JsonNode> validatedBodies = Collections.synchronizedList(new ArrayList<>());
+        List<JsonNode> parsedBodies = Collections.synchronizedList(new ArrayList<>());
+        BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+                .withSqsBatchHandler()
+                .withMiddleware((record, context, next) -> {
+                    parsedBodies.add(record.getJson());
+                    next.run();
+                }, new ValidationBatchMiddleware<>(PRODUCT_SCHEMA), (record, context, next) -> {
+                    validatedBodies.add(record.getJson());
+                    next.run();
+                })
+                .buildWithRawMessageHandler(message -> {
+                });
+
+        // Act
+        handler.processBatch(event, context);
+
+        // Assert
+        assertThat(validatedBodies).hasSize(2);
+        assertThat(validatedBodies.get(0)).isSameAs(parsedBodies.get(0));
+        assertThat(validatedBodies.get(1)).isSameAs(parsedBodies.get(1));
+    }
+}
@@ -14,8 +14,15 @@
 
 package software.amazon.lambda.powertools.idempotency;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -24,6 +31,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import software.amazon.lambda.powertools.idempotency.exceptions.IdempotencyConfigurationException;
 import software.amazon.lambda.powertools.idempotency.internal.IdempotencyHandler;
 import software.amazon.lambda.powertools.idempotency.persistence.BasePersistenceStore;
+import software.amazon.lambda.powertools.idempotency.persistence.DataRecord;
 import software.amazon.lambda.powertools.utilities.JsonConfig;
 
 /**
@@ -93,6 +101,7 @@ import software.amazon.lambda.powertools.utilities.JsonConfig;
  * @see #makeIdempotent(Function, Object, TypeReference)
  */
 public final class Idempotency {
+    private static final Logger LOG = LoggerFactory.getLogger(Idempotency.class);
     private static final String DEFAULT_FUNCTION_NAME = "function";
 
     private IdempotencyConfig config;
@@ -301,6 +310,73 @@ public final class Idempotency {
         }
     }
 
+    /**
+     * Creates a filter removing, from a batch of records, the records already processed successfully by
+     * {@link #makeIdempotent(Object, Supplier, Class)} with the same idempotency key.
+     * See {@link #skipCompleted(String, Function)}.
+     *
+     * @param idempotencyKey extracts the idempotency key of a record, as passed to {@code makeIdempotent}
+     * @param <T> the type of the records
+     * @return a filter returning the records that still need to be processed, in order
+     */
+    public static <T> UnaryOperator<List<T>> skipCompleted(Function<T, ?> idempotencyKey) {
+        return skipCompleted(DEFAULT_FUNCTION_NAME, idempotencyKey);
+    }
+
+    /**
+     * Creates a filter removing, from a batch of records, the records already processed successfully by
+     * {@link #makeIdempotent(String, Object, Supplier, Class)} with the same function name and idempotency key.
+     * 
+     * <p>The records of the whole batch are looked up at once, in as few calls to the persistence store as it
+     * allows, rather than with one conditional write per record. Only the records without a completed record go
+     * through {@code makeIdempotent}, which still guarantees their idempotency. This is meant to be used with the
+     * batch utility, to skip replayed records up front:</p>
+     * <pre>{@code
+     * BatchMessageHandler<SQSEvent, SQSBatchResponse> handler = new BatchMessageHandlerBuilder()
+     *     .withSqsBatchHandler()
+     *     .withBatchFilter(Idempotency.skipCompleted("processMessage", SQSMessage::getBody))
+     *     .buildWithRawMessageHandler(message -> Idempotency.makeIdempotent("processMessage",
+     *         message.getBody(), () -> processMessage(message), String.class));
+     * }</pre>
+     * 
+     * <p>If the persistence store cannot be reached, no record is removed.</p>
+     *
+     * @param functionName the name of the function, as passed to {@code makeIdempotent}
+     * @param idempotencyKey extracts the idempotency key of a record, as passed to {@code makeIdempotent}
+     * @param <T> the type of the records
+     * @return a filter returning the records that still need to be processed, in order
+     */
+    public static <T> UnaryOperator<List<T>> skipCompleted(String functionName, Function<T, ?> idempotencyKey) {
+        return records -> {
+            if (records.isEmpty()) {
+                return records;
+            }
+            try {
+                BasePersistenceStore persistenceStore = getInstance().getPersistenceStore();
+                persistenceStore.configure(getInstance().getConfig());
+
+                List<JsonNode> payloads = new ArrayList<>(records.size());
+                for (T record : records) {
+                    payloads.add(JsonConfig.get().getObjectMapper().valueToTree(idempotencyKey.apply(record)));
+                }
+                List<DataRecord> completedRecords = persistenceStore.getCompletedRecords(payloads, functionName,
+                        Instant.now());
+
+                List<T> remainingRecords = new ArrayList<>(records.size());
+                for (int i = 0; i < records.size(); i++) {
+                    if (completedRecords.get(i) == null) {
+                        remainingRecords.add(records.get(i));
+                    }
+                }
+                LOG.debug("Skipping {} records already processed", records.size() - remainingRecords.size());
+                return remainingRecords;
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to look up the idempotency records of the batch, processing all the records", e);
+                return records;
+            }
+        };
+    }
+
     /**
      * Makes a function with one parameter idempotent with support for generic return types.
      * The parameter is used as the idempotency key.
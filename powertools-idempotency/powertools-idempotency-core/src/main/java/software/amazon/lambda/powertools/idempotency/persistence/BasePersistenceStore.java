@@ -22,7 +22,13 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
 import java.util.Spliterator;
@@ -73,12 +79,17 @@ public abstract class BasePersistenceStore implements PersistenceStore {
      * @param functionName The name of the function being decorated
      */
     public void configure(IdempotencyConfig config, String functionName) {
-        String funcEnv = System.getenv(LAMBDA_FUNCTION_NAME_ENV);
-        this.functionName = funcEnv != null ? funcEnv : "testFunction";
-        if (functionName != null && !functionName.isEmpty()) {
-            this.functionName += "." + functionName;
-        }
+        this.functionName = qualifiedFunctionName(functionName);
+        configure(config);
+    }
 
+    /**
+     * Initialize the base persistence layer from the configuration settings, without changing the name of the
+     * function used in the idempotency keys
+     *
+     * @param config Idempotency configuration settings
+     */
+    public void configure(IdempotencyConfig config) {
         if (configured) {
             // prevent being reconfigured multiple times
             return;
@@ -86,10 +97,10 @@ public abstract class BasePersistenceStore implements PersistenceStore {
 
         eventKeyJMESPath = config.getEventKeyJMESPath();
         if (eventKeyJMESPath != null) {
-            eventKeyCompiledJMESPath = JsonConfig.get().getJmesPath().compile(eventKeyJMESPath);
+            eventKeyCompiledJMESPath = JsonConfig.get().compileCached(eventKeyJMESPath);
         }
         if (config.getPayloadValidationJMESPath() != null) {
-            validationKeyJMESPath = JsonConfig.get().getJmesPath().compile(config.getPayloadValidationJMESPath());
+            validationKeyJMESPath = JsonConfig.get().compileCached(config.getPayloadValidationJMESPath());
             payloadValidationEnabled = true;
         }
         throwOnNoIdempotencyKey = config.throwOnNoIdempotencyKey();
@@ -103,6 +114,15 @@ public abstract class BasePersistenceStore implements PersistenceStore {
         configured = true;
     }
 
+    private static String qualifiedFunctionName(String functionName) {
+        String funcEnv = System.getenv(LAMBDA_FUNCTION_NAME_ENV);
+        String qualifiedFunctionName = funcEnv != null ? funcEnv : "testFunction";
+        if (functionName != null && !functionName.isEmpty()) {
+            qualifiedFunctionName += "." + functionName;
+        }
+        return qualifiedFunctionName;
+    }
+
     /**
      * Save record of function's execution completing successfully
      *
@@ -241,6 +261,71 @@ public abstract class BasePersistenceStore implements PersistenceStore {
         return dataRecord;
     }
 
+    /**
+     * Retrieve the records of several payloads at once, and keep those of the executions that completed successfully.
+     * Records are looked up in the local cache first, if enabled, and the others are fetched from the persistence
+     * store with {@link #getRecords(java.util.Collection)}, in as few calls as the store allows.
+     * <br/>
+     * A payload without idempotency key, whose record is in progress or expired, or does not match the stored
+     * payload, has no completed record: it must go through the regular idempotent execution.
+     * <br/>
+     * The idempotency keys are computed for the given function name, leaving the one of the store unchanged.
+     *
+     * @param data         Payloads
+     * @param functionName The name of the function that processed the payloads
+     * @param now
+     * @return for each payload, in order, its completed record, or null if it has none
+     */
+    public List<DataRecord> getCompletedRecords(List<JsonNode> data, String functionName, Instant now) {
+        String qualifiedFunctionName = qualifiedFunctionName(functionName);
+        List<String> idempotencyKeys = new ArrayList<>(data.size());
+        Set<String> keysToFetch = new LinkedHashSet<>();
+        for (JsonNode payload : data) {
+            String idempotencyKey = null;
+            try {
+                idempotencyKey = getHashedIdempotencyKey(payload, qualifiedFunctionName).orElse(null);
+            } catch (IdempotencyKeyException e) {
+                // the regular idempotent execution reports the missing key
+            }
+            idempotencyKeys.add(idempotencyKey);
+            if (idempotencyKey != null && retrieveFromCache(idempotencyKey, now) == null) {
+                keysToFetch.add(idempotencyKey);
+            }
+        }
+
+        Map<String, DataRecord> fetchedRecords = keysToFetch.isEmpty() ? Collections.emptyMap()
+                : getRecords(keysToFetch);
+        fetchedRecords.values().forEach(this::saveToCache);
+
+        List<DataRecord> completedRecords = new ArrayList<>(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            String idempotencyKey = idempotencyKeys.get(i);
+            DataRecord dataRecord = null;
+            if (idempotencyKey != null) {
+                dataRecord = fetchedRecords.get(idempotencyKey);
+                if (dataRecord == null) {
+                    dataRecord = retrieveFromCache(idempotencyKey, now);
+                }
+            }
+            completedRecords.add(isCompleted(data.get(i), dataRecord, now) ? dataRecord : null);
+        }
+        return completedRecords;
+    }
+
+    private boolean isCompleted(JsonNode data, DataRecord dataRecord, Instant now) {
+        if (dataRecord == null || dataRecord.isExpired(now)
+                || !DataRecord.Status.COMPLETED.equals(dataRecord.getStatus())) {
+            return false;
+        }
+        try {
+            validatePayload(data, dataRecord);
+            return true;
+        } catch (IdempotencyValidationException e) {
+            // the regular idempotent execution reports the mismatch
+            return false;
+        }
+    }
+
     /**
      * Extract idempotency key and return a hashed representation
      *
@@ -248,6 +333,10 @@ public abstract class BasePersistenceStore implements PersistenceStore {
      * @return Hashed representation of the data extracted by the jmespath expression
      */
     private Optional<String> getHashedIdempotencyKey(JsonNode data) {
+        return getHashedIdempotencyKey(data, functionName);
+    }
+
+    private Optional<String> getHashedIdempotencyKey(JsonNode data, String functionName) {
         JsonNode node = data;
 
         if (eventKeyJMESPath != null) {
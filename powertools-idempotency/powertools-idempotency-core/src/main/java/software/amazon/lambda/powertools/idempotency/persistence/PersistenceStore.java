@@ -18,6 +18,9 @@ import software.amazon.lambda.powertools.idempotency.exceptions.IdempotencyItemA
 import software.amazon.lambda.powertools.idempotency.exceptions.IdempotencyItemNotFoundException;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Persistence layer that will store the idempotency result.
@@ -34,6 +37,27 @@ public interface PersistenceStore {
      */
     DataRecord getRecord(String idempotencyKey) throws IdempotencyItemNotFoundException;
 
+    /**
+     * Retrieve several items from persistence store using their idempotency keys.
+     * The default implementation retrieves the items one by one: override it when the store can retrieve several
+     * items in a single call.
+     *
+     * @param idempotencyKeys the keys of the records
+     * @return DataRecord representation of the existing records found in persistence store, by idempotency key.
+     * Keys without a record are absent from the map.
+     */
+    default Map<String, DataRecord> getRecords(Collection<String> idempotencyKeys) {
+        Map<String, DataRecord> records = new HashMap<>();
+        for (String idempotencyKey : idempotencyKeys) {
+            try {
+                records.put(idempotencyKey, getRecord(idempotencyKey));
+            } catch (IdempotencyItemNotFoundException e) {
+                // not processed yet
+            }
+        }
+        return records;
+    }
+
     /**
      * Add a DataRecord to persistence store if it does not already exist with that key
      *
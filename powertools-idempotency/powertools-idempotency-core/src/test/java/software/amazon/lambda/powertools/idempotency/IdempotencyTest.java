@@ -16,10 +16,14 @@ package software.amazon.lambda.powertools.idempotency;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
 
@@ -32,6 +36,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 
 import software.amazon.lambda.powertools.common.stubs.TestLambdaContext;
 import software.amazon.lambda.powertools.idempotency.handlers.IdempotencyFunctionalFunction;
@@ -39,6 +44,7 @@ import software.amazon.lambda.powertools.idempotency.handlers.IdempotencyMultiAr
 import software.amazon.lambda.powertools.idempotency.model.Basket;
 import software.amazon.lambda.powertools.idempotency.model.Product;
 import software.amazon.lambda.powertools.idempotency.persistence.BasePersistenceStore;
+import software.amazon.lambda.powertools.idempotency.persistence.DataRecord;
 import software.amazon.lambda.powertools.idempotency.testutils.InMemoryPersistenceStore;
 
 @ExtendWith(MockitoExtension.class)
@@ -308,4 +314,52 @@ class IdempotencyTest {
         assertThat(result2.get("basket1").getProducts().get(0).getName()).isEqualTo("product1");
         assertThat(callCount[0]).isEqualTo(1); // Function should NOT be called again
     }
+
+    @Test
+    void skipCompleted_shouldRemoveRecordsAlreadyProcessed() {
+        BasePersistenceStore inMemoryStore = spy(new InMemoryPersistenceStore());
+        Idempotency.config()
+                .withPersistenceStore(inMemoryStore)
+                .configure();
+        Idempotency.registerLambdaContext(context);
+        Idempotency.makeIdempotent("processOrder", "order-1", () -> "done", String.class);
+        Idempotency.makeIdempotent("otherFunction", "order-2", () -> "done", String.class);
+
+        List<String> remainingOrders = Idempotency.<String>skipCompleted("processOrder", order -> order)
+                .apply(Arrays.asList("order-1", "order-2", "order-3"));
+
+        assertThat(remainingOrders).containsExactly("order-2", "order-3");
+        verify(inMemoryStore).getRecords(any());
+    }
+
+    @Test
+    void skipCompleted_shouldNotChangeTheFunctionNameOfTheStore() {
+        BasePersistenceStore inMemoryStore = new InMemoryPersistenceStore();
+        Idempotency.config()
+                .withPersistenceStore(inMemoryStore)
+                .configure();
+        Idempotency.registerLambdaContext(context);
+        Idempotency.makeIdempotent("otherFunction", "order-1", () -> "done", String.class);
+
+        Idempotency.<String>skipCompleted("processOrder", order -> order)
+                .apply(Arrays.asList("order-1", "order-2"));
+
+        // the store still computes the keys of otherFunction
+        DataRecord dataRecord = inMemoryStore.getRecord(TextNode.valueOf("order-1"), Instant.now());
+        assertThat(dataRecord.getIdempotencyKey()).startsWith("testFunction.otherFunction#");
+    }
+
+    @Test
+    void skipCompleted_shouldKeepAllRecords_whenStoreFails() {
+        BasePersistenceStore failingStore = spy(new InMemoryPersistenceStore());
+        Idempotency.config()
+                .withPersistenceStore(failingStore)
+                .configure();
+        doThrow(new IllegalStateException("unreachable")).when(failingStore).getRecords(any());
+
+        List<String> remainingOrders = Idempotency.<String>skipCompleted(order -> order)
+                .apply(Arrays.asList("order-1", "order-2"));
+
+        assertThat(remainingOrders).containsExactly("order-1", "order-2");
+    }
 }
@@ -24,10 +24,13 @@ import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import software.amazon.lambda.powertools.common.internal.UserAgentConfigurator;
@@ -41,9 +44,15 @@ import software.amazon.lambda.powertools.idempotency.persistence.PersistenceStor
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -58,6 +67,12 @@ import static software.amazon.lambda.powertools.idempotency.persistence.DataReco
 public final class DynamoDBPersistenceStore extends BasePersistenceStore implements PersistenceStore, Resource {
 
     public static final String IDEMPOTENCY = "idempotency";
+    // The maximum number of keys of a BatchGetItem request
+    private static final int BATCH_GET_MAX_KEYS = 100;
+    // How many times keys left unprocessed by a BatchGetItem request are requested again
+    private static final int BATCH_GET_MAX_RETRIES = 3;
+    // The upper bound of the first backoff before requesting unprocessed keys again, doubled at each retry
+    private static final long BATCH_GET_BASE_BACKOFF_MILLIS = 50;
     private static final Logger LOG = LoggerFactory.getLogger(DynamoDBPersistenceStore.class);
     private final String tableName;
     private final String keyAttr;
@@ -168,6 +183,67 @@ public final class DynamoDBPersistenceStore extends BasePersistenceStore impleme
         return itemToRecord(response.item());
     }
 
+    /**
+     * Retrieves the records with BatchGetItem, by chunks of 100 keys, using strongly consistent reads like
+     * {@link #getRecord(String)}. Keys left unprocessed by DynamoDB, e.g. when throttled, are requested again a
+     * few times, after an exponential backoff with full jitter. After that, they are reported as without record:
+     * callers then fall back to the regular path.
+     *
+     * @param idempotencyKeys the keys of the records
+     * @return the existing records, by idempotency key
+     */
+    @Override
+    public Map<String, DataRecord> getRecords(Collection<String> idempotencyKeys) {
+        Map<String, DataRecord> records = new HashMap<>();
+        // BatchGetItem rejects requests with duplicate keys
+        List<String> keys = new ArrayList<>(new LinkedHashSet<>(idempotencyKeys));
+        for (int start = 0; start < keys.size(); start += BATCH_GET_MAX_KEYS) {
+            List<Map<String, AttributeValue>> chunk = new ArrayList<>();
+            for (String idempotencyKey : keys.subList(start, Math.min(start + BATCH_GET_MAX_KEYS, keys.size()))) {
+                chunk.add(getKey(idempotencyKey));
+            }
+            Map<String, KeysAndAttributes> requestItems = Collections.singletonMap(tableName,
+                    KeysAndAttributes.builder().keys(chunk).consistentRead(true).build());
+            for (int attempt = 0; ; attempt++) {
+                BatchGetItemResponse response = dynamoDbClient.batchGetItem(
+                        BatchGetItemRequest.builder().requestItems(requestItems).build());
+                for (Map<String, AttributeValue> item : response.responses().getOrDefault(tableName,
+                        Collections.emptyList())) {
+                    DataRecord record = itemToRecord(item);
+                    records.put(record.getIdempotencyKey(), record);
+                }
+                requestItems = response.hasUnprocessedKeys() ? response.unprocessedKeys() : Collections.emptyMap();
+                if (requestItems.isEmpty()) {
+                    break;
+                }
+                if (attempt == BATCH_GET_MAX_RETRIES || !backOff(attempt)) {
+                    LOG.debug("Giving up on {} unprocessed idempotency keys",
+                            requestItems.get(tableName) != null ? requestItems.get(tableName).keys().size() : 0);
+                    break;
+                }
+            }
+        }
+        LOG.debug("Found {} records for {} idempotency keys", records.size(), keys.size());
+        return records;
+    }
+
+    /**
+     * Waits before requesting unprocessed keys again, for a random time up to a bound doubling at each retry.
+     *
+     * @param attempt the attempt that left keys unprocessed, starting at 0
+     * @return false if the thread was interrupted while waiting
+     */
+    private static boolean backOff(int attempt) {
+        long maxBackoffMillis = BATCH_GET_BASE_BACKOFF_MILLIS << attempt;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxBackoffMillis + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Store's the given idempotency record in the DDB store. If there
      * is an existing record that has expired - either due to the
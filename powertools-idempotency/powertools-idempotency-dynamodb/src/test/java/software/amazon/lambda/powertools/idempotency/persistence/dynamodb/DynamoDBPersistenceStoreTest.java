@@ -18,14 +18,20 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.OptionalLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -34,10 +40,13 @@ import org.mockito.ArgumentCaptor;
 
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import software.amazon.lambda.powertools.idempotency.Constants;
@@ -220,6 +229,115 @@ class DynamoDBPersistenceStoreTest {
                 .isInstanceOf(IdempotencyItemNotFoundException.class);
     }
 
+    @Test
+    void getRecords_shouldRequestKeysByChunksOf100_withConsistentReads() {
+        // GIVEN
+        List<String> keys = IntStream.range(0, 250).mapToObj(i -> "key" + i).collect(Collectors.toList());
+        when(mockClient.batchGetItem(any(BatchGetItemRequest.class))).thenAnswer(invocation -> {
+            BatchGetItemRequest request = invocation.getArgument(0);
+            // every requested key has a record
+            List<Map<String, AttributeValue>> items = request.requestItems().get(TABLE_NAME).keys().stream()
+                    .map(key -> item("id", key.get("id").s()))
+                    .collect(Collectors.toList());
+            return BatchGetItemResponse.builder().responses(Collections.singletonMap(TABLE_NAME, items)).build();
+        });
+
+        // WHEN
+        Map<String, DataRecord> records = persistenceStore.getRecords(keys);
+
+        // THEN
+        ArgumentCaptor<BatchGetItemRequest> captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(mockClient, times(3)).batchGetItem(captor.capture());
+        assertThat(captor.getAllValues())
+                .extracting(request -> request.requestItems().get(TABLE_NAME).keys().size())
+                .containsExactly(100, 100, 50);
+        assertThat(captor.getAllValues())
+                .allMatch(request -> request.requestItems().get(TABLE_NAME).consistentRead());
+        assertThat(records).containsOnlyKeys(keys);
+        assertThat(records.get("key42").getStatus()).isEqualTo(DataRecord.Status.COMPLETED);
+    }
+
+    @Test
+    void getRecords_shouldUseStaticPartitionKeyAndSortKey_whenSortKeyConfigured() {
+        // GIVEN
+        DynamoDBPersistenceStore customStore = DynamoDBPersistenceStore.builder()
+                .withTableName(TABLE_NAME)
+                .withDynamoDbClient(mockClient)
+                .withKeyAttr("pk")
+                .withSortKeyAttr("sk")
+                .withStaticPkValue("IDEMPOTENCY")
+                .build();
+        Map<String, AttributeValue> existingItem = item("sk", "key1");
+        existingItem.put("pk", AttributeValue.builder().s("IDEMPOTENCY").build());
+        when(mockClient.batchGetItem(any(BatchGetItemRequest.class))).thenReturn(BatchGetItemResponse.builder()
+                .responses(Collections.singletonMap(TABLE_NAME, Collections.singletonList(existingItem)))
+                .build());
+
+        // WHEN
+        Map<String, DataRecord> records = customStore.getRecords(Arrays.asList("key1", "key2", "key1"));
+
+        // THEN
+        ArgumentCaptor<BatchGetItemRequest> captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(mockClient).batchGetItem(captor.capture());
+        // duplicate keys are requested once
+        assertThat(captor.getValue().requestItems().get(TABLE_NAME).keys()).containsExactly(
+                key("pk", "IDEMPOTENCY", "sk", "key1"),
+                key("pk", "IDEMPOTENCY", "sk", "key2"));
+        assertThat(records).containsOnlyKeys("key1");
+        assertThat(records.get("key1").getIdempotencyKey()).isEqualTo("key1");
+    }
+
+    @Test
+    void getRecords_shouldRequestUnprocessedKeysAgain() {
+        // GIVEN
+        Map<String, KeysAndAttributes> unprocessedKeys = Collections.singletonMap(TABLE_NAME,
+                KeysAndAttributes.builder()
+                        .keys(Collections.singletonList(
+                                Collections.singletonMap("id", AttributeValue.builder().s("key2").build())))
+                        .consistentRead(true)
+                        .build());
+        when(mockClient.batchGetItem(any(BatchGetItemRequest.class)))
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Collections.singletonMap(TABLE_NAME,
+                                Collections.singletonList(item("id", "key1"))))
+                        .unprocessedKeys(unprocessedKeys)
+                        .build())
+                .thenReturn(BatchGetItemResponse.builder()
+                        .responses(Collections.singletonMap(TABLE_NAME,
+                                Collections.singletonList(item("id", "key2"))))
+                        .build());
+
+        // WHEN
+        Map<String, DataRecord> records = persistenceStore.getRecords(Arrays.asList("key1", "key2"));
+
+        // THEN
+        ArgumentCaptor<BatchGetItemRequest> captor = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        verify(mockClient, times(2)).batchGetItem(captor.capture());
+        assertThat(captor.getAllValues().get(1).requestItems()).isEqualTo(unprocessedKeys);
+        assertThat(records).containsOnlyKeys("key1", "key2");
+    }
+
+    @Test
+    void getRecords_shouldReportKeysWithoutRecord_whenStillUnprocessedAfterRetries() {
+        // GIVEN
+        Map<String, KeysAndAttributes> unprocessedKeys = Collections.singletonMap(TABLE_NAME,
+                KeysAndAttributes.builder()
+                        .keys(Collections.singletonList(
+                                Collections.singletonMap("id", AttributeValue.builder().s("key1").build())))
+                        .consistentRead(true)
+                        .build());
+        when(mockClient.batchGetItem(any(BatchGetItemRequest.class))).thenReturn(BatchGetItemResponse.builder()
+                .unprocessedKeys(unprocessedKeys)
+                .build());
+
+        // WHEN
+        Map<String, DataRecord> records = persistenceStore.getRecords(Collections.singletonList("key1"));
+
+        // THEN - the first request and 3 retries
+        verify(mockClient, times(4)).batchGetItem(any(BatchGetItemRequest.class));
+        assertThat(records).isEmpty();
+    }
+
     @Test
     void updateRecord_shouldSendCorrectUpdateItemRequest() {
         // GIVEN
@@ -360,4 +478,21 @@ class DynamoDBPersistenceStoreTest {
         assertThatThrownBy(() -> store.getRecord("fake"))
                 .isInstanceOf(NullPointerException.class);
     }
+
+    private static Map<String, AttributeValue> item(String keyAttr, String idempotencyKey) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(keyAttr, AttributeValue.builder().s(idempotencyKey).build());
+        item.put("status", AttributeValue.builder().s("COMPLETED").build());
+        item.put("expiration", AttributeValue.builder()
+                .n(String.valueOf(Instant.now().plus(3600, ChronoUnit.SECONDS).getEpochSecond())).build());
+        return item;
+    }
+
+    private static Map<String, AttributeValue> key(String partitionKeyAttr, String partitionKey, String sortKeyAttr,
+            String sortKey) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put(partitionKeyAttr, AttributeValue.builder().s(partitionKey).build());
+        key.put(sortKeyAttr, AttributeValue.builder().s(sortKey).build());
+        return key;
+    }
 }
@@ -265,7 +265,7 @@ public final class PowertoolsLogging {
     private static void captureCorrelationId(String correlationIdPath, Object event) {
         try {
             JsonNode jsonNode = JsonConfig.get().getObjectMapper().valueToTree(event);
-            Expression<JsonNode> jmesExpression = JsonConfig.get().getJmesPath().compile(correlationIdPath);
+            Expression<JsonNode> jmesExpression = JsonConfig.get().compileCached(correlationIdPath);
             JsonNode node = jmesExpression.search(jsonNode);
 
             String asText = node.asText();
@@ -16,7 +16,8 @@ package software.amazon.lambda.powertools.utilities;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static software.amazon.lambda.powertools.utilities.jmespath.Base64Function.decode;
-import static software.amazon.lambda.powertools.utilities.jmespath.Base64GZipFunction.decompress;
+import static software.amazon.lambda.powertools.utilities.jmespath.Base64Function.decodeAsStream;
+import static software.amazon.lambda.powertools.utilities.jmespath.Base64GZipFunction.decompressAsStream;
 
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
@@ -34,13 +35,22 @@ import com.amazonaws.services.lambda.runtime.events.SNSEvent;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -95,9 +105,7 @@ public class EventDeserializer {
             return new EventPart(event.getRecords().get(0).getSNS().getMessage());
         } else if (object instanceof SQSEvent) {
             SQSEvent event = (SQSEvent) object;
-            return new EventPart(event.getRecords().stream()
-                    .map(SQSEvent.SQSMessage::getBody)
-                    .collect(Collectors.toList()));
+            return new EventPart(event.getRecords(), SQSEvent.SQSMessage::getBody);
         } else if (object instanceof SQSEvent.SQSMessage) {
             return new EventPart(((SQSEvent.SQSMessage) object).getBody());
         } else if (object instanceof ScheduledEvent) {
@@ -108,51 +116,41 @@ public class EventDeserializer {
             return new EventPart(event.getBody());
         } else if (object instanceof CloudWatchLogsEvent) {
             CloudWatchLogsEvent event = (CloudWatchLogsEvent) object;
-            return new EventPart(decompress(decode(event.getAwsLogs().getData().getBytes(UTF_8))));
+            // decoded and decompressed while being parsed, instead of being held in memory
+            String data = event.getAwsLogs().getData();
+            return new EventPart(() -> decompressAsStream(decodeAsStream(data)));
         } else if (object instanceof CloudFormationCustomResourceEvent) {
             CloudFormationCustomResourceEvent event = (CloudFormationCustomResourceEvent) object;
             return new EventPart(event.getResourceProperties());
         } else if (object instanceof KinesisEvent) {
             KinesisEvent event = (KinesisEvent) object;
-            return new EventPart(event.getRecords().stream()
-                    .map(r -> decode(r.getKinesis().getData()))
-                    .collect(Collectors.toList()));
+            return new EventPart(event.getRecords(), r -> decode(r.getKinesis().getData().duplicate()));
         } else if (object instanceof KinesisEvent.KinesisEventRecord) {
-            return new EventPart(decode(((KinesisEvent.KinesisEventRecord)object).getKinesis().getData()));
+            return new EventPart(decode(((KinesisEvent.KinesisEventRecord) object).getKinesis().getData().duplicate()));
         } else if (object instanceof KinesisFirehoseEvent) {
             KinesisFirehoseEvent event = (KinesisFirehoseEvent) object;
-            return new EventPart(event.getRecords().stream()
-                    .map(r -> decode(r.getData()))
-                    .collect(Collectors.toList()));
+            return new EventPart(event.getRecords(), r -> decode(r.getData().duplicate()));
         } else if (object instanceof KafkaEvent) {
             KafkaEvent event = (KafkaEvent) object;
             return new EventPart(event.getRecords().values().stream()
                     .flatMap(List::stream)
-                    .map(r -> decode(r.getValue()))
-                    .collect(Collectors.toList()));
+                    .collect(Collectors.toList()), r -> decode(r.getValue()));
         } else if (object instanceof ActiveMQEvent) {
             ActiveMQEvent event = (ActiveMQEvent) object;
-            return new EventPart(event.getMessages().stream()
-                    .map(m -> decode(m.getData()))
-                    .collect(Collectors.toList()));
+            return new EventPart(event.getMessages(), m -> decode(m.getData()));
         } else if (object instanceof RabbitMQEvent) {
             RabbitMQEvent event = (RabbitMQEvent) object;
             return new EventPart(event.getRmqMessagesByQueue().values().stream()
                     .flatMap(List::stream)
-                    .map(r -> decode(r.getData()))
-                    .collect(Collectors.toList()));
+                    .collect(Collectors.toList()), r -> decode(r.getData()));
         } else if (object instanceof KinesisAnalyticsFirehoseInputPreprocessingEvent) {
             KinesisAnalyticsFirehoseInputPreprocessingEvent event =
                     (KinesisAnalyticsFirehoseInputPreprocessingEvent) object;
-            return new EventPart(event.getRecords().stream()
-                    .map(r -> decode(r.getData()))
-                    .collect(Collectors.toList()));
+            return new EventPart(event.getRecords(), r -> decode(r.getData().duplicate()));
         } else if (object instanceof KinesisAnalyticsStreamsInputPreprocessingEvent) {
             KinesisAnalyticsStreamsInputPreprocessingEvent event =
                     (KinesisAnalyticsStreamsInputPreprocessingEvent) object;
-            return new EventPart(event.getRecords().stream()
-                    .map(r -> decode(r.getData()))
-                    .collect(Collectors.toList()));
+            return new EventPart(event.getRecords(), r -> decode(r.getData().duplicate()));
         } else {
             // does not really make sense to use this EventDeserializer when you already have a typed object
             // just not to throw an exception
@@ -161,24 +159,84 @@ public class EventDeserializer {
         }
     }
 
+    /**
+     * Extract the part of an event selected by a JMESPath envelope, reading the event directly from the stream given
+     * to a {@code RequestStreamHandler}. For example:
+     * <ul>
+     *     <li>{@code body} for an API Gateway event</li>
+     *     <li>{@code Records[*].body} for an SQS event <i>(list)</i></li>
+     *     <li>{@code detail} for an EventBridge event</li>
+     * </ul>
+     * Envelopes made only of fields and indexes, with at most one {@code [*]} projection, are evaluated while the
+     * event is parsed: the rest of the event is skipped without being materialized, and only the selected values are
+     * kept. Other envelopes, using functions like {@code powertools_json} for instance, are evaluated on the whole
+     * event.
+     * To be used in conjunction with {@link EventPart#as(Class)} or {@link EventPart#asListOf(Class)}
+     * for the deserialization.
+     *
+     * @param input    the input stream of your Lambda function handler method
+     * @param envelope the JMESPath expression selecting the meaningful part of the event
+     * @return the part of the event selected by the envelope
+     */
+    public static EventPart extractDataFrom(InputStream input, String envelope) {
+        JsonConfig config = JsonConfig.get();
+        try (JsonParser parser = config.getObjectMapper().createParser(input)) {
+            StreamingEnvelope streamingEnvelope = envelope == null || envelope.isEmpty()
+                    ? null : StreamingEnvelope.parse(envelope);
+            JsonNode selected;
+            if (streamingEnvelope != null) {
+                selected = streamingEnvelope.select(parser);
+            } else {
+                JsonNode event = parser.readValueAsTree();
+                selected = envelope == null || envelope.isEmpty()
+                        ? event : config.compileCached(envelope).search(event);
+            }
+            if (selected == null || selected.isNull() || selected.isMissingNode()) {
+                return new EventPart((String) null);
+            }
+            if (selected.isTextual()) {
+                return new EventPart(selected.textValue());
+            }
+            return new EventPart(selected);
+        } catch (IOException e) {
+            throw new EventDeserializationException("Cannot extract <" + envelope + "> from the event", e);
+        }
+    }
+
     /**
      * Meaningful part of a Lambda event.<br/>
      * Use {@link #extractDataFrom(Object)} to retrieve an instance of this class.
+     * <p>
+     * For events made of several records (SQS, Kinesis, Kafka...), the records are only decoded when they are
+     * deserialized, one by one when using {@link #asStreamOf(Class)} or {@link #asIteratorOf(Class)}.
      */
     public static class EventPart {
         private Map<String, Object> contentMap;
         private String content;
-        private List<String> contentList;
+        private ContentStream contentStream;
+        private JsonNode contentNode;
+        private List<?> contentList;
+        private Function<Object, String> contentDecoder;
         private Object contentObject;
 
-        private EventPart(List<String> contentList) {
+        @SuppressWarnings("unchecked")
+        private <S> EventPart(List<S> contentList, Function<? super S, String> contentDecoder) {
             this.contentList = contentList;
+            this.contentDecoder = (Function<Object, String>) contentDecoder;
         }
 
         private EventPart(String content) {
             this.content = content;
         }
 
+        private EventPart(ContentStream contentStream) {
+            this.contentStream = contentStream;
+        }
+
+        private EventPart(JsonNode contentNode) {
+            this.contentNode = contentNode;
+        }
+
         private EventPart(Map<String, Object> contentMap) {
             this.contentMap = contentMap;
         }
@@ -201,7 +259,21 @@ public class EventDeserializer {
                         // do not read json when returning String, just return the String
                         return (T) content;
                     }
-                    return JsonConfig.get().getObjectMapper().reader().readValue(content, clazz);
+                    return JsonConfig.get().getReader(clazz).readValue(content);
+                }
+                if (contentStream != null) {
+                    try (InputStream in = contentStream.open()) {
+                        if (String.class.equals(clazz)) {
+                            return (T) new String(in.readAllBytes(), UTF_8);
+                        }
+                        return JsonConfig.get().getReader(clazz).readValue(in);
+                    }
+                }
+                if (contentNode != null) {
+                    if (String.class.equals(clazz)) {
+                        return (T) contentNode.toString();
+                    }
+                    return JsonConfig.get().getReader(clazz).readValue(contentNode);
                 }
                 if (contentMap != null) {
                     return JsonConfig.get().getObjectMapper().convertValue(contentMap, clazz);
@@ -223,8 +295,7 @@ public class EventDeserializer {
         public <M> M as() {
             TypeReference<M> typeRef = new TypeReference<M>() {};
 
-            try {
-                JsonParser parser = JsonConfig.get().getObjectMapper().createParser(content);
+            try (JsonParser parser = createParser(JsonConfig.get().getObjectMapper().reader())) {
                 return JsonConfig.get().getObjectMapper().reader().readValue(parser, typeRef);
             } catch (IOException e) {
                 throw new EventDeserializationException("Cannot load the event as " + typeRef, e);
@@ -239,34 +310,173 @@ public class EventDeserializer {
          * @return a list of objects of type T (deserialized from the content)
          */
         public <T> List<T> asListOf(Class<T> clazz) {
-            if (contentList == null && content == null) {
-                if (contentMap != null || contentObject != null) {
+            checkIsList();
+            if (content != null || contentStream != null) {
+                ObjectReader reader = JsonConfig.get().getListReader(clazz);
+                try (JsonParser parser = createParser(reader)) {
+                    return reader.readValue(parser);
+                } catch (IOException e) {
                     throw new EventDeserializationException(
-                            "The content of this event is not a list, consider using 'as' instead");
+                            "Cannot load the event as a list of " + clazz.getSimpleName() +
+                                    ", consider using 'as' instead", e);
                 }
-                // should not occur, except if the event is really malformed
-                throw new IllegalStateException("Event content is null: the event may be malformed (missing fields)");
+            } else {
+                return asStreamOf(clazz).collect(Collectors.toList());
             }
-            if (content != null) {
-                ObjectReader reader = JsonConfig.get().getObjectMapper().readerForListOf(clazz);
+        }
+
+        /**
+         * Deserialize this part of event from JSON to a stream of objects of type T. Each element is only decoded
+         * and deserialized when the stream pulls it, so that the whole list never needs to be held in memory.
+         * <p>
+         * For events made of several records, the stream can be made parallel with {@link Stream#parallel()}: the
+         * records are then split among the threads, and each thread decodes and deserializes its own records.
+         * <p>
+         * When the content is a JSON array, the stream reads it with a parser that is closed once all the elements
+         * are read: close the stream, for instance with try-with-resources, when it may not be fully consumed.
+         *
+         * @param clazz the target type for deserialization
+         * @param <T>   type of object to return
+         * @return a stream of objects of type T (deserialized from the content)
+         */
+        public <T> Stream<T> asStreamOf(Class<T> clazz) {
+            checkIsList();
+            ObjectReader reader = JsonConfig.get().getReader(clazz);
+            if (contentNode != null) {
+                if (!contentNode.isArray()) {
+                    throw new EventDeserializationException("Cannot load the event as a list of " +
+                            clazz.getSimpleName() + ", consider using 'as' instead");
+                }
+                return StreamSupport.stream(contentNode.spliterator(), false)
+                        .map(element -> readElement(reader, element, clazz));
+            }
+            if (content != null || contentStream != null) {
+                return readValues(reader, clazz);
+            }
+            return contentList.stream().map(element -> {
+                String s = contentDecoder.apply(element);
                 try {
-                    return reader.readValue(content);
-                } catch (JsonProcessingException e) {
+                    return s == null ? null : reader.<T>readValue(s);
+                } catch (IOException e) {
                     throw new EventDeserializationException(
-                            "Cannot load the event as a list of " + clazz.getSimpleName() +
-                                    ", consider using 'as' instead", e);
+                            "Cannot load the event as a list of " + clazz.getSimpleName(), e);
                 }
-            } else {
-                return contentList.stream().map(s ->
-                {
-                    try {
-                        return s == null ? null : JsonConfig.get().getObjectMapper().reader().readValue(s, clazz);
-                    } catch (IOException e) {
-                        throw new EventDeserializationException(
-                                "Cannot load the event as a list of " + clazz.getSimpleName(), e);
+            });
+        }
+
+        /**
+         * Deserialize this part of event from JSON to an iterator over objects of type T. Each element is only
+         * decoded and deserialized when the iterator reaches it.
+         *
+         * @param clazz the target type for deserialization
+         * @param <T>   type of object to return
+         * @return an iterator over objects of type T (deserialized from the content)
+         * @see #asStreamOf(Class)
+         */
+        public <T> Iterator<T> asIteratorOf(Class<T> clazz) {
+            return asStreamOf(clazz).iterator();
+        }
+
+        private <T> Stream<T> readValues(ObjectReader reader, Class<T> clazz) {
+            String errorMessage = "Cannot load the event as a list of " + clazz.getSimpleName() +
+                    ", consider using 'as' instead";
+            JsonParser parser = null;
+            try {
+                parser = createParser(reader);
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new EventDeserializationException(errorMessage);
+                }
+                // move to the first element, so that the elements are read one by one rather than as a single array
+                if (parser.nextToken() == JsonToken.END_ARRAY) {
+                    parser.close();
+                    return Stream.empty();
+                }
+                JsonParser source = parser;
+                MappingIterator<T> values = reader.readValues(parser);
+                Iterator<T> iterator = new Iterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        try {
+                            if (values.hasNextValue()) {
+                                return true;
+                            }
+                            source.close();
+                            return false;
+                        } catch (IOException e) {
+                            closeQuietly(source);
+                            throw new EventDeserializationException(errorMessage, e);
+                        }
+                    }
+
+                    @Override
+                    public T next() {
+                        try {
+                            return values.nextValue();
+                        } catch (IOException e) {
+                            closeQuietly(source);
+                            throw new EventDeserializationException(errorMessage, e);
+                        }
                     }
-                }).collect(Collectors.toList());
+                };
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                        .onClose(() -> closeQuietly(source));
+            } catch (IOException e) {
+                closeQuietly(parser);
+                throw new EventDeserializationException(errorMessage, e);
+            } catch (RuntimeException e) {
+                closeQuietly(parser);
+                throw e;
             }
         }
+
+        private static void closeQuietly(JsonParser parser) {
+            if (parser == null) {
+                return;
+            }
+            try {
+                parser.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close the parser of the event", e);
+            }
+        }
+
+        private <T> T readElement(ObjectReader reader, JsonNode element, Class<T> clazz) {
+            try {
+                if (element.isNull()) {
+                    return null;
+                }
+                // elements selected as strings, like the bodies of SQS messages, hold JSON text
+                return element.isTextual() ? reader.readValue(element.textValue()) : reader.readValue(element);
+            } catch (IOException e) {
+                throw new EventDeserializationException(
+                        "Cannot load the event as a list of " + clazz.getSimpleName(), e);
+            }
+        }
+
+        private JsonParser createParser(ObjectReader reader) throws IOException {
+            if (contentNode != null) {
+                return reader.treeAsTokens(contentNode);
+            }
+            return content != null ? reader.createParser(content) : reader.createParser(contentStream.open());
+        }
+
+        private void checkIsList() {
+            if (contentList == null && content == null && contentStream == null && contentNode == null) {
+                if (contentMap != null || contentObject != null) {
+                    throw new EventDeserializationException(
+                            "The content of this event is not a list, consider using 'as' instead");
+                }
+                // should not occur, except if the event is really malformed
+                throw new IllegalStateException("Event content is null: the event may be malformed (missing fields)");
+            }
+        }
+    }
+
+    /**
+     * Source of the content of an event part, opened again for each deserialization.
+     */
+    @FunctionalInterface
+    private interface ContentStream {
+        InputStream open() throws IOException;
     }
 }
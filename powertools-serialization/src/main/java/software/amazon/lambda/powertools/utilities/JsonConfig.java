@@ -15,18 +15,28 @@
 package software.amazon.lambda.powertools.utilities;
 
 import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 
+import io.burt.jmespath.Expression;
 import io.burt.jmespath.JmesPath;
 import io.burt.jmespath.RuntimeConfiguration;
 import io.burt.jmespath.function.BaseFunction;
@@ -51,7 +61,23 @@ public final class JsonConfig {
             .addModule(new JodaModule())
             .build();
 
-    private static final ThreadLocal<ObjectMapper> om = ThreadLocal.withInitial(objectMapperSupplier);
+    // ObjectMapper is thread-safe once configured: a single instance shares its serializer caches across threads
+    private static final ObjectMapper om = objectMapperSupplier.get();
+
+    private static final int MAX_CACHED_EXPRESSIONS = 128;
+
+    private final Map<JavaType, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private final Map<JavaType, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    // Least recently used expressions are evicted first, so that dynamic expressions cannot grow the cache unbounded
+    private final Map<String, Expression<JsonNode>> expressions = Collections.synchronizedMap(
+            new LinkedHashMap<String, Expression<JsonNode>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Expression<JsonNode>> eldest) {
+                    return size() > MAX_CACHED_EXPRESSIONS;
+                }
+            });
 
     private final FunctionRegistry defaultFunctions = FunctionRegistry.defaultRegistry();
 
@@ -75,12 +101,79 @@ public final class JsonConfig {
     }
 
     /**
-     * Return an Object Mapper. Use this to customize (de)serialization config.
+     * Return the Object Mapper, shared by all threads. Use this to customize (de)serialization config.
+     * <p>
+     * The readers and writers returned by {@link #getReader(JavaType)} and {@link #getWriter(JavaType)} are
+     * recreated when the features of the mapper change. Use {@link #configureObjectMapper(Consumer)} for other
+     * changes, such as setting injectable values.
      *
      * @return the {@link ObjectMapper} to serialize / deserialize JSON
      */
     public ObjectMapper getObjectMapper() {
-        return om.get();
+        return om;
+    }
+
+    /**
+     * Customize the Object Mapper, shared by all threads, and discard the readers and writers created with its
+     * previous configuration.
+     *
+     * @param configurer the customization of the {@link ObjectMapper}
+     */
+    public void configureObjectMapper(Consumer<ObjectMapper> configurer) {
+        configurer.accept(om);
+        readers.clear();
+        writers.clear();
+    }
+
+    /**
+     * Return a reader for the given type, created once and shared by all threads.
+     *
+     * @param type the target type for deserialization
+     * @return the {@link ObjectReader} to deserialize JSON to the given type
+     */
+    public ObjectReader getReader(JavaType type) {
+        ObjectReader reader = readers.get(type);
+        // the mapper replaces its configuration when it is reconfigured, leaving the cached reader stale
+        if (reader == null || reader.getConfig() != om.getDeserializationConfig()) {
+            reader = om.readerFor(type);
+            readers.put(type, reader);
+        }
+        return reader;
+    }
+
+    /**
+     * Return a reader for the given class, created once and shared by all threads.
+     *
+     * @param clazz the target class for deserialization
+     * @return the {@link ObjectReader} to deserialize JSON to the given class
+     */
+    public ObjectReader getReader(Class<?> clazz) {
+        return getReader(om.constructType(clazz));
+    }
+
+    /**
+     * Return a reader for lists of the given class, created once and shared by all threads.
+     *
+     * @param clazz the class of the elements of the list
+     * @return the {@link ObjectReader} to deserialize JSON arrays to lists of the given class
+     */
+    public ObjectReader getListReader(Class<?> clazz) {
+        return getReader(om.getTypeFactory().constructCollectionType(List.class, clazz));
+    }
+
+    /**
+     * Return a writer for the given type, created once and shared by all threads.
+     *
+     * @param type the type of the objects to serialize
+     * @return the {@link ObjectWriter} to serialize objects of the given type to JSON
+     */
+    public ObjectWriter getWriter(JavaType type) {
+        ObjectWriter writer = writers.get(type);
+        if (writer == null || writer.getConfig() != om.getSerializationConfig()) {
+            writer = om.writerFor(type);
+            writers.put(type, writer);
+        }
+        return writer;
     }
 
     /**
@@ -109,6 +202,18 @@ public final class JsonConfig {
         return jmesPath;
     }
 
+    /**
+     * Return the compiled JMESPath expression, compiling it only the first time it is requested. The most recently
+     * used expressions are kept, up to {@value #MAX_CACHED_EXPRESSIONS}.
+     *
+     * @param expression the JMESPath expression
+     * @return the compiled {@link Expression}, shared by all threads
+     * @throws io.burt.jmespath.parser.ParseException if the expression is not valid
+     */
+    public Expression<JsonNode> compileCached(String expression) {
+        return expressions.computeIfAbsent(expression, e -> jmesPath.compile(e));
+    }
+
     /**
      * Add a custom {@link io.burt.jmespath.function.Function} to JMESPath
      * {@link Base64Function} and {@link Base64GZipFunction} are already built-in.
@@ -124,6 +229,8 @@ public final class JsonConfig {
                 .build();
 
         jmesPath = new JacksonRuntime(updatedConfig, getObjectMapper());
+        // expressions are bound to the functions known when they were compiled
+        expressions.clear();
     }
 
     private static final class ConfigHolder {
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.utilities;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JMESPath envelope made only of fields and indexes, such as {@code body}, {@code detail.items[0]} or
+ * {@code Records[*].body}, evaluated on the tokens of the event as they are parsed.
+ * <p>
+ * The parts of the event that are not selected are skipped without being materialized, and the parsing stops as soon
+ * as the value is found, unless the envelope projects an array with {@code [*]}.
+ */
+final class StreamingEnvelope {
+    // Selects all the elements of an array
+    private static final int WILDCARD = -1;
+
+    // A step is either the name of a field (String) or an index in an array (Integer)
+    private final List<Object> steps;
+    private final boolean projection;
+
+    private StreamingEnvelope(List<Object> steps, boolean projection) {
+        this.steps = steps;
+        this.projection = projection;
+    }
+
+    /**
+     * Parses the envelope, if it can be evaluated as a stream.
+     *
+     * @param envelope the JMESPath envelope
+     * @return the envelope, or null if it uses other JMESPath features (functions, filters, slices...), or more than
+     *         one projection, in which case it must be evaluated on the whole tree
+     */
+    static StreamingEnvelope parse(String envelope) {
+        List<Object> steps = new ArrayList<>();
+        int wildcards = 0;
+        int i = 0;
+        int length = envelope.length();
+        while (i < length) {
+            char c = envelope.charAt(i);
+            if (c == '.' && !steps.isEmpty() && i + 1 < length && envelope.charAt(i + 1) != '[') {
+                i++;
+                c = envelope.charAt(i);
+            } else if (!steps.isEmpty() && c != '[') {
+                return null;
+            }
+            if (c == '"') {
+                int end = envelope.indexOf('"', i + 1);
+                if (end < 0 || envelope.lastIndexOf('\\', end) > i) {
+                    return null;
+                }
+                steps.add(envelope.substring(i + 1, end));
+                i = end + 1;
+            } else if (c == '[') {
+                int end = envelope.indexOf(']', i);
+                if (steps.isEmpty() || end < 0) {
+                    return null;
+                }
+                String index = envelope.substring(i + 1, end);
+                if ("*".equals(index)) {
+                    steps.add(WILDCARD);
+                    wildcards++;
+                } else if (!index.isEmpty() && index.length() < 10
+                        && index.chars().allMatch(d -> d >= '0' && d <= '9')) {
+                    steps.add(Integer.parseInt(index));
+                } else {
+                    return null;
+                }
+                i = end + 1;
+            } else if (isIdentifierPart(c) && !Character.isDigit(c)) {
+                int end = i + 1;
+                while (end < length && isIdentifierPart(envelope.charAt(end))) {
+                    end++;
+                }
+                steps.add(envelope.substring(i, end));
+                i = end;
+            } else {
+                return null;
+            }
+        }
+        // nested projections build nested lists in JMESPath, which is left to the tree evaluation
+        if (steps.isEmpty() || wildcards > 1) {
+            return null;
+        }
+        return new StreamingEnvelope(steps, wildcards == 1);
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Selects the value of the envelope from the event.
+     *
+     * @param parser the parser of the event, before its first token
+     * @return the selected value, an array of the selected values for a projection, or null if there is none, as
+     *         when the projected value is missing or is not an array
+     */
+    JsonNode select(JsonParser parser) throws IOException {
+        Selection selection = new Selection();
+        if (parser.nextToken() != null) {
+            select(parser, 0, selection);
+        }
+        if (projection) {
+            return selection.projected ? selection.matches : null;
+        }
+        return selection.matches.isEmpty() ? null : selection.matches.get(0);
+    }
+
+    /**
+     * Selects the values of the steps from the given one, the parser being on the first token of the current value.
+     * Unless the selection is over, the parser is left on the last token of the current value.
+     *
+     * @return true if the value was found and the parsing can stop
+     */
+    private boolean select(JsonParser parser, int step, Selection selection) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (step == steps.size()) {
+            if (token == JsonToken.VALUE_STRING) {
+                selection.matches.add(TextNode.valueOf(parser.getText()));
+            } else if (token != JsonToken.VALUE_NULL) {
+                // only the selected sub-document is materialized
+                selection.matches.add(parser.<JsonNode>readValueAsTree());
+            }
+            return !projection;
+        }
+        Object current = steps.get(step);
+        if (current instanceof String && token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                boolean selected = current.equals(parser.currentName());
+                parser.nextToken();
+                if (selected && select(parser, step + 1, selection)) {
+                    return true;
+                } else if (!selected) {
+                    parser.skipChildren();
+                }
+            }
+            return false;
+        }
+        if (current instanceof Integer && token == JsonToken.START_ARRAY) {
+            int index = (Integer) current;
+            int position = 0;
+            if (index == WILDCARD) {
+                selection.projected = true;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                boolean selected = index == WILDCARD || index == position++;
+                if (selected && select(parser, step + 1, selection)) {
+                    return true;
+                } else if (!selected) {
+                    parser.skipChildren();
+                }
+            }
+            return false;
+        }
+        // not the expected type of value: nothing to select in it
+        parser.skipChildren();
+        return false;
+    }
+
+    /**
+     * The values selected while parsing an event.
+     */
+    private static final class Selection {
+        private final ArrayNode matches = JsonNodeFactory.instance.arrayNode();
+        // Whether the array of the projection was found, JMESPath projecting anything else to null
+        private boolean projected;
+    }
+}
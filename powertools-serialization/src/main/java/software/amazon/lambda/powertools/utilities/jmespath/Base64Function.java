@@ -21,6 +21,8 @@ import io.burt.jmespath.JmesPathType;
 import io.burt.jmespath.function.ArgumentConstraints;
 import io.burt.jmespath.function.BaseFunction;
 import io.burt.jmespath.function.FunctionArgument;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.Base64;
 import java.util.List;
@@ -46,6 +48,16 @@ public class Base64Function extends BaseFunction {
         return Base64.getDecoder().decode(encoded);
     }
 
+    /**
+     * Decodes a Base64 encoded String as it is read, without copying it into an array of bytes first.
+     *
+     * @param encodedString the Base64 encoded String
+     * @return a stream of the decoded bytes
+     */
+    public static InputStream decodeAsStream(String encodedString) {
+        return Base64.getDecoder().wrap(new Latin1InputStream(encodedString));
+    }
+
     @Override
     protected <T> T callFunction(Adapter<T> runtime, List<FunctionArgument<T>> arguments) {
         T value = arguments.get(0).value();
@@ -55,4 +67,49 @@ public class Base64Function extends BaseFunction {
 
         return runtime.createString(decodedString);
     }
+
+    /**
+     * Reads the characters of a Base64 encoded String as bytes, failing on those out of the Latin-1 range which would
+     * otherwise be truncated into valid Base64 characters.
+     */
+    private static final class Latin1InputStream extends InputStream {
+        private final String value;
+        private int position;
+
+        private Latin1InputStream(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return position < value.length() ? latin1(value.charAt(position++)) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= value.length()) {
+                return -1;
+            }
+            int count = Math.min(len, value.length() - position);
+            for (int i = 0; i < count; i++) {
+                b[off + i] = (byte) latin1(value.charAt(position++));
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return value.length() - position;
+        }
+
+        private static int latin1(char c) throws IOException {
+            if (c > 0xFF) {
+                throw new IOException("Illegal base64 character " + Integer.toHexString(c));
+            }
+            return c;
+        }
+    }
 }
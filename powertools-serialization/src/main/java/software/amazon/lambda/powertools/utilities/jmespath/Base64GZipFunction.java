@@ -16,16 +16,17 @@ package software.amazon.lambda.powertools.utilities.jmespath;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static software.amazon.lambda.powertools.utilities.jmespath.Base64Function.decode;
+import static software.amazon.lambda.powertools.utilities.jmespath.Base64Function.decodeAsStream;
 
 import io.burt.jmespath.Adapter;
 import io.burt.jmespath.JmesPathType;
 import io.burt.jmespath.function.ArgumentConstraints;
 import io.burt.jmespath.function.BaseFunction;
 import io.burt.jmespath.function.FunctionArgument;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 
@@ -45,22 +46,35 @@ public class Base64GZipFunction extends BaseFunction {
         if (!isCompressed(compressed)) {
             return new String(compressed, UTF_8);
         }
-        try {
-            StringBuilder out = new StringBuilder();
-
-            GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
-            BufferedReader bf = new BufferedReader(new InputStreamReader(gzipStream, UTF_8));
-
-            String line;
-            while ((line = bf.readLine()) != null) {
-                out.append(line);
-            }
-            return out.toString();
+        try (InputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(gzipStream.readAllBytes(), UTF_8);
         } catch (IOException e) {
             return new String(compressed, UTF_8);
         }
     }
 
+    /**
+     * Decompresses a stream of bytes as it is read, if the bytes are GZipped. Other bytes are returned as is.
+     * <p>
+     * Combined with {@link Base64Function#decodeAsStream(String)}, and given to a Jackson parser, this avoids holding
+     * the decoded bytes and the decompressed String in memory.
+     *
+     * @param decoded the stream of possibly GZipped bytes
+     * @return a stream of the decompressed bytes
+     * @throws IOException if the bytes cannot be read, or have a GZip header but cannot be decompressed
+     */
+    public static InputStream decompressAsStream(InputStream decoded) throws IOException {
+        InputStream in = decoded.markSupported() ? decoded : new BufferedInputStream(decoded);
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xFF) && second == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(in);
+        }
+        return in;
+    }
+
     public static boolean isCompressed(final byte[] compressed) {
         return (compressed[0] == (byte) (GZIPInputStream.GZIP_MAGIC)) &&
                 (compressed[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8));
@@ -71,12 +85,18 @@ public class Base64GZipFunction extends BaseFunction {
         T value = arguments.get(0).value();
         String encodedString = runtime.toString(value);
 
-        String decompressString = decompress(decode(encodedString.getBytes(UTF_8)));
-
-        if (decompressString == null) {
+        if (encodedString.isEmpty()) {
             return runtime.createNull();
         }
 
-        return runtime.createString(decompressString);
+        byte[] decompressed;
+        try (InputStream in = decompressAsStream(decodeAsStream(encodedString))) {
+            decompressed = in.readAllBytes();
+        } catch (IOException e) {
+            // not valid GZip, return the decoded bytes as they are
+            decompressed = decode(encodedString.getBytes(UTF_8));
+        }
+
+        return runtime.createString(new String(decompressed, UTF_8));
     }
 }
@@ -18,9 +18,16 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static software.amazon.lambda.powertools.utilities.EventDeserializer.extractDataFrom;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -126,6 +133,118 @@ class EventDeserializerTest {
         assertProduct(products.get(0));
     }
 
+    @ParameterizedTest
+    @Event(value = "kinesis_event.json", type = KinesisEvent.class)
+    void testDeserializeKinesisEventMessageAsListTwice_shouldReturnSameList(KinesisEvent event) {
+        EventDeserializer.EventPart part = extractDataFrom(event);
+
+        List<Product> first = part.asListOf(Product.class);
+        List<Product> second = part.asListOf(Product.class);
+
+        assertThat(second).hasSize(2);
+        assertThat(second).extracting(Product::getName).isEqualTo(first.stream().map(Product::getName)
+                .collect(Collectors.toList()));
+        assertProduct(second.get(0));
+    }
+
+    @Test
+    void testDeserializeStringArrayAsStream_shouldReadElementsAndClose() {
+        String productStr = "[{\"id\":1234, \"name\":\"product\", \"price\":42}, {\"id\":2345, \"name\":\"product2\", \"price\":43}]";
+        EventDeserializer.EventPart part = extractDataFrom(productStr);
+
+        try (Stream<Product> products = part.asStreamOf(Product.class)) {
+            assertProduct(products.findFirst().get());
+        }
+        assertThat(part.asStreamOf(Product.class).count()).isEqualTo(2);
+        assertThat(extractDataFrom("[]").asStreamOf(Product.class).count()).isZero();
+    }
+
+    @ParameterizedTest
+    @Event(value = "kafka_event.json", type = KafkaEvent.class)
+    void testDeserializeKafkaEventMessageAsStream_shouldReturnStream(KafkaEvent event) {
+        List<Product> products = extractDataFrom(event).asStreamOf(Product.class).collect(Collectors.toList());
+        assertThat(products).hasSize(2);
+        assertProduct(products.get(0));
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void testDeserializeSQSEventMessageAsParallelStream_shouldReturnAllMessages(SQSEvent event) {
+        List<Product> products = extractDataFrom(event).asStreamOf(Product.class).parallel()
+                .collect(Collectors.toList());
+        assertThat(products).hasSize(2);
+        assertProduct(products.get(0));
+    }
+
+    @ParameterizedTest
+    @Event(value = "sqs_event.json", type = SQSEvent.class)
+    void testDeserializeSQSEventMessageAsIterator_shouldOnlyDecodePulledMessages(SQSEvent event) {
+        // the second message is not valid JSON, but is never pulled
+        event.getRecords().get(1).setBody("not json");
+
+        Iterator<Product> products = extractDataFrom(event).asIteratorOf(Product.class);
+
+        assertProduct(products.next());
+        assertThatThrownBy(products::next)
+                .isInstanceOf(EventDeserializationException.class)
+                .hasMessage("Cannot load the event as a list of Product");
+    }
+
+    @Test
+    void testDeserializeStringArrayAsIterator_shouldReturnElements() {
+        String productStr = "[{\"id\":1234, \"name\":\"product\", \"price\":42}, {\"id\":2345, \"name\":\"product2\", \"price\":43}]";
+        Iterator<Product> products = extractDataFrom(productStr).asIteratorOf(Product.class);
+        assertProduct(products.next());
+        assertThat(products.next().getName()).isEqualTo("product2");
+        assertThat(products.hasNext()).isFalse();
+    }
+
+    @Test
+    void testDeserializeStringAsStream_shouldThrowException() {
+        String productStr = "{\"id\":1234, \"name\":\"product\", \"price\":42}";
+        assertThatThrownBy(() -> extractDataFrom(productStr).asStreamOf(Product.class))
+                .isInstanceOf(EventDeserializationException.class)
+                .hasMessage("Cannot load the event as a list of Product, consider using 'as' instead");
+    }
+
+    @Test
+    void testExtractBodyFromAPIGatewayStream_shouldReturnObject() {
+        Product product = extractDataFrom(getClass().getResourceAsStream("/apigw_event.json"), "body")
+                .as(Product.class);
+        assertProduct(product);
+    }
+
+    @Test
+    void testExtractRecordsFromSQSStream_shouldReturnList() {
+        List<Product> products = extractDataFrom(getClass().getResourceAsStream("/sqs_event.json"),
+                "Records[*].body").asListOf(Product.class);
+        assertThat(products).hasSize(2);
+        assertProduct(products.get(0));
+    }
+
+    @Test
+    void testExtractDetailFromScheduledEventStream_shouldReturnObject() {
+        Product product = extractDataFrom(getClass().getResourceAsStream("/scheduled_event.json"), "detail")
+                .as(Product.class);
+        assertProduct(product);
+    }
+
+    @Test
+    void testExtractWithJMESPathFunctionFromStream_shouldEvaluateOnWholeEvent() {
+        Product product = extractDataFrom(getClass().getResourceAsStream("/apigw_event.json"),
+                "powertools_json(body)").as(Product.class);
+        assertProduct(product);
+    }
+
+    @Test
+    void testExtractMissingPartFromStream_shouldThrowExceptionOnDeserialization() {
+        EventDeserializer.EventPart part = extractDataFrom(getClass().getResourceAsStream("/apigw_event.json"),
+                "notThere.body");
+        assertThatThrownBy(() -> part.as(Product.class))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Event content is null: the event may be malformed (missing fields)");
+    }
+
     @ParameterizedTest
     @Event(value = "sqs_event.json", type = SQSEvent.class)
     void testDeserializeSQSEventMessageAsObject_shouldThrowException(SQSEvent event) {
@@ -214,6 +333,22 @@ class EventDeserializerTest {
         assertProduct(product);
     }
 
+    @ParameterizedTest
+    @Event(value = "cwl_event.json", type = CloudWatchLogsEvent.class)
+    void testDeserializeCompressedCWLEventMessageAsObjectShouldReturnObject(CloudWatchLogsEvent event)
+            throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(Base64.getDecoder().decode(event.getAwsLogs().getData()));
+        }
+        event.getAwsLogs().setData(Base64.getEncoder().encodeToString(compressed.toByteArray()));
+
+        EventDeserializer.EventPart part = extractDataFrom(event);
+
+        assertProduct(part.as(Product.class));
+        assertThat(part.as(String.class)).startsWith("{");
+    }
+
     @ParameterizedTest
     @Event(value = "kf_event.json", type = KinesisFirehoseEvent.class)
     void testDeserializeKFEventMessageAsListShouldReturnList(KinesisFirehoseEvent event) {
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.utilities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.annotation.JacksonInject;
+import com.fasterxml.jackson.databind.InjectableValues;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.burt.jmespath.Expression;
+
+import software.amazon.lambda.powertools.utilities.model.Product;
+
+class JsonConfigTest {
+
+    @Test
+    void getObjectMapper_shouldBeSharedAcrossThreads() {
+        ObjectMapper mapper = JsonConfig.get().getObjectMapper();
+
+        ObjectMapper otherThreadMapper = CompletableFuture.supplyAsync(() -> JsonConfig.get().getObjectMapper()).join();
+
+        assertThat(otherThreadMapper).isSameAs(mapper);
+    }
+
+    @Test
+    void getReader_shouldReuseReader_forTheSameType() {
+        JsonConfig config = JsonConfig.get();
+
+        assertThat(config.getReader(Product.class)).isSameAs(config.getReader(Product.class));
+        assertThat(config.getListReader(Product.class)).isSameAs(config.getListReader(Product.class));
+        assertThat(config.getListReader(Product.class)).isNotSameAs(config.getReader(Product.class));
+    }
+
+    @Test
+    void getWriter_shouldReuseWriter_forTheSameType() throws Exception {
+        JsonConfig config = JsonConfig.get();
+        Product product = new Product(42, "product", 12);
+
+        String json = config.getWriter(config.getObjectMapper().constructType(Product.class)).writeValueAsString(product);
+
+        assertThat(config.getWriter(config.getObjectMapper().constructType(Product.class)))
+                .isSameAs(config.getWriter(config.getObjectMapper().constructType(Product.class)));
+        assertThat(config.getReader(Product.class).<Product>readValue(json).getName()).isEqualTo("product");
+    }
+
+    @Test
+    void getWriter_shouldFollowMapperFeatures() throws Exception {
+        JsonConfig config = JsonConfig.get();
+        Product product = new Product(42, "product", 12);
+        config.getWriter(config.getObjectMapper().constructType(Product.class)).writeValueAsString(product);
+
+        config.getObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        try {
+            String json = config.getWriter(config.getObjectMapper().constructType(Product.class))
+                    .writeValueAsString(product);
+
+            assertThat(json).contains("\n");
+        } finally {
+            config.getObjectMapper().disable(SerializationFeature.INDENT_OUTPUT);
+        }
+    }
+
+    @Test
+    void configureObjectMapper_shouldDiscardCachedReaders() throws Exception {
+        JsonConfig config = JsonConfig.get();
+        config.getReader(Injected.class);
+
+        config.configureObjectMapper(mapper -> mapper.setInjectableValues(
+                new InjectableValues.Std().addValue("source", "mapper")));
+        try {
+            Injected injected = config.getReader(Injected.class).readValue("{\"value\":\"json\"}");
+
+            assertThat(injected.source).isEqualTo("mapper");
+        } finally {
+            config.configureObjectMapper(mapper -> mapper.setInjectableValues(null));
+        }
+    }
+
+    @Test
+    void compileCached_shouldReuseCompiledExpression() {
+        JsonConfig config = JsonConfig.get();
+
+        Expression<JsonNode> expression = config.compileCached("basket.products[*].id");
+
+        assertThat(config.compileCached("basket.products[*].id")).isSameAs(expression);
+        assertThat(expression.search(config.getObjectMapper().createObjectNode().put("id", 1))).isNotNull();
+    }
+
+    @Test
+    void compileCached_shouldEvictLeastRecentlyUsedExpressions() {
+        JsonConfig config = JsonConfig.get();
+        Expression<JsonNode> expression = config.compileCached("evicted");
+
+        for (int i = 0; i < 200; i++) {
+            config.compileCached("field" + i);
+        }
+
+        assertThat(config.compileCached("evicted")).isNotSameAs(expression);
+    }
+
+    static class Injected {
+        @JacksonInject("source")
+        public String source;
+        public String value;
+    }
+}
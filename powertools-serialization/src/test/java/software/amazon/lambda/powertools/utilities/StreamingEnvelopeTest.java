@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023 Amazon.com, Inc. or its affiliates.
+ * Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package software.amazon.lambda.powertools.utilities;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+class StreamingEnvelopeTest {
+
+    private static final String EVENT = "{\"a\": {\"skipped\": [1, {\"x\": 2}], \"b\": [{\"c\": \"first\"}, " +
+            "{\"c\": {\"d\": 1}}, {\"other\": true}], \"x-y\": \"quoted\"}}";
+
+    @ParameterizedTest
+    @ValueSource(strings = {"powertools_json(body)", "a[?b]", "a[0:2]", "a[*].b[*]", "a.*", "a.", "[0]", "a[-1]",
+            "a | b", "\"a\\\"b\""})
+    void parse_shouldRejectUnsupportedEnvelopes(String envelope) {
+        assertThat(StreamingEnvelope.parse(envelope)).isNull();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"body", "Records[*].body", "a.b[0].c", "a.\"x-y\"", "a[1][*]", "_a.b2"})
+    void parse_shouldAcceptFieldsAndIndexes(String envelope) {
+        assertThat(StreamingEnvelope.parse(envelope)).isNotNull();
+    }
+
+    @Test
+    void select_shouldReturnSelectedValue() throws IOException {
+        assertThat(select("a.b[0].c").textValue()).isEqualTo("first");
+        assertThat(select("a.b[1].c").get("d").intValue()).isEqualTo(1);
+        assertThat(select("a.\"x-y\"").textValue()).isEqualTo("quoted");
+        assertThat(select("a.b[5].c")).isNull();
+        assertThat(select("a.skipped.c")).isNull();
+        assertThat(select("a.missing[*].c")).isNull();
+        assertThat(select("a[*].b")).isNull();
+    }
+
+    @Test
+    void select_shouldReturnProjectedValues_withoutMissingOnes() throws IOException {
+        JsonNode values = select("a.b[*].c");
+
+        assertThat(values.isArray()).isTrue();
+        assertThat(values).hasSize(2);
+        assertThat(values.get(0).textValue()).isEqualTo("first");
+    }
+
+    @Test
+    void select_shouldMatchJMESPath() throws IOException {
+        JsonNode event = JsonConfig.get().getObjectMapper().readTree(EVENT);
+
+        for (String envelope : new String[] {"a.b[0].c", "a.b[*].c", "a.\"x-y\"", "a.skipped[1]", "a.missing[*].c",
+                "a[*].b", "a.b[*].other", "a.skipped[*]"}) {
+            JsonNode expected = JsonConfig.get().compileCached(envelope).search(event);
+            // JMESPath returns a null node where the streaming evaluation returns null
+            assertThat(select(envelope)).isEqualTo(expected.isNull() ? null : expected);
+        }
+    }
+
+    private static JsonNode select(String envelope) throws IOException {
+        try (JsonParser parser = JsonConfig.get().getObjectMapper().createParser(EVENT)) {
+            return StreamingEnvelope.parse(envelope).select(parser);
+        }
+    }
+}
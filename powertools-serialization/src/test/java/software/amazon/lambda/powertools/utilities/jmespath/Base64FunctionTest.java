@@ -14,9 +14,12 @@
 
 package software.amazon.lambda.powertools.utilities.jmespath;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.junit.jupiter.api.Test;
 
@@ -42,4 +45,22 @@ class Base64FunctionTest {
                 "  \"price\": 258\n" +
                 "}");
     }
+
+    @Test
+    void decodeAsStream_shouldDecodeLatin1Characters() throws IOException {
+        try (InputStream in = Base64Function.decodeAsStream("QUJD")) {
+            assertThat(in.read()).isEqualTo('A');
+            assertThat(new String(in.readAllBytes(), UTF_8)).isEqualTo("BC");
+        }
+    }
+
+    @Test
+    void decodeAsStream_shouldFailOnCharactersOutOfLatin1() {
+        // the low byte of U+0141 is 'A', which must not be decoded as such
+        assertThatThrownBy(() -> Base64Function.decodeAsStream("\u0141UJD").readAllBytes())
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Illegal base64 character");
+        assertThatThrownBy(() -> Base64Function.decodeAsStream("QUJ\u0144").read())
+                .isInstanceOf(IOException.class);
+    }
 }
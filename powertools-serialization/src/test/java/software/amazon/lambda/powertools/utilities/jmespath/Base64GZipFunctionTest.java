@@ -14,9 +14,15 @@
 
 package software.amazon.lambda.powertools.utilities.jmespath;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.Test;
 
@@ -48,7 +54,11 @@ class Base64GZipFunctionTest {
                 .compile("basket.powertools_base64_gzip(hiddenProduct)");
         JsonNode result = expression.search(event);
         assertThat(result.getNodeType()).isEqualTo(JsonNodeType.STRING);
-        assertThat(result.asText()).isEqualTo("{  \"id\": 43242,  \"name\": \"FooBar XY\",  \"price\": 258}");
+        assertThat(result.asText()).isEqualTo("{\n" +
+                "  \"id\": 43242,\n" +
+                "  \"name\": \"FooBar XY\",\n" +
+                "  \"price\": 258\n" +
+                "}");
     }
 
     @Test
@@ -87,4 +97,38 @@ class Base64GZipFunctionTest {
         assertThat(result.asText()).isEqualTo("test");
     }
 
+    @Test
+    void testDecompressAsStream_shouldDecodeAndDecompressWhileReading() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write("line1\nline2".getBytes(UTF_8));
+        }
+        String encoded = Base64.getEncoder().encodeToString(compressed.toByteArray());
+
+        try (InputStream in = Base64GZipFunction.decompressAsStream(Base64Function.decodeAsStream(encoded))) {
+            assertThat(new String(in.readAllBytes(), UTF_8)).isEqualTo("line1\nline2");
+        }
+    }
+
+    @Test
+    void testDecompressAsStream_shouldReturnBytesAsIs_whenNotCompressed() throws IOException {
+        InputStream decoded = new ByteArrayInputStream("test".getBytes(UTF_8));
+
+        try (InputStream in = Base64GZipFunction.decompressAsStream(decoded)) {
+            assertThat(new String(in.readAllBytes(), UTF_8)).isEqualTo("test");
+        }
+    }
+
+    @Test
+    void testPowertoolsGzipEmptyPayload_shouldReturnEmptyString() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new GZIPOutputStream(compressed).close();
+        JsonNode event = JsonConfig.get().getObjectMapper().createObjectNode()
+                .put("data", Base64.getEncoder().encodeToString(compressed.toByteArray()));
+
+        JsonNode result = JsonConfig.get().compileCached("powertools_base64_gzip(data)").search(event);
+
+        assertThat(result.getNodeType()).isEqualTo(JsonNodeType.STRING);
+        assertThat(result.asText()).isEmpty();
+    }
 }
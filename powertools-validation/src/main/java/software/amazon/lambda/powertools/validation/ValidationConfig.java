@@ -19,6 +19,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.networknt.schema.JsonSchema;
 import com.networknt.schema.JsonSchemaFactory;
 import com.networknt.schema.SpecVersion;
+import io.burt.jmespath.Expression;
 import io.burt.jmespath.JmesPath;
 import io.burt.jmespath.function.BaseFunction;
 import org.crac.Context;
@@ -103,6 +104,17 @@ public class ValidationConfig implements Resource {
         return JsonConfig.get().getJmesPath();
     }
 
+    /**
+     * Return the compiled JMESPath expression, compiled only the first time it is requested.
+     *
+     * @param expression the JMESPath expression
+     * @return the compiled {@link Expression}
+     * @see JsonConfig#compileCached(String)
+     */
+    public Expression<JsonNode> compileCached(String expression) {
+        return JsonConfig.get().compileCached(expression);
+    }
+
     /**
      * Return an Object Mapper. Use this to customize (de)serialization config.
      *
@@ -123,6 +135,8 @@ public class ValidationConfig implements Resource {
         String sampleSchema = "{\"type\":\"object\"}";
         JsonSchema schema = ValidationUtils.getJsonSchema(sampleSchema);
         ValidationUtils.validate("{\"test\":\"dummy\"}", schema);
+        // Warm up the JMESPath parser, so that envelopes compile fast on the first invocations after restore
+        getJmesPath().compile("powertools_json(body).items[*]");
 
         ClassPreLoader.preloadClasses();
     }
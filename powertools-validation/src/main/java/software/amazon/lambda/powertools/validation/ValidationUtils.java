@@ -73,7 +73,7 @@ public class ValidationUtils {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             pojoSerializer.toJson(obj, out);
             JsonNode jsonNode = ValidationConfig.get().getObjectMapper().readTree(out.toString("UTF-8"));
-            Expression<JsonNode> expression = ValidationConfig.get().getJmesPath().compile(envelope);
+            Expression<JsonNode> expression = ValidationConfig.get().compileCached(envelope);
             subNode = expression.search(jsonNode);
             if (subNode == null || subNode instanceof NullNode) {
                 throw new ValidationException("Envelope not found in the object");